@@ -2,9 +2,11 @@ package ozomorph.actions;
 
 /**
  * Creates {@link Action} instance corresponding to name of the action as is used in solver.
+ * Actions are immutable, so one instance of each action is shared by all plans.
  */
 public class ActionFactory {
     private ActionSettings settings;
+    private Action goAhead, turnLeft, turnRight, waitAction;
 
     /**
      * Creates new ActionFactory.
@@ -12,6 +14,10 @@ public class ActionFactory {
      */
     public ActionFactory(ActionSettings settings) {
         this.settings = settings;
+        goAhead = new MoveAction(settings.getForwardDuration());
+        turnLeft = new TurnLeftAction(settings.getTurnDuration());
+        turnRight = new TurnRightAction(settings.getTurnDuration());
+        waitAction = new WaitAction(settings.getWaitDuration());
     }
 
     /**
@@ -20,17 +26,40 @@ public class ActionFactory {
      * @return Action of the name.
      */
     public Action createAction(String picatAction){
-        switch (picatAction){
-            case "goAhead":
-                return new MoveAction(settings.getForwardDuration());
-            case "turnLeft":
-                return new TurnLeftAction(settings.getTurnDuration());
-            case "turnRight":
-                return new TurnRightAction(settings.getTurnDuration());
-            case "wait":
-                return new WaitAction(settings.getWaitDuration());
-            default:
-                throw new IllegalArgumentException(String.format("Unknown picat action: %s.", picatAction));
-        }
+        return createAction((CharSequence) picatAction);
+    }
+
+    /**
+     * Gets {@link Action} corresponding to Picat name of an action, without creating a String from the name.
+     * @param picatAction Name of the action as is used in solver.
+     * @return Action of the name.
+     */
+    public Action createAction(CharSequence picatAction){
+        if("goAhead".contentEquals(picatAction))
+            return goAhead;
+        if("turnLeft".contentEquals(picatAction))
+            return turnLeft;
+        if("turnRight".contentEquals(picatAction))
+            return turnRight;
+        if("wait".contentEquals(picatAction))
+            return waitAction;
+        throw new IllegalArgumentException(String.format("Unknown picat action: %s.", picatAction));
+    }
+
+    /**
+     * Gets Picat name of an action created by this factory.
+     * @param action Action created by this factory.
+     * @return Name of the action as is used in solver.
+     */
+    public String getPicatName(Action action){
+        if(action == goAhead)
+            return "goAhead";
+        if(action == turnLeft)
+            return "turnLeft";
+        if(action == turnRight)
+            return "turnRight";
+        if(action == waitAction)
+            return "wait";
+        throw new IllegalArgumentException("Action was not created by this factory.");
     }
 }
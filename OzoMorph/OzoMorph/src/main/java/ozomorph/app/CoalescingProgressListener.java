@@ -0,0 +1,32 @@
+package ozomorph.app;
+
+import javafx.application.Platform;
+import ozomorph.pathfinder.ProgressListener;
+import ozomorph.pathfinder.SolverProgress;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Passes progress of the solver to UI thread.
+ * Progress reported while previous one is still waiting for UI thread is coalesced, only the latest one is shown.
+ */
+public class CoalescingProgressListener implements ProgressListener {
+    private final AtomicReference<SolverProgress> latest = new AtomicReference<>();
+    private final Consumer<SolverProgress> showProgress;
+
+    /**
+     * Creates new CoalescingProgressListener.
+     * @param showProgress Shows progress, called from UI thread.
+     */
+    public CoalescingProgressListener(Consumer<SolverProgress> showProgress) {
+        this.showProgress = showProgress;
+    }
+
+    @Override
+    public void progressChanged(SolverProgress progress) {
+        //only the first progress since last update schedules the update, the others just replace it
+        if (latest.getAndSet(progress) == null)
+            Platform.runLater(() -> showProgress.accept(latest.getAndSet(null)));
+    }
+}
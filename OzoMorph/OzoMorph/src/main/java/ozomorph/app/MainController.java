@@ -40,7 +40,9 @@ public class MainController {
     @FXML
     Pane pInitials, pTargets;
     @FXML
-    TextField tfHeight,tfWidth, tfForwardDuration, tfTurnDuration, tfWaitDuration;
+    TextField tfHeight,tfWidth, tfForwardDuration, tfTurnDuration, tfWaitDuration, tfAnytimeBudget;
+    @FXML
+    CheckBox cbAnytime;
     @FXML
     GridPane pDifferencies;
     @FXML
@@ -55,12 +57,24 @@ public class MainController {
 
     BooleanProperty isMapNotLoaded;
 
+    SolverSettings solverSettings;
+    PicatWorkerPool picatWorkerPool;
+    SolutionCache solutionCache;
+    /**
+     * The last solved instance and its plans, edited instances are replanned from them.
+     */
+    private volatile ProblemInstance lastInstance;
+    private volatile List<AgentMapNode> lastAgents;
+
     /**
      * Creates new MainController.
      */
     public MainController() {
         groupsColors = new HashMap<>();
         isMapNotLoaded = new SimpleBooleanProperty(true);
+        solverSettings = new SolverSettings();
+        picatWorkerPool = new PicatWorkerPool(solverSettings, ()->askForPicatExec());
+        solutionCache = new SolutionCache(64);
     }
 
     /**
@@ -96,12 +110,29 @@ public class MainController {
         tfWaitDuration.setTextFormatter(new TextFormatter<>(positiveFloatFilter));
         tfTurnDuration.setTextFormatter(new TextFormatter<>(positiveFloatFilter));
 
+        UnaryOperator<TextFormatter.Change> nonNegativeIntegerFilter = change -> {
+            String newText = change.getControlNewText();
+            if (newText.isEmpty())
+                return change;
+            if (newText.matches("[1-9][0-9]*|0")) {
+                return change;
+            }
+            return null;
+        };
+
+        tfAnytimeBudget.setTextFormatter(new TextFormatter<>(nonNegativeIntegerFilter));
+
         //set initial durations
         ActionSettings defaultDurations = new ActionSettings();
         tfForwardDuration.setText(String.valueOf(defaultDurations.getForwardDuration()));
         tfWaitDuration.setText(String.valueOf(defaultDurations.getWaitDuration()));
         tfTurnDuration.setText(String.valueOf(defaultDurations.getTurnDuration()));
 
+        //set initial anytime solving, budget is used only in anytime mode
+        cbAnytime.setSelected(solverSettings.isAnytime());
+        tfAnytimeBudget.setText(String.valueOf(solverSettings.getAnytimeBudget()));
+        tfAnytimeBudget.disableProperty().bind(cbAnytime.selectedProperty().not());
+
         //other things
         cpGroupColor.setValue(Color.RED);
         btMorph.setDisable(true);
@@ -109,6 +140,9 @@ public class MainController {
         btSave.disableProperty().bindBidirectional(isMapNotLoaded);
         btPrint.disableProperty().bindBidirectional(isMapNotLoaded);
 
+        //start solver in background, so that it is ready when user clicks Morph
+        picatWorkerPool.warmUp();
+
         logger.info("MainView inited.");
     }
 
@@ -180,19 +214,39 @@ public class MainController {
                     Double.parseDouble(tfTurnDuration.getCharacters().toString()),
                     Double.parseDouble(tfWaitDuration.getCharacters().toString())
             );
-            PathFinder pathFinder = new PathFinder(actionDurations, ()->askForPicatExec());
+            solverSettings.setAnytime(cbAnytime.isSelected());
+            String anytimeBudget = tfAnytimeBudget.getCharacters().toString();
+            solverSettings.setAnytimeBudget(anytimeBudget.isEmpty() ? 0 : Long.parseLong(anytimeBudget));
+            PathFinder pathFinder = new PathFinder(actionDurations, solverSettings, picatWorkerPool);
+            pathFinder.setSolutionCache(solutionCache);
             ProblemInstance problemInstance = new ProblemInstance(width, height, initialsMapController.getGroups(), targetsMapController.getGroups());
             problemInstance.validate();
 
             Alert picatRuning = new Alert(Alert.AlertType.INFORMATION,"Finding plans... \nClick Cancel to abort.", ButtonType.CANCEL);
+            pathFinder.setProgressListener(new CoalescingProgressListener(progress ->
+                    picatRuning.setContentText(String.format("Finding plans... \nTrying makespan %d for %.0f s (%.0f s in total).\nClick Cancel to abort.",
+                            progress.getMakespan(), progress.getMakespanTime(), progress.getElapsedTime()))));
+
+            AnytimeRun anytimeRun = solverSettings.isAnytime() ? new AnytimeRun(picatRuning, pathFinder) : null;
+            pathFinder.setSolutionListener(anytimeRun);
 
             Thread t = new Thread(()->{
                 try {
-                    List<AgentMapNode> agents = pathFinder.findPaths(problemInstance);
+                    if(anytimeRun != null){
+                        pathFinder.findPathsAnytime(problemInstance); //plans are shown by anytimeRun
+                        return;
+                    }
+                    ProblemInstance previousInstance = lastInstance;
+                    List<AgentMapNode> previousAgents = lastAgents;
+                    List<AgentMapNode> agents = solverSettings.isReplanning() && previousInstance != null
+                            ? pathFinder.replan(previousInstance, previousAgents, problemInstance)
+                            : pathFinder.findPaths(problemInstance);
+                    lastAgents = agents;
+                    lastInstance = problemInstance.copy();
                     Platform.runLater(() -> {
                         //picatRuning.close();
                         try {
-                            openSimulationWindow(agents);
+                            openSimulationWindow(agents, null);
                         } catch (IOException e) {
                             logger.error("Showing of simulation window failed.", e);
                             showError("Simulation window cannot be shown due to an error, check logs for details.");
@@ -217,7 +271,8 @@ public class MainController {
             });
             t.start();
             var res = picatRuning.showAndWait();
-            if(res.isPresent()){
+            //in anytime mode, solving continues while the simulation window is opened
+            if(res.isPresent() && (anytimeRun == null || !anytimeRun.isSimulationOpened())){
                 logger.info("Aborting pathFinder.");
                 pathFinder.stop();
             }
@@ -229,8 +284,8 @@ public class MainController {
             logger.error("No initial agents.", e);
             showError("No agents.");
         } catch (NumberFormatException e){
-            logger.error("Duration of an action is not double format (probably empty string).");
-            showError("Enter valid durations of actions.");
+            logger.error("Duration of an action is not double format (probably empty string) or time limit is too large.");
+            showError("Enter valid durations of actions and time limit.");
         }
     }
 
@@ -335,20 +390,71 @@ public class MainController {
     /**
      * Opens new Simulation window.
      * @param agents Agents that will be simulated in the window.
-     * @return New Simulation window.
+     * @param onClosed Called when the window is closed, may be null.
+     * @return Controller of the new Simulation window.
      * @throws IOException IO error while reading FXML describing the window.
      */
-    private Stage openSimulationWindow(List<AgentMapNode> agents) throws IOException {
+    private SimulationController openSimulationWindow(List<AgentMapNode> agents, Runnable onClosed) throws IOException {
         FXMLLoader loader = new FXMLLoader(getClass().getResource("simulationView.fxml"));
         Stage stage = new Stage();
         stage.setScene(new Scene((Pane) loader.load()));
         stage.setTitle("Simulation");
         SimulationController controller = loader.getController();
 
+        if(onClosed != null)
+            stage.setOnHidden(e -> onClosed.run());
         stage.show();
         controller.init(width, height,agents, MapSettings.getSettings());
 
-        return stage;
+        return controller;
+    }
+
+    /**
+     * Shows plans found by one anytime solving. The first plans are shown in new Simulation window,
+     * better plans found later are offered to the window. Closing the window stops the solving.
+     */
+    private class AnytimeRun implements SolutionListener {
+        private final Alert progressAlert;
+        private final PathFinder pathFinder;
+        private volatile boolean simulationOpened = false;
+        private SimulationController simulation; //accessed from UI thread only
+
+        /**
+         * Creates new AnytimeRun.
+         * @param progressAlert Dialog shown until the first plans are found.
+         * @param pathFinder PathFinder running the solving.
+         */
+        AnytimeRun(Alert progressAlert, PathFinder pathFinder) {
+            this.progressAlert = progressAlert;
+            this.pathFinder = pathFinder;
+        }
+
+        /**
+         * Gets whether the first plans have been shown.
+         * @return Whether Simulation window has been opened.
+         */
+        boolean isSimulationOpened() {
+            return simulationOpened;
+        }
+
+        @Override
+        public void solutionFound(List<AgentMapNode> agents, boolean optimal) {
+            Platform.runLater(() -> {
+                if(simulation != null) {
+                    simulation.offerPlans(agents, optimal ? "Optimal plans found." : "Better plans found.");
+                    return;
+                }
+                simulationOpened = true;
+                progressAlert.close();
+                try {
+                    simulation = openSimulationWindow(agents, pathFinder::stop);
+                } catch (IOException e) {
+                    logger.error("Showing of simulation window failed.", e);
+                    pathFinder.stop();
+                    showError("Simulation window cannot be shown due to an error, check logs for details.");
+                }
+            });
+        }
     }
 
     /**
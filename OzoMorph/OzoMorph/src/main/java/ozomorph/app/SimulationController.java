@@ -7,10 +7,12 @@ import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.Pane;
 import javafx.stage.FileChooser;
+import javafx.stage.Modality;
 import javafx.stage.Screen;
 import javafx.stage.Window;
 import javafx.util.Duration;
@@ -52,6 +54,9 @@ public class SimulationController {
     private Timeline timeline;
     private Mode mode = Mode.SIMULATION; //modified via choice box
 
+    private Alert plansOffer; //shown while better plans wait for user's decision
+    private List<AgentMapNode> offeredAgents;
+
 
     /**
      * Initialization, to allow parameter-less constructor needed for FXML.
@@ -215,6 +220,48 @@ public class SimulationController {
         positionsReseted = true;
     }
 
+    /**
+     * Offers better plans to user, simulation switches to them if user accepts.
+     * Offer that has not been answered yet is replaced by the new one.
+     * Must be called from UIThread.
+     * @param agents Agents with better plans.
+     * @param description Description of the plans shown to user.
+     */
+    public void offerPlans(List<AgentMapNode> agents, String description) {
+        offeredAgents = agents;
+        if (plansOffer == null) {
+            plansOffer = new Alert(Alert.AlertType.CONFIRMATION, "", ButtonType.YES, ButtonType.NO);
+            plansOffer.setTitle("Better plans");
+            plansOffer.setHeaderText(null);
+            plansOffer.initModality(Modality.NONE);
+            plansOffer.initOwner(pMap.getScene().getWindow());
+            plansOffer.setOnHidden(e -> {
+                if (plansOffer.getResult() == ButtonType.YES)
+                    usePlans(offeredAgents);
+                plansOffer = null;
+                offeredAgents = null;
+            });
+            plansOffer.show();
+        }
+        plansOffer.setContentText(description + "\nSimulate the new plans?");
+        logger.info("Better plans offered.");
+    }
+
+    /**
+     * Replaces simulated agents. Stops simulation if running.
+     * @param agents Agents with new plans.
+     */
+    private void usePlans(List<AgentMapNode> agents) {
+        if (tbRun.isSelected())
+            tbRun.fire(); //toggle off
+        if (timeline != null)
+            timeline.stop();
+        this.agents = agents;
+        positionsReseted = true;
+        initMap();
+        logger.info("Simulated plans replaced.");
+    }
+
     /**
      * Does one step of execution sequence animation.
      */
@@ -81,6 +81,22 @@ public class AgentMapNode implements MapNode {
         return plan;
     }
 
+    /**
+     * Gets X coordinate of starting position of this agent.
+     * @return X coordinate of starting position (grid).
+     */
+    public int getStartX() {
+        return originalX;
+    }
+
+    /**
+     * Gets Y coordinate of starting position of this agent.
+     * @return Y coordinate of starting position (grid).
+     */
+    public int getStartY() {
+        return originalY;
+    }
+
     /**
      * Gets group to which is this agent assigned.
      * @return Group to which is this agent assigned.
@@ -0,0 +1,649 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.*;
+
+/**
+ * Search-based solver of colored MAPF without connectivity (agents turn, each action takes one step, as in {@code model_c_t.pi}).
+ * Agents of each group are assigned to targets of the group by minimum-cost matching (Hungarian algorithm) on distances with turning.
+ * Conflict-based search then plans each agent to its target by space-time search and resolves conflicts of the plans
+ * (two agents at a vertex at the same time, or two agents swapping their vertices) by branching on constraints of one or the other agent.
+ * Both levels use focal search with bounded suboptimality (as ECBS): the low level expands, of the states whose f-value is at most
+ * {@link #SUBOPTIMALITY} times the smallest one, the state whose path has the fewest conflicts with current paths of other agents;
+ * the high level expands, of the nodes whose sum of costs is at most {@link #SUBOPTIMALITY} times the smallest lower bound,
+ * the node with the fewest conflicts. Lower bound of a node is the sum of the smallest f-values when paths of its agents were found.
+ * When search expands more high-level nodes than its budget, the assignment is considered costly: costs of assigned targets are raised
+ * to lengths of constrained paths of the first focal node (plus one for the two agents of its earliest conflict), agents are assigned again
+ * and search restarts if the assignment changed. The budget doubles after each round, after {@link #REASSIGN_ROUNDS} rounds search runs until it finishes.
+ * Sum of costs of the plans is at most {@link #SUBOPTIMALITY} times the optimum for the final assignment, makespan is not minimised.
+ */
+class ConflictBasedSearch {
+    private static final Logger logger = LoggerFactory.getLogger(ConflictBasedSearch.class);
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+    /**
+     * Number of high-level nodes expanded before targets are assigned again for the first time.
+     */
+    private static final int FIRST_REASSIGN_BUDGET = 256;
+    /**
+     * Number of times targets can be assigned again.
+     */
+    private static final int REASSIGN_ROUNDS = 6;
+    /**
+     * Factor by which sum of costs of expanded nodes can exceed sum of costs of the cheapest open node.
+     */
+    private static final double SUBOPTIMALITY = 1.2;
+
+    private int width, height;
+    private GridDistances distances;
+    private int agentsCount;
+    private int[] starts;
+    private List<int[]> groupAgents = new ArrayList<>();
+    private List<int[]> groupTargets = new ArrayList<>();
+    /**
+     * Cost of each agent to reach each target of its group (indexed by agent and target of the group), learned costs only grow.
+     */
+    private int[][] costs;
+    /**
+     * Index of target (within targets of the group) assigned to each agent.
+     */
+    private int[] assignment;
+    /**
+     * Distance (without turning) from each vertex to given target vertex, used as heuristic of A*.
+     */
+    private Map<Integer, int[]> toTarget = new HashMap<>();
+    /**
+     * Open nodes of the constraint tree ordered by lower bound.
+     */
+    private TreeSet<Node> open;
+    /**
+     * Open nodes with sum of costs at most {@link #focalBound}, ordered by number of conflicts.
+     */
+    private PriorityQueue<Node> focal;
+    /**
+     * Open nodes that are not focal, ordered by sum of costs.
+     */
+    private TreeSet<Node> waiting;
+    private int focalBound;
+    private long createdNodes;
+    private long expandedNodes, generatedNodes, lowLevelExpansions;
+    private int reassignments;
+    private volatile boolean cancelled;
+
+    /**
+     * Node of the constraint tree: constraints added along the branch and paths satisfying them.
+     */
+    private static class Node {
+        private Node parent;
+        private Constraint constraint;
+        /**
+         * States (vertex*4 + direction) of each agent until it stays at its target, indexed by agent and time.
+         */
+        private int[][] paths;
+        /**
+         * Lower bound of length of path of each agent under the constraints.
+         */
+        private int[] lowerBounds;
+        private int cost;
+        private int lowerBound;
+        private int conflicts;
+        private long id;
+    }
+
+    /**
+     * State of agent at time T reached by the low-level search.
+     */
+    private static class SearchState {
+        private SearchState parent;
+        private int t, state, f, conflicts;
+        private long id;
+    }
+
+    /**
+     * Agent must not be at vertex at time T (or at any time from T on), or must not move from vertex to another vertex between T and T+1,
+     * or must not stay at its target for good before time T+1.
+     */
+    private static class Constraint {
+        private int agent, t, vertex;
+        /**
+         * Vertex the agent must not move to, -1 for constraint on vertex.
+         */
+        private int toVertex;
+        /**
+         * Whether constraint on vertex holds from time T on.
+         */
+        private boolean fromTime;
+        /**
+         * Whether the constraint only requires path of the agent to be longer than T (the agent arrives at its target for good after T).
+         */
+        private boolean pathLength;
+
+        private Constraint(int agent, int t, int vertex, int toVertex, boolean fromTime, boolean pathLength) {
+            this.agent = agent;
+            this.t = t;
+            this.vertex = vertex;
+            this.toVertex = toVertex;
+            this.fromTime = fromTime;
+            this.pathLength = pathLength;
+        }
+    }
+
+    /**
+     * Creates new ConflictBasedSearch.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group, as many as agents of the group.
+     */
+    ConflictBasedSearch(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets) {
+        this.width = width;
+        this.height = height;
+        this.distances = new GridDistances(width, height);
+        for (List<PositionMapNode> initials : groupInitials)
+            agentsCount += initials.size();
+        starts = new int[agentsCount];
+        costs = new int[agentsCount][];
+        assignment = new int[agentsCount];
+
+        int agent = 0;
+        for (int g = 0; g < groupInitials.size(); g++) {
+            int[] targets = groupTargets.get(g).stream().mapToInt(distances::vertex).toArray();
+            int[] agents = new int[groupInitials.get(g).size()];
+            for (int i = 0; i < agents.length; i++, agent++) {
+                agents[i] = agent;
+                starts[agent] = distances.vertex(groupInitials.get(g).get(i));
+                int[] fromInitial = distances.from(groupInitials.get(g).get(i), true);
+                costs[agent] = new int[targets.length];
+                for (int j = 0; j < targets.length; j++)
+                    costs[agent][j] = fromInitial[targets[j]];
+            }
+            groupAgents.add(agents);
+            this.groupTargets.add(targets);
+        }
+    }
+
+    /**
+     * Finds plans of all agents.
+     * @param progressListener Listener of progress (makespan of the cheapest open node), may be null.
+     * @return Names of actions of each agent (in Picat form), all plans have the same number of steps, null if cancelled.
+     */
+    List<List<String>> solve(ProgressListener progressListener) {
+        long start = System.nanoTime();
+        for (int g = 0; g < groupAgents.size(); g++)
+            assignGroup(g);
+        restart();
+        long budget = FIRST_REASSIGN_BUDGET;
+        for (int round = 0; ; round++) {
+            Node solution = search(round < REASSIGN_ROUNDS ? budget : Long.MAX_VALUE, progressListener, start);
+            double solveTime = (System.nanoTime() - start) / 1e9;
+            if (cancelled)
+                return null;
+            if (solution == null && open.isEmpty()) {
+                logger.info(String.format("Conflict-based search found no plans in %.3f s: %d high-level nodes expanded, %d low-level expansions.",
+                        solveTime, expandedNodes, lowLevelExpansions));
+                return null;
+            }
+            if (solution != null) {
+                logger.info(String.format("Conflict-based search found plans of makespan %d (sum of costs %d) in %.3f s: "
+                                + "%d high-level nodes expanded (%d generated), %d low-level expansions, %d reassignments.",
+                        makespan(solution.paths), solution.cost, solveTime, expandedNodes, generatedNodes, lowLevelExpansions, reassignments));
+                return toPlans(solution.paths);
+            }
+            if (reassign(focal.peek())) {
+                reassignments++;
+                logger.info(String.format("Targets assigned again after %d high-level nodes.", expandedNodes));
+                restart();
+            }
+            budget *= 2;
+        }
+    }
+
+    /**
+     * Stops running {@link #solve(ProgressListener)}.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Expands nodes of the constraint tree until a node without conflicts is found.
+     * @param budget Number of expanded nodes after which search stops.
+     * @return Node without conflicts, null if budget ran out, if there are no open nodes or if cancelled.
+     */
+    private Node search(long budget, ProgressListener progressListener, long start) {
+        for (long expanded = 0; expanded < budget && !cancelled && !open.isEmpty(); expanded++) {
+            Node node = focal.poll();
+            open.remove(node);
+            int[] conflict = findConflict(node.paths);
+            if (conflict == null)
+                return node;
+            expandedNodes++;
+            if (progressListener != null && expandedNodes % 256 == 0)
+                progressListener.progressChanged(new SolverProgress(makespan(node.paths), 0, (System.nanoTime() - start) / 1e9));
+            //conflict is {agent, other agent, time, vertex of agent at time, vertex of other agent at time (the same for vertex conflict)}
+            for (int i = 0; i < 2; i++) {
+                int agent = conflict[i], other = conflict[1 - i], t = conflict[2];
+                //at target of an agent that already stays there: that agent arrives later (only its path gets longer, it may still
+                //be at the target at the time), or the other agent avoids the target for good
+                Constraint constraint;
+                if (conflict[3] != conflict[4])
+                    constraint = new Constraint(agent, t - 1, conflict[i == 0 ? 4 : 3], conflict[i == 0 ? 3 : 4], false, false);
+                else if (node.paths[agent].length - 1 <= t)
+                    constraint = new Constraint(agent, t, conflict[3], -1, false, true);
+                else
+                    constraint = new Constraint(agent, t, conflict[3], -1, node.paths[other].length - 1 <= t, false);
+                Node child = new Node();
+                child.parent = node;
+                child.constraint = constraint;
+                child.paths = node.paths.clone();
+                child.lowerBounds = node.lowerBounds.clone();
+                if (!findPath(child, agent))
+                    continue;
+                evaluate(child);
+                add(child);
+                generatedNodes++;
+            }
+            updateFocal();
+        }
+        return null;
+    }
+
+    /**
+     * Adds node to open nodes, and to focal nodes if it is cheap enough.
+     */
+    private void add(Node node) {
+        node.id = createdNodes++;
+        open.add(node);
+        if (node.cost <= focalBound)
+            focal.add(node);
+        else
+            waiting.add(node);
+    }
+
+    /**
+     * Raises bound of focal nodes when the smallest lower bound of open nodes grows, nodes within the new bound become focal.
+     * The node with the smallest lower bound is always focal (its paths are within the bound of their agents).
+     */
+    private void updateFocal() {
+        if (open.isEmpty())
+            return;
+        focalBound = Math.max(focalBound, (int) (SUBOPTIMALITY * open.first().lowerBound));
+        while (!waiting.isEmpty() && waiting.first().cost <= focalBound)
+            focal.add(waiting.pollFirst());
+    }
+
+    /**
+     * Starts search from the root node with paths of the current assignment.
+     */
+    private void restart() {
+        open = new TreeSet<>(Comparator.comparingInt((Node n) -> n.lowerBound).thenComparingLong(n -> n.id));
+        focal = new PriorityQueue<>(Comparator.comparingInt((Node n) -> n.conflicts).thenComparingInt(n -> n.cost).thenComparingLong(n -> n.id));
+        waiting = new TreeSet<>(Comparator.comparingInt((Node n) -> n.cost).thenComparingLong(n -> n.id));
+        Node root = new Node();
+        root.paths = new int[agentsCount][];
+        root.lowerBounds = new int[agentsCount];
+        for (int a = 0; a < agentsCount; a++)
+            findPath(root, a);
+        evaluate(root);
+        focalBound = Math.max(root.cost, (int) (SUBOPTIMALITY * root.lowerBound));
+        add(root);
+    }
+
+    /**
+     * Assigns targets to agents of a group by minimum-cost matching on current costs.
+     */
+    private void assignGroup(int g) {
+        int[] agents = groupAgents.get(g);
+        int[][] groupCosts = new int[agents.length][];
+        for (int i = 0; i < agents.length; i++)
+            groupCosts[i] = costs[agents[i]];
+        int[] matching = minimumCostMatching(groupCosts);
+        for (int i = 0; i < agents.length; i++)
+            assignment[agents[i]] = matching[i];
+    }
+
+    /**
+     * Raises costs of assigned targets to lengths of paths of given node (plus conflicts of the agent) and assigns targets again.
+     * @return Whether the assignment changed.
+     */
+    private boolean reassign(Node node) {
+        int[] conflicts = new int[agentsCount];
+        int[] conflict = findConflict(node.paths);
+        if (conflict != null) {
+            conflicts[conflict[0]]++;
+            conflicts[conflict[1]]++;
+        }
+        for (int a = 0; a < agentsCount; a++)
+            costs[a][assignment[a]] = Math.max(costs[a][assignment[a]], node.paths[a].length - 1 + conflicts[a]);
+        int[] previous = assignment.clone();
+        for (int g = 0; g < groupAgents.size(); g++)
+            assignGroup(g);
+        return !Arrays.equals(previous, assignment);
+    }
+
+    /**
+     * Computes cost (sum of lengths of paths), lower bound and number of conflicts of node.
+     */
+    private void evaluate(Node node) {
+        node.cost = 0;
+        node.lowerBound = 0;
+        for (int a = 0; a < agentsCount; a++) {
+            node.cost += node.paths[a].length - 1;
+            node.lowerBound += node.lowerBounds[a];
+        }
+        node.conflicts = countConflicts(node.paths);
+    }
+
+    /**
+     * Finds path of agent to its assigned target by focal space-time search, satisfying constraints of the node and its ancestors.
+     * Path is at most {@link #SUBOPTIMALITY} times longer than the shortest one and has few conflicts with current paths of other agents.
+     * Sets the path and its lower bound in the node.
+     * @return Whether path was found, false if constraints cannot be satisfied (e.g. agent facing a border must leave its initial vertex in the first step).
+     */
+    private boolean findPath(Node node, int agent) {
+        int target = groupTargets.get(groupOf(agent))[assignment[agent]];
+        int[] heuristic = toTarget.computeIfAbsent(target, v -> distances.toNearest(List.of(new PositionMapNode(v % width, v / width))));
+        Set<Long> blockedVertices = new HashSet<>(), blockedMoves = new HashSet<>();
+        Map<Integer, Integer> blockedFrom = new HashMap<>(); //vertex -> time from which it is blocked
+        int lastTargetConstraint = -1;
+        int horizon = 4 * width * height;
+        for (Node n = node; n != null; n = n.parent) {
+            Constraint c = n.constraint;
+            if (c == null || c.agent != agent)
+                continue;
+            horizon = Math.max(horizon, c.t + 4 * width * height);
+            if (c.pathLength)
+                lastTargetConstraint = Math.max(lastTargetConstraint, c.t);
+            else if (c.fromTime)
+                blockedFrom.merge(c.vertex, c.t, Math::min);
+            else if (c.toVertex < 0) {
+                blockedVertices.add(key(c.t, c.vertex));
+                if (c.vertex == target)
+                    lastTargetConstraint = Math.max(lastTargetConstraint, c.t);
+            } else
+                blockedMoves.add(key(c.t, c.vertex * width * height + c.toVertex));
+        }
+        if (blockedFrom.containsKey(target))
+            return false;
+        List<int[]> othersAt = othersOccupancy(node, agent);
+
+        TreeSet<SearchState> open = new TreeSet<>(Comparator.comparingInt((SearchState s) -> s.f).thenComparingLong(s -> s.id));
+        PriorityQueue<SearchState> focal = new PriorityQueue<>(Comparator.comparingInt((SearchState s) -> s.conflicts)
+                .thenComparingInt(s -> s.f).thenComparingInt(s -> -s.t).thenComparingLong(s -> s.id));
+        Map<Long, Integer> fewestConflicts = new HashMap<>(); //key (time, state) -> fewest conflicts of generated paths to it
+        Set<Long> expanded = new HashSet<>();
+        long[] ids = {0};
+        SearchState first = new SearchState();
+        first.state = starts[agent] * 4;
+        first.f = heuristic[starts[agent]];
+        open.add(first);
+        focal.add(first);
+        int bound = (int) (SUBOPTIMALITY * first.f);
+        while (!open.isEmpty()) {
+            SearchState current = focal.poll();
+            open.remove(current);
+            int t = current.t, v = current.state / 4, d = current.state % 4;
+            if (expanded.add(key(t, current.state))) {
+                lowLevelExpansions++;
+                if (v == target && t > lastTargetConstraint) {
+                    node.paths[agent] = reconstruct(current);
+                    node.lowerBounds[agent] = open.isEmpty() ? current.f : Math.min(current.f, open.first().f);
+                    return true;
+                }
+                for (int next : successors(v, d)) {
+                    int nv = next / 4;
+                    long nextKey = key(t + 1, next);
+                    if (t + 1 > horizon || expanded.contains(nextKey) || blockedVertices.contains(key(t + 1, nv))
+                            || blockedFrom.getOrDefault(nv, Integer.MAX_VALUE) <= t + 1
+                            || (nv != v && blockedMoves.contains(key(t, v * width * height + nv))))
+                        continue;
+                    int conflicts = current.conflicts + othersAt.get(Math.min(t + 1, othersAt.size() - 1))[nv];
+                    if (fewestConflicts.getOrDefault(nextKey, Integer.MAX_VALUE) <= conflicts)
+                        continue;
+                    fewestConflicts.put(nextKey, conflicts);
+                    SearchState successor = new SearchState();
+                    successor.parent = current;
+                    successor.t = t + 1;
+                    successor.state = next;
+                    successor.f = t + 1 + heuristic[nv];
+                    successor.conflicts = conflicts;
+                    successor.id = ++ids[0];
+                    open.add(successor);
+                    if (successor.f <= bound)
+                        focal.add(successor);
+                }
+            }
+            //states within the raised bound become focal
+            if (!open.isEmpty() && SUBOPTIMALITY * open.first().f > bound) {
+                int newBound = (int) (SUBOPTIMALITY * open.first().f);
+                for (SearchState state : open) {
+                    if (state.f > newBound)
+                        break;
+                    if (state.f > bound)
+                        focal.add(state);
+                }
+                bound = newBound;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets states reachable in one step: go ahead, wait, or turn (also by 180 degrees).
+     */
+    private List<Integer> successors(int v, int d) {
+        List<Integer> next = new ArrayList<>();
+        for (int nd = 0; nd < 4; nd++)
+            next.add(v * 4 + nd);
+        int nv = neighbour(v, d);
+        if (nv >= 0)
+            next.add(nv * 4 + d);
+        return next;
+    }
+
+    /**
+     * Counts other agents (that already have paths) at each vertex at each time, the last time holds agents staying at their targets.
+     * @return Number of other agents at each vertex, indexed by time and vertex.
+     */
+    private List<int[]> othersOccupancy(Node node, int agent) {
+        int makespan = 1;
+        for (int a = 0; a < agentsCount; a++)
+            if (a != agent && node.paths[a] != null)
+                makespan = Math.max(makespan, node.paths[a].length);
+        List<int[]> counts = new ArrayList<>();
+        for (int t = 0; t < makespan; t++) {
+            int[] count = new int[width * height];
+            for (int a = 0; a < agentsCount; a++)
+                if (a != agent && node.paths[a] != null)
+                    count[stateAt(node.paths[a], t) / 4]++;
+            counts.add(count);
+        }
+        return counts;
+    }
+
+    /**
+     * Finds the earliest conflict of paths.
+     * @return {agent, other agent, time, vertex of agent at time, vertex of other agent at time}, vertices are the same for conflict at vertex
+     * (for swap the agents exchange vertices between time-1 and time), null if there is no conflict.
+     */
+    private int[] findConflict(int[][] paths) {
+        int makespan = makespan(paths);
+        int[] previous = null;
+        for (int t = 0; t < makespan; t++) {
+            int[] agentAt = occupancy(paths, t);
+            for (int a = 0; a < agentsCount; a++) {
+                int v = stateAt(paths[a], t) / 4;
+                if (agentAt[v] != a)
+                    return new int[]{agentAt[v], a, t, v, v};
+                if (previous == null)
+                    continue;
+                int u = stateAt(paths[a], t - 1) / 4;
+                int other = previous[v];
+                if (u != v && other >= 0 && other != a && stateAt(paths[other], t) / 4 == u)
+                    return new int[]{a, other, t, v, u};
+            }
+            previous = agentAt;
+        }
+        return null;
+    }
+
+    /**
+     * Counts conflicts of paths (agents sharing a vertex, swaps counted once).
+     */
+    private int countConflicts(int[][] paths) {
+        int makespan = makespan(paths);
+        int conflicts = 0;
+        int[] previous = null;
+        for (int t = 0; t < makespan; t++) {
+            int[] agentAt = occupancy(paths, t);
+            for (int a = 0; a < agentsCount; a++) {
+                int v = stateAt(paths[a], t) / 4;
+                if (agentAt[v] != a)
+                    conflicts++;
+                if (previous == null)
+                    continue;
+                int u = stateAt(paths[a], t - 1) / 4;
+                int other = previous[v];
+                if (u != v && other > a && stateAt(paths[other], t) / 4 == u)
+                    conflicts++;
+            }
+            previous = agentAt;
+        }
+        return conflicts;
+    }
+
+    /**
+     * Gets agent at each vertex at time T (the first one if more agents share it), -1 for free vertices.
+     */
+    private int[] occupancy(int[][] paths, int t) {
+        int[] agentAt = new int[width * height];
+        Arrays.fill(agentAt, -1);
+        for (int a = 0; a < agentsCount; a++) {
+            int v = stateAt(paths[a], t) / 4;
+            if (agentAt[v] < 0)
+                agentAt[v] = a;
+        }
+        return agentAt;
+    }
+
+    /**
+     * Converts paths to names of actions, all agents wait at their targets until the longest path ends.
+     */
+    private List<List<String>> toPlans(int[][] paths) {
+        int makespan = makespan(paths);
+        List<List<String>> plans = new ArrayList<>();
+        for (int[] path : paths) {
+            List<String> plan = new ArrayList<>();
+            for (int t = 1; t < makespan; t++)
+                EmbeddedSatPlanner.appendActions(plan, stateAt(path, t - 1), stateAt(path, t));
+            plans.add(plan);
+        }
+        return plans;
+    }
+
+    /**
+     * Finds minimum-cost perfect matching of square matrix by the Hungarian algorithm with potentials.
+     * @param cost Cost of each row and column.
+     * @return Column matched to each row.
+     */
+    static int[] minimumCostMatching(int[][] cost) {
+        int n = cost.length;
+        long[] u = new long[n + 1], v = new long[n + 1];
+        int[] rowOfColumn = new int[n + 1], way = new int[n + 1]; //1-based, column 0 is auxiliary
+        for (int row = 1; row <= n; row++) {
+            rowOfColumn[0] = row;
+            int column = 0;
+            long[] minimum = new long[n + 1];
+            boolean[] used = new boolean[n + 1];
+            Arrays.fill(minimum, Long.MAX_VALUE);
+            do {
+                used[column] = true;
+                int r = rowOfColumn[column], nextColumn = 0;
+                long delta = Long.MAX_VALUE;
+                for (int c = 1; c <= n; c++) {
+                    if (used[c])
+                        continue;
+                    long reduced = cost[r - 1][c - 1] - u[r] - v[c];
+                    if (reduced < minimum[c]) {
+                        minimum[c] = reduced;
+                        way[c] = column;
+                    }
+                    if (minimum[c] < delta) {
+                        delta = minimum[c];
+                        nextColumn = c;
+                    }
+                }
+                for (int c = 0; c <= n; c++) {
+                    if (used[c]) {
+                        u[rowOfColumn[c]] += delta;
+                        v[c] -= delta;
+                    } else
+                        minimum[c] -= delta;
+                }
+                column = nextColumn;
+            } while (rowOfColumn[column] != 0);
+            do {
+                int previousColumn = way[column];
+                rowOfColumn[column] = rowOfColumn[previousColumn];
+                column = previousColumn;
+            } while (column != 0);
+        }
+        int[] matching = new int[n];
+        for (int c = 1; c <= n; c++)
+            matching[rowOfColumn[c] - 1] = c - 1;
+        return matching;
+    }
+
+    /**
+     * Gets group of agent.
+     */
+    private int groupOf(int agent) {
+        for (int g = 0; g < groupAgents.size(); g++) {
+            int[] agents = groupAgents.get(g);
+            if (agent <= agents[agents.length - 1])
+                return g;
+        }
+        throw new IllegalArgumentException("Unknown agent " + agent + ".");
+    }
+
+    /**
+     * Gets number of configurations of the longest path.
+     */
+    private static int makespan(int[][] paths) {
+        int makespan = 1;
+        for (int[] path : paths)
+            makespan = Math.max(makespan, path.length);
+        return makespan;
+    }
+
+    /**
+     * Gets state of agent at time T, agents stay in their last state after their path ends.
+     */
+    private static int stateAt(int[] path, int t) {
+        return path[Math.min(t, path.length - 1)];
+    }
+
+    private int[] reconstruct(SearchState goal) {
+        int[] path = new int[goal.t + 1];
+        for (SearchState state = goal; state != null; state = state.parent)
+            path[state.t] = state.state;
+        return path;
+    }
+
+    private long key(int t, int state) {
+        return ((long) t << 32) | state;
+    }
+
+    /**
+     * Gets neighbour of vertex in direction, -1 if it is outside of the grid.
+     */
+    private int neighbour(int v, int d) {
+        int x = v % width + directions[d][0], y = v / width + directions[d][1];
+        return x >= 0 && y >= 0 && x < width && y < height ? y * width + x : -1;
+    }
+}
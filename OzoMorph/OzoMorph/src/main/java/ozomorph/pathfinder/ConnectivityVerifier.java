@@ -0,0 +1,94 @@
+package ozomorph.pathfinder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that agents of each group occupy connected vertices (4-neighbourhood of the grid) at each time of plans.
+ */
+class ConnectivityVerifier {
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+
+    private int width, height;
+    private List<int[]> groupAgents;
+
+    /**
+     * Creates new ConnectivityVerifier.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupAgents Numbers of agents of each group.
+     */
+    ConnectivityVerifier(int width, int height, List<int[]> groupAgents) {
+        this.width = width;
+        this.height = height;
+        this.groupAgents = groupAgents;
+    }
+
+    /**
+     * Finds groups that are not connected at some time.
+     * @param states State (vertex*4 + direction) of each agent at each time, indexed by time and agent.
+     * @return Pairs {time, group} of disconnected groups, ordered by time.
+     */
+    List<int[]> findDisconnected(int[][] states) {
+        List<int[]> disconnected = new ArrayList<>();
+        for (int t = 0; t < states.length; t++)
+            for (int g = 0; g < groupAgents.size(); g++)
+                if (!isConnected(states[t], g))
+                    disconnected.add(new int[]{t, g});
+        return disconnected;
+    }
+
+    /**
+     * Checks whether agents of a group occupy connected vertices.
+     * @param states State (vertex*4 + direction) of each agent.
+     * @param group Index of the group.
+     * @return Whether the group is connected.
+     */
+    boolean isConnected(int[] states, int group) {
+        int[] agents = groupAgents.get(group);
+        if (agents.length <= 1)
+            return true;
+        boolean[] occupied = new boolean[width * height];
+        for (int a : agents)
+            occupied[states[a] / 4] = true;
+        return components(occupied).size() == 1;
+    }
+
+    /**
+     * Splits occupied vertices to connected components, by BFS from each vertex not reached yet.
+     * @param occupied Whether each vertex is occupied.
+     * @return Vertices of each component.
+     */
+    List<List<Integer>> components(boolean[] occupied) {
+        List<List<Integer>> components = new ArrayList<>();
+        boolean[] reached = new boolean[width * height];
+        for (int first = 0; first < occupied.length; first++) {
+            if (!occupied[first] || reached[first])
+                continue;
+            List<Integer> component = new ArrayList<>();
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            reached[first] = true;
+            queue.add(first);
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                component.add(v);
+                for (int[] d : directions) {
+                    int x = v % width + d[0], y = v / width + d[1];
+                    if (x < 0 || y < 0 || x >= width || y >= height)
+                        continue;
+                    int nv = y * width + x;
+                    if (occupied[nv] && !reached[nv]) {
+                        reached[nv] = true;
+                        queue.add(nv);
+                    }
+                }
+            }
+            components.add(component);
+        }
+        return components;
+    }
+}
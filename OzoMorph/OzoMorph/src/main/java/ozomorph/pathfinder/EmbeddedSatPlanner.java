@@ -0,0 +1,616 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Solves instances in-process without Picat: the time-expanded model of connected agents that turn ({@code model_c_c_t.pi})
+ * is encoded to CNF directly and solved by {@link SatSolver}.
+ * Variables are the same as in the model: B[T,A,V,D] (agent A at vertex V facing D at time T), BN[T,A,V] (agent A at V)
+ * and F[T,E,A] (flow from the first agent of the group of A to A over edge E, which keeps groups connected).
+ * Layers of the encoding are added one by one as makespan grows, target constraints of makespan M are guarded by activation literal,
+ * which is assumed when solving M and disabled afterwards, so clauses learned for smaller makespans are kept.
+ * With lazy connectivity, flow constraints are left out and added only for groups and times at which found plans are disconnected,
+ * the makespan is solved again until plans are connected (constraints added for a time hold for all makespans).
+ */
+class EmbeddedSatPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedSatPlanner.class);
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+    /**
+     * Literal that is always false (variables are numbered from 1).
+     */
+    private static final int FALSE = 0;
+
+    private int width, height;
+    private int agentsCount;
+    private int[] groupOf;
+    private List<int[]> groupAgents = new ArrayList<>();
+    private List<int[]> groupTargets = new ArrayList<>();
+    /**
+     * Distance from initial state of agent to each state (vertex*4 + direction).
+     */
+    private int[][] earliest;
+    /**
+     * Distance from each vertex to the nearest target of group.
+     */
+    private int[][] toTargets;
+    /**
+     * Vertices that agents of each group can occupy, null if all vertices are allowed.
+     */
+    private boolean[][] allowedVertices;
+    /**
+     * Plans of other agents that agents of this planner must avoid, null if there are none.
+     */
+    private FixedPlans fixedPlans;
+    /**
+     * Vertex of each agent at each time tried first by the solver (the last one is used after the end), null for no hint.
+     */
+    private int[][] phaseHints;
+
+    private SatSolver solver = new SatSolver();
+    /**
+     * Variables B of layers, indexed by agent and state, {@link #FALSE} if the state is not reachable.
+     */
+    private List<int[][]> occupied = new ArrayList<>();
+    /**
+     * Variables BN of layers, indexed by agent and vertex.
+     */
+    private List<int[][]> occupiedVertex = new ArrayList<>();
+    private boolean lazyConnectivity;
+    private ConnectivityVerifier connectivityVerifier;
+    /**
+     * Pairs (time, group) whose flow constraints are in the encoding, as {@code time * groups + group}.
+     */
+    private Set<Long> connectedLayers = new HashSet<>();
+    private int refinementRounds;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates new EmbeddedSatPlanner.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group.
+     */
+    EmbeddedSatPlanner(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets) {
+        this(width, height, groupInitials, groupTargets, null);
+    }
+
+    /**
+     * Creates new EmbeddedSatPlanner for agents that start in given directions.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group.
+     * @param initialDirections Initial direction of each agent (number of clockwise turns from up), null if all agents face up.
+     */
+    EmbeddedSatPlanner(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets, int[] initialDirections) {
+        this(width, height, groupInitials, groupTargets, initialDirections, null);
+    }
+
+    /**
+     * Creates new EmbeddedSatPlanner whose groups can use only some vertices.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group.
+     * @param initialDirections Initial direction of each agent (number of clockwise turns from up), null if all agents face up.
+     * @param allowedVertices Vertices that agents of each group can occupy (must contain initial and target positions of the group), null if all vertices are allowed.
+     */
+    EmbeddedSatPlanner(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets, int[] initialDirections,
+                       boolean[][] allowedVertices) {
+        this.width = width;
+        this.allowedVertices = allowedVertices;
+        this.height = height;
+        GridDistances distances = new GridDistances(width, height);
+        for (List<PositionMapNode> initials : groupInitials)
+            agentsCount += initials.size();
+        groupOf = new int[agentsCount];
+        earliest = new int[agentsCount][];
+        toTargets = new int[groupInitials.size()][];
+
+        int agent = 0;
+        for (int g = 0; g < groupInitials.size(); g++) {
+            int[] agents = new int[groupInitials.get(g).size()];
+            for (int i = 0; i < agents.length; i++, agent++) {
+                agents[i] = agent;
+                groupOf[agent] = g;
+                earliest[agent] = distances.statesFrom(groupInitials.get(g).get(i), initialDirections == null ? 0 : initialDirections[agent]);
+            }
+            groupAgents.add(agents);
+            int[] targets = groupTargets.get(g).stream().mapToInt(distances::vertex).toArray();
+            this.groupTargets.add(targets);
+            toTargets[g] = distances.toNearest(groupTargets.get(g));
+        }
+        connectivityVerifier = new ConnectivityVerifier(width, height, groupAgents);
+    }
+
+    /**
+     * Sets plans of other agents that agents of this planner must avoid. Must be called before solving.
+     * Makespan must be larger than {@link FixedPlans#getLength()}, otherwise the other agents may pass through targets after the end of plans.
+     * @param fixedPlans Plans of other agents.
+     */
+    void setFixedPlans(FixedPlans fixedPlans) {
+        this.fixedPlans = fixedPlans;
+    }
+
+    /**
+     * Sets whether flow constraints keeping groups connected are added only for groups and times at which found plans are disconnected.
+     * Must be called before solving.
+     * @param lazyConnectivity Whether connectivity is enforced lazily.
+     */
+    void setLazyConnectivity(boolean lazyConnectivity) {
+        this.lazyConnectivity = lazyConnectivity;
+    }
+
+    /**
+     * Gets number of times plans were found disconnected and solved again with added connectivity constraints.
+     * @return Number of refinement rounds of lazy connectivity so far.
+     */
+    int getRefinementRounds() {
+        return refinementRounds;
+    }
+
+    /**
+     * Sets vertices that the solver tries first for agents (e.g. from previous plans), so that search starts near a known solution.
+     * Must be called before solving.
+     * @param phaseHints Vertex of each agent at each time (the last one is used after the end), null for no hint of an agent.
+     */
+    void setPhaseHints(int[][] phaseHints) {
+        this.phaseHints = phaseHints;
+    }
+
+    /**
+     * Finds plans of the smallest makespan, starting from given makespan.
+     * @param firstMakespan The smallest makespan (number of configurations) that can have plans.
+     * @param progressListener Listener of progress, may be null.
+     * @return Names of actions of each agent (in Picat form), null if cancelled.
+     */
+    List<List<String>> solve(int firstMakespan, ProgressListener progressListener) {
+        long start = System.nanoTime();
+        for (int makespan = Math.max(1, firstMakespan); ; makespan++) {
+            if (progressListener != null)
+                progressListener.progressChanged(new SolverProgress(makespan, 0, (System.nanoTime() - start) / 1e9));
+            Boolean satisfiable = solveExactly(makespan);
+            if (satisfiable == null)
+                return null;
+            if (satisfiable)
+                return extractPlans(makespan);
+        }
+    }
+
+    /**
+     * Finds plans of exactly given makespan. Makespans can be tried in any order, clauses learned by previous calls are kept.
+     * @param makespan Number of configurations.
+     * @return Names of actions of each agent (in Picat form), null if there are no plans or if cancelled.
+     */
+    List<List<String>> solveMakespan(int makespan) {
+        return Boolean.TRUE.equals(solveExactly(makespan)) ? extractPlans(makespan) : null;
+    }
+
+    /**
+     * Solves the encoding with targets of given makespan.
+     * Layers after the makespan may exist from previous calls, they do not restrict plans, agents can wait there.
+     * @param makespan Number of configurations.
+     * @return Whether plans exist, null if cancelled.
+     */
+    private Boolean solveExactly(int makespan) {
+        return solveExactly(makespan, new int[groupAgents.size()], null);
+    }
+
+    /**
+     * Finds plans of given makespan that only bring groups closer to their targets (used for planning in windows).
+     * Every agent ends at most {@code bound[g]} steps (without turning) from the nearest target of its group G,
+     * a group with bound 0 ends at its targets. If progress bounds are given, at least one group G with {@code progressBound[g] < bound[g]}
+     * ends within {@code progressBound[g]} steps from its targets.
+     * @param makespan Number of configurations.
+     * @param bound Largest allowed distance to targets at the end, for each group.
+     * @param progressBound Distances to targets of which at least one group must reach, null if only bounds are required.
+     * @return States (vertex*4 + direction) of each agent at each time, indexed by time and agent, null if there are no plans or if cancelled.
+     */
+    int[][] solveWindow(int makespan, int[] bound, int[] progressBound) {
+        return Boolean.TRUE.equals(solveExactly(makespan, bound, progressBound)) ? extractStates(makespan) : null;
+    }
+
+    /**
+     * Solves the encoding with goal of given makespan, see {@link #solveWindow(int, int[], int[])}.
+     * @return Whether plans exist, null if cancelled.
+     */
+    private Boolean solveExactly(int makespan, int[] bound, int[] progressBound) {
+        while (occupied.size() < makespan) {
+            if (cancelled)
+                return null;
+            addLayer(occupied.size());
+        }
+        int activation = solver.newVar();
+        addTargets(makespan, activation, bound, progressBound);
+
+        long start = System.nanoTime();
+        int rounds = 0;
+        Boolean satisfiable = cancelled ? null : solver.solve(activation);
+        while (lazyConnectivity && Boolean.TRUE.equals(satisfiable)) {
+            List<int[]> disconnected = connectivityVerifier.findDisconnected(extractStates(makespan));
+            if (disconnected.isEmpty())
+                break;
+            rounds++;
+            refinementRounds++;
+            for (int[] timeAndGroup : disconnected)
+                addConnectivity(timeAndGroup[0], timeAndGroup[1]);
+            satisfiable = cancelled ? null : solver.solve(activation);
+        }
+        logger.info(String.format("Makespan %d: %s in %.3f s (%d conflicts so far%s).", makespan,
+                satisfiable == null ? "cancelled" : satisfiable ? "plans found" : "no plans",
+                (System.nanoTime() - start) / 1e9, solver.getConflicts(),
+                lazyConnectivity ? String.format(", %d refinement rounds, connectivity of %d group layers", rounds, connectedLayers.size()) : ""));
+        solver.addClause(-activation); //targets of this makespan are not needed anymore, the model stays readable
+        return satisfiable;
+    }
+
+    /**
+     * Stops running {@link #solve(int, ProgressListener)}.
+     */
+    void cancel() {
+        cancelled = true;
+        solver.interrupt();
+    }
+
+    /**
+     * Gets whether solving was cancelled by {@link #cancel()}.
+     * @return Whether solving was cancelled.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Adds variables and constraints of time T (0-based) and transitions from time T-1.
+     * @param t Time of the layer.
+     */
+    private void addLayer(int t) {
+        int vertices = width * height;
+        int[][] b = new int[agentsCount][4 * vertices];
+        int[][] bn = new int[agentsCount][vertices];
+        for (int a = 0; a < agentsCount; a++) {
+            List<Integer> states = new ArrayList<>();
+            for (int s = 0; s < 4 * vertices; s++) {
+                if (earliest[a][s] <= t && (allowedVertices == null || allowedVertices[groupOf[a]][s / 4])
+                        && (fixedPlans == null || !fixedPlans.isBlocked(t, s / 4))) {
+                    b[a][s] = solver.newVar();
+                    states.add(b[a][s]);
+                }
+            }
+            //agent occupies at most one state, initially the starting one
+            atMostOne(states);
+            if (t == 0)
+                for (int s : states)
+                    solver.addClause(s);
+
+            for (int v = 0; v < vertices; v++) {
+                List<Integer> directionsAtV = new ArrayList<>();
+                for (int d = 0; d < 4; d++)
+                    if (b[a][4 * v + d] != FALSE)
+                        directionsAtV.add(b[a][4 * v + d]);
+                if (directionsAtV.isEmpty())
+                    continue;
+                bn[a][v] = solver.newVar();
+                if (phaseHints != null && phaseHints[a] != null && phaseHints[a][Math.min(t, phaseHints[a].length - 1)] == v)
+                    solver.setPhase(bn[a][v], true);
+                List<Integer> definition = new ArrayList<>();
+                definition.add(-bn[a][v]);
+                for (int literal : directionsAtV) {
+                    definition.add(literal);
+                    solver.addClause(-literal, bn[a][v]);
+                }
+                clause(definition);
+            }
+        }
+        occupied.add(b);
+        occupiedVertex.add(bn);
+
+        //at most one agent at each vertex
+        for (int v = 0; v < vertices; v++) {
+            List<Integer> agentsAtV = new ArrayList<>();
+            for (int a = 0; a < agentsCount; a++)
+                if (bn[a][v] != FALSE)
+                    agentsAtV.add(bn[a][v]);
+            atMostOne(agentsAtV);
+        }
+
+        if (t > 0)
+            addTransitions(t);
+        if (!lazyConnectivity)
+            for (int g = 0; g < groupAgents.size(); g++)
+                addConnectivity(t, g);
+    }
+
+    /**
+     * Adds transitions from time T-1 to T: go ahead keeping direction, or stay at vertex facing any direction.
+     * Agents cannot swap their vertices: at most one agent moves along each edge in either direction.
+     * @param t Time of the later layer.
+     */
+    private void addTransitions(int t) {
+        int[][] previous = occupied.get(t - 1);
+        int[][] current = occupied.get(t);
+        List<List<Integer>> edgeMoves = new ArrayList<>(); //moves along undirected edges, in either direction
+        for (int e = 0; e < 2 * width * height; e++)
+            edgeMoves.add(new ArrayList<>());
+
+        for (int a = 0; a < agentsCount; a++) {
+            for (int v = 0; v < width * height; v++) {
+                for (int d = 0; d < 4; d++) {
+                    int from = previous[a][4 * v + d];
+                    if (from == FALSE)
+                        continue;
+                    List<Integer> next = new ArrayList<>();
+                    next.add(-from);
+                    for (int nd = 0; nd < 4; nd++)
+                        next.add(current[a][4 * v + nd]);
+                    int nv = neighbour(v, d);
+                    if (nv >= 0 && current[a][4 * nv + d] != FALSE) {
+                        next.add(current[a][4 * nv + d]);
+                        int move = solver.newVar();
+                        solver.addClause(-from, -current[a][4 * nv + d], move);
+                        edgeMoves.get(undirectedEdge(v, nv)).add(move);
+                    }
+                    clause(next);
+                }
+            }
+        }
+        for (List<Integer> moves : edgeMoves)
+            atMostOne(moves);
+    }
+
+    /**
+     * Adds flow constraints keeping a group connected at time T (once for each time and group).
+     * For every agent A other than the first agent R of its group, one unit of flow goes from vertex of R to vertex of A,
+     * only through vertices occupied by agents of the group.
+     * @param t Time of the layer.
+     * @param g Index of the group.
+     */
+    private void addConnectivity(int t, int g) {
+        if (!connectedLayers.add((long) t * groupAgents.size() + g))
+            return;
+        int vertices = width * height;
+        int[][] bn = occupiedVertex.get(t);
+        int[] agents = groupAgents.get(g);
+        int root = agents[0];
+        for (int i = 1; i < agents.length; i++) {
+            int a = agents[i];
+            //flow variables of edges v -> neighbour(v,d), only between vertices that the group can occupy
+            int[] flow = new int[4 * vertices];
+            List<List<Integer>> in = new ArrayList<>(), out = new ArrayList<>();
+            for (int v = 0; v < vertices; v++) {
+                in.add(new ArrayList<>());
+                out.add(new ArrayList<>());
+            }
+            for (int v = 0; v < vertices; v++) {
+                for (int d = 0; d < 4; d++) {
+                    int nv = neighbour(v, d);
+                    if (nv < 0 || !groupCanOccupy(bn, agents, v) || !groupCanOccupy(bn, agents, nv))
+                        continue;
+                    flow[4 * v + d] = solver.newVar();
+                    out.get(v).add(flow[4 * v + d]);
+                    in.get(nv).add(flow[4 * v + d]);
+                    List<Integer> capacity = new ArrayList<>();
+                    capacity.add(-flow[4 * v + d]);
+                    for (int an : agents)
+                        capacity.add(bn[an][nv]);
+                    clause(capacity);
+                }
+            }
+
+            for (int v = 0; v < vertices; v++) {
+                atMostOne(in.get(v));
+                atMostOne(out.get(v));
+                //sink: flow enters, does not leave
+                if (bn[a][v] != FALSE) {
+                    List<Integer> sink = new ArrayList<>(in.get(v));
+                    sink.add(0, -bn[a][v]);
+                    clause(sink);
+                    for (int f : out.get(v))
+                        solver.addClause(-bn[a][v], -f);
+                }
+                //source: flow leaves, does not enter
+                if (bn[root][v] != FALSE) {
+                    List<Integer> source = new ArrayList<>(out.get(v));
+                    source.add(0, -bn[root][v]);
+                    clause(source);
+                    for (int f : in.get(v))
+                        solver.addClause(-bn[root][v], -f);
+                }
+                //conservation elsewhere
+                for (int f : in.get(v)) {
+                    List<Integer> conservation = new ArrayList<>(out.get(v));
+                    conservation.add(0, -f);
+                    conservation.add(bn[a][v]);
+                    clause(conservation);
+                }
+                for (int f : out.get(v)) {
+                    List<Integer> conservation = new ArrayList<>(in.get(v));
+                    conservation.add(0, -f);
+                    conservation.add(bn[root][v]);
+                    clause(conservation);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds constraints of makespan M guarded by activation literal: agents end at most given distance from targets of their group
+     * (targets are occupied by agents of their group at the last time for distance 0),
+     * and agents are only at vertices from which the allowed distance can be reached in time.
+     * @param makespan Number of configurations.
+     * @param activation Activation literal.
+     * @param bound Largest allowed distance to targets at the end, for each group.
+     * @param progressBound Distances to targets of which at least one group must reach, null if not required.
+     */
+    private void addTargets(int makespan, int activation, int[] bound, int[] progressBound) {
+        int last = makespan - 1;
+        int[][] bn = occupiedVertex.get(last);
+        for (int g = 0; g < groupAgents.size(); g++) {
+            if (bound[g] > 0)
+                continue;
+            for (int target : groupTargets.get(g)) {
+                List<Integer> occupiedTarget = new ArrayList<>();
+                occupiedTarget.add(-activation);
+                for (int a : groupAgents.get(g))
+                    occupiedTarget.add(bn[a][target]);
+                clause(occupiedTarget);
+            }
+        }
+        for (int t = 0; t <= last; t++) {
+            int[][] layer = occupiedVertex.get(t);
+            for (int a = 0; a < agentsCount; a++)
+                for (int v = 0; v < width * height; v++)
+                    if (layer[a][v] != FALSE && toTargets[groupOf[a]][v] > bound[groupOf[a]] + last - t)
+                        solver.addClause(-activation, -layer[a][v]);
+        }
+        if (progressBound == null)
+            return;
+
+        //at least one group makes progress: progress literal of the group implies all its agents end within its progress bound
+        List<Integer> someProgress = new ArrayList<>();
+        someProgress.add(-activation);
+        for (int g = 0; g < groupAgents.size(); g++) {
+            if (progressBound[g] >= bound[g])
+                continue;
+            int progress = solver.newVar();
+            someProgress.add(progress);
+            for (int a : groupAgents.get(g))
+                for (int v = 0; v < width * height; v++)
+                    if (bn[a][v] != FALSE && toTargets[g][v] > progressBound[g])
+                        solver.addClause(-progress, -bn[a][v]);
+        }
+        clause(someProgress);
+    }
+
+    /**
+     * Reads plans from model found by the solver, actions are the same as outputted by Picat models.
+     * @param makespan Number of configurations.
+     * @return Names of actions of each agent.
+     */
+    private List<List<String>> extractPlans(int makespan) {
+        List<List<String>> plans = new ArrayList<>();
+        for (int a = 0; a < agentsCount; a++) {
+            List<String> plan = new ArrayList<>();
+            int state = stateAt(0, a);
+            for (int t = 1; t < makespan; t++) {
+                int next = stateAt(t, a);
+                appendActions(plan, state, next);
+                state = next;
+            }
+            plans.add(plan);
+        }
+        return plans;
+    }
+
+    /**
+     * Reads states of agents from model found by the solver.
+     * @param makespan Number of configurations.
+     * @return State (vertex*4 + direction) of each agent at each time, indexed by time and agent.
+     */
+    private int[][] extractStates(int makespan) {
+        int[][] states = new int[makespan][agentsCount];
+        for (int t = 0; t < makespan; t++)
+            for (int a = 0; a < agentsCount; a++)
+                states[t][a] = stateAt(t, a);
+        return states;
+    }
+
+    /**
+     * Appends actions of one step between states (vertex*4 + direction), the same as outputted by Picat models:
+     * go ahead, wait, or turn (turn by 180 degrees is two turns to the right).
+     * @param plan Names of actions of the agent.
+     * @param state State of the agent before the step.
+     * @param next State of the agent after the step.
+     */
+    static void appendActions(List<String> plan, int state, int next) {
+        int turn = Math.floorMod(next % 4 - state % 4, 4);
+        if (next / 4 != state / 4)
+            plan.add("goAhead");
+        else if (turn == 0)
+            plan.add("wait");
+        else if (turn == 3)
+            plan.add("turnLeft");
+        else
+            for (int i = 0; i < turn; i++)
+                plan.add("turnRight");
+    }
+
+    /**
+     * Finds state of agent at time T in the model.
+     */
+    private int stateAt(int t, int agent) {
+        int[] b = occupied.get(t)[agent];
+        for (int s = 0; s < b.length; s++)
+            if (b[s] != FALSE && solver.value(b[s]))
+                return s;
+        throw new IllegalStateException("Agent " + agent + " has no state at time " + t + ".");
+    }
+
+    /**
+     * Checks whether some agent of the group can occupy vertex at the time of the layer.
+     */
+    private boolean groupCanOccupy(int[][] bn, int[] agents, int v) {
+        for (int a : agents)
+            if (bn[a][v] != FALSE)
+                return true;
+        return false;
+    }
+
+    /**
+     * Gets neighbour of vertex in direction, -1 if it is outside of the grid.
+     */
+    private int neighbour(int v, int d) {
+        int x = v % width + directions[d][0], y = v / width + directions[d][1];
+        return x >= 0 && y >= 0 && x < width && y < height ? y * width + x : -1;
+    }
+
+    /**
+     * Gets index of undirected edge between neighbouring vertices.
+     */
+    private int undirectedEdge(int v, int nv) {
+        int low = Math.min(v, nv), high = Math.max(v, nv);
+        return 2 * low + (high - low == 1 ? 0 : 1);
+    }
+
+    /**
+     * Adds clause, false literals are left out.
+     */
+    private void clause(List<Integer> literals) {
+        solver.addClause(literals.stream().mapToInt(Integer::intValue).filter(l -> l != FALSE).toArray());
+    }
+
+    /**
+     * Adds constraint that at most one of the literals is true, pairwise for few literals, by sequential counter otherwise.
+     */
+    private void atMostOne(List<Integer> literals) {
+        int n = literals.size();
+        if (n <= 5) {
+            for (int i = 0; i < n; i++)
+                for (int j = i + 1; j < n; j++)
+                    solver.addClause(-literals.get(i), -literals.get(j));
+            return;
+        }
+        int previous = solver.newVar();
+        solver.addClause(-literals.get(0), previous);
+        for (int i = 1; i < n - 1; i++) {
+            int current = solver.newVar();
+            solver.addClause(-literals.get(i), current);
+            solver.addClause(-previous, current);
+            solver.addClause(-literals.get(i), -previous);
+            previous = current;
+        }
+        solver.addClause(-literals.get(n - 1), -previous);
+    }
+}
@@ -0,0 +1,153 @@
+package ozomorph.pathfinder;
+
+import ozomorph.actions.Action;
+import ozomorph.actions.MoveAction;
+import ozomorph.actions.TurnActionBase;
+import ozomorph.actions.TurnRightAction;
+import ozomorph.nodes.AgentMapNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans of agents that are kept when other agents are planned again, other agents must avoid them.
+ * Plans are lists of actions without boundaries of steps (a step may contain more actions, e.g. two turns to the right),
+ * so time of each action is known only within bounds: the earliest when steps contain as many actions as possible,
+ * the latest when each action is a step. Vertex is blocked from the earliest arrival of an agent to one step after its latest departure
+ * (so other agents can neither swap with the agent nor enter the vertex it is just leaving). Agents stay at their last vertices forever.
+ */
+class FixedPlans {
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+
+    private int width, height;
+    /**
+     * Blocked vertices at each time.
+     */
+    private List<boolean[]> blocked = new ArrayList<>();
+    /**
+     * Vertices blocked after the end of all plans.
+     */
+    private boolean[] blockedForever;
+
+    /**
+     * Creates new FixedPlans.
+     * @param agents Agents with kept plans.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     */
+    FixedPlans(List<AgentMapNode> agents, int width, int height) {
+        this.width = width;
+        this.height = height;
+        blockedForever = new boolean[width * height];
+        for (AgentMapNode agent : agents)
+            block(agent);
+    }
+
+    /**
+     * Gets number of steps after which all kept agents surely stand at their last vertices.
+     * @return Number of steps.
+     */
+    int getLength() {
+        return blocked.size();
+    }
+
+    /**
+     * Checks whether other agents must not be at vertex at given time.
+     * @param t Time (step).
+     * @param v Index of vertex ({@code y*width + x}).
+     * @return Whether the vertex is blocked.
+     */
+    boolean isBlocked(int t, int v) {
+        return t < blocked.size() ? blocked.get(t)[v] : blockedForever[v];
+    }
+
+    /**
+     * Computes vertex of agent at each step when steps contain as many actions as possible, as models of the solver output them.
+     * @param agent Agent with plan.
+     * @param width Width of grid map.
+     * @return Vertex ({@code y*width + x}) at each time, the last one is kept after the end of the plan.
+     */
+    static int[] earliestVertices(AgentMapNode agent, int width) {
+        List<Integer> vertices = new ArrayList<>();
+        int vertex = SubproblemDecomposition.startVertex(agent, width);
+        vertices.add(vertex);
+        List<Action> plan = agent.getPlan();
+        int[] earliest = earliestSteps(plan);
+        int direction = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            Action action = plan.get(i);
+            if (action instanceof MoveAction)
+                vertex += directions[direction][1] * width + directions[direction][0];
+            else if (action instanceof TurnActionBase)
+                direction = (direction + (action instanceof TurnRightAction ? 1 : 3)) % 4;
+            while (vertices.size() <= earliest[i])
+                vertices.add(vertex);
+            vertices.set(earliest[i], vertex);
+        }
+        return vertices.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Computes the earliest step of each action, steps are formed greedily as steps of models of the solver:
+     * going ahead followed by a turn left or by up to two turns right (models without turning), a turn left, or up to two turns right.
+     */
+    private static int[] earliestSteps(List<Action> plan) {
+        int[] steps = new int[plan.size()];
+        int step = 0;
+        int i = 0;
+        while (i < plan.size()) {
+            step++;
+            Action first = plan.get(i);
+            steps[i++] = step;
+            if (!(first instanceof MoveAction || first instanceof TurnRightAction))
+                continue;
+            //turns absorbed by the step
+            int rightTurns = first instanceof TurnRightAction ? 1 : 0;
+            while (i < plan.size() && plan.get(i) instanceof TurnRightAction && rightTurns < 2) {
+                steps[i++] = step;
+                rightTurns++;
+            }
+            if (first instanceof MoveAction && rightTurns == 0 && i < plan.size() && plan.get(i) instanceof TurnActionBase)
+                steps[i++] = step; //turn left after going ahead
+        }
+        return steps;
+    }
+
+    /**
+     * Blocks vertices visited by agent.
+     */
+    private void block(AgentMapNode agent) {
+        List<Action> plan = agent.getPlan();
+        int[] earliest = earliestSteps(plan);
+        int vertex = SubproblemDecomposition.startVertex(agent, width);
+        int direction = 0;
+        int arrival = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            Action action = plan.get(i);
+            if (action instanceof MoveAction) {
+                int latestDeparture = i + 1; //each action is a step
+                blockInterval(vertex, arrival, latestDeparture);
+                vertex += directions[direction][1] * width + directions[direction][0];
+                arrival = earliest[i];
+            } else if (action instanceof TurnActionBase)
+                direction = (direction + (action instanceof TurnRightAction ? 1 : 3)) % 4;
+        }
+        blockInterval(vertex, arrival, plan.size());
+        blockedForever[vertex] = true;
+        for (int t = plan.size() + 1; t < blocked.size(); t++)
+            blocked.get(t)[vertex] = true;
+    }
+
+    /**
+     * Blocks vertex in time interval (both inclusive), extends blocked times with vertices blocked forever.
+     */
+    private void blockInterval(int vertex, int from, int to) {
+        while (blocked.size() <= to)
+            blocked.add(blockedForever.clone());
+        for (int t = from; t <= to; t++)
+            blocked.get(t)[vertex] = true;
+    }
+}
@@ -0,0 +1,135 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.AgentMapNode;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Finds plans with the smallest makespan by exponential search followed by binary search.
+ * Makespans LB, LB+1, LB+2, LB+4, ... are tried until one has plans, then the gap between the largest makespan without plans
+ * and the smallest one with plans is halved until it is closed. Relies on monotonicity - if plans exist for makespan M,
+ * they exist for every larger makespan too (agents can wait). Large makespans then need logarithmically many solves instead of linearly many.
+ */
+class GallopingMakespanSearch {
+    private static final Logger logger = LoggerFactory.getLogger(GallopingMakespanSearch.class);
+
+    /**
+     * Solves problem instance for exactly one makespan.
+     */
+    @FunctionalInterface
+    interface MakespanSolver {
+        /**
+         * Solves the problem instance for given makespan.
+         * @param makespan Number of configurations of the plans.
+         * @return Agents with plans, null if no plans exist for the makespan (or solving was cancelled).
+         * @throws NoPlansFoundException Solving was cancelled.
+         * @throws IOException IO error.
+         * @throws InterruptedException Interrupted while waiting for the solver.
+         */
+        AgentMapNode[] solve(int makespan) throws IOException, InterruptedException, NoPlansFoundException;
+    }
+
+    private int firstMakespan;
+    private MakespanSolver solver;
+    private ProgressListener progressListener;
+    private Consumer<AgentMapNode[]> onPlansFound;
+    private volatile boolean cancelled;
+    private int gallopProbes, binaryProbes;
+
+    /**
+     * Creates new GallopingMakespanSearch.
+     * @param firstMakespan The smallest makespan that can have plans.
+     * @param solver Solver of single makespan.
+     * @param progressListener Listener notified about each tried makespan, may be null.
+     * @param onPlansFound Called with plans of every makespan that has plans (each one smaller than the previous one) before the search ends, may be null.
+     */
+    GallopingMakespanSearch(int firstMakespan, MakespanSolver solver, ProgressListener progressListener, Consumer<AgentMapNode[]> onPlansFound) {
+        this.firstMakespan = firstMakespan;
+        this.solver = solver;
+        this.progressListener = progressListener;
+        this.onPlansFound = onPlansFound;
+    }
+
+    /**
+     * Finds plans with the smallest makespan.
+     * @return Agents with plans of the smallest makespan.
+     * @throws IOException IO error.
+     * @throws InterruptedException Interrupted while waiting for the solver.
+     * @throws NoPlansFoundException Search was cancelled.
+     */
+    AgentMapNode[] search() throws IOException, InterruptedException, NoPlansFoundException {
+        long start = System.nanoTime();
+        int unsolvable = firstMakespan - 1; //largest makespan known to have no plans
+        int solvable;
+        AgentMapNode[] best;
+
+        //exponential phase
+        for (int step = 0; ; step = step == 0 ? 1 : 2 * step) {
+            int makespan = firstMakespan + step;
+            gallopProbes++;
+            AgentMapNode[] agents = probe(makespan, start);
+            if (agents != null) {
+                solvable = makespan;
+                best = agents;
+                break;
+            }
+            unsolvable = makespan;
+        }
+
+        //binary phase
+        while (solvable - unsolvable > 1) {
+            int makespan = (unsolvable + solvable) / 2;
+            binaryProbes++;
+            AgentMapNode[] agents = probe(makespan, start);
+            if (agents != null) {
+                solvable = makespan;
+                best = agents;
+            } else {
+                unsolvable = makespan;
+            }
+        }
+
+        logger.info(String.format("Smallest makespan %d found by %d exponential and %d binary probes in %.3f s.",
+                solvable, gallopProbes, binaryProbes, (System.nanoTime() - start) / 1e9));
+        return best;
+    }
+
+    /**
+     * Solves one makespan.
+     * @return Agents with plans, null if there are none.
+     */
+    private AgentMapNode[] probe(int makespan, long start) throws IOException, InterruptedException, NoPlansFoundException {
+        if (cancelled)
+            throw cancelledAfterProbes(start);
+        long probeStart = System.nanoTime();
+        if (progressListener != null)
+            progressListener.progressChanged(new SolverProgress(makespan, 0, (probeStart - start) / 1e9));
+        AgentMapNode[] agents = solver.solve(makespan);
+        if (cancelled)
+            throw cancelledAfterProbes(start);
+        logger.info(String.format("Makespan %d: %s in %.3f s.", makespan, agents != null ? "plans found" : "no plans", (System.nanoTime() - probeStart) / 1e9));
+        if (agents != null && onPlansFound != null)
+            onPlansFound.accept(agents);
+        return agents;
+    }
+
+    /**
+     * Logs probes tried before the search was cancelled.
+     * @return Exception ending the search.
+     */
+    private NoPlansFoundException cancelledAfterProbes(long start) {
+        logger.info(String.format("Search cancelled after %d exponential and %d binary probes in %.3f s.",
+                gallopProbes, binaryProbes, (System.nanoTime() - start) / 1e9));
+        return new NoPlansFoundException();
+    }
+
+    /**
+     * Cancels the search, running probe has to be stopped by the caller.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+}
@@ -0,0 +1,140 @@
+package ozomorph.pathfinder;
+
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Distances (numbers of steps) on obstacle-free grid map computed by BFS.
+ * Vertices are indexed from 0, index of position (x,y) is {@code y*width + x}.
+ */
+class GridDistances {
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+
+    private int width, height;
+
+    /**
+     * Creates new GridDistances.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     */
+    GridDistances(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Computes distances from given position to all vertices.
+     * With turning, states are pairs of vertex and direction, the agent starts facing up and each turn takes one step.
+     * @param start Starting position.
+     * @param turning Whether agent must turn before moving to another direction.
+     * @return Distance to each vertex.
+     */
+    int[] from(PositionMapNode start, boolean turning) {
+        int states = turning ? 4 : 1;
+        int[] distance = statesFrom(start, states, 0);
+        int[] vertexDistance = new int[width * height];
+        for (int v = 0; v < vertexDistance.length; v++) {
+            vertexDistance[v] = Integer.MAX_VALUE;
+            for (int d = 0; d < states; d++)
+                vertexDistance[v] = Math.min(vertexDistance[v], distance[v * states + d]);
+        }
+        return vertexDistance;
+    }
+
+    /**
+     * Computes distances from given position to all states of turning agent (vertex and direction), the agent starts facing up.
+     * @param start Starting position.
+     * @return Distance to each state, index of state is {@code vertex*4 + direction}.
+     */
+    int[] statesFrom(PositionMapNode start) {
+        return statesFrom(start, 4, 0);
+    }
+
+    /**
+     * Computes distances from given state of turning agent to all states.
+     * @param start Starting position.
+     * @param direction Starting direction (number of clockwise turns from up).
+     * @return Distance to each state, index of state is {@code vertex*4 + direction}.
+     */
+    int[] statesFrom(PositionMapNode start, int direction) {
+        return statesFrom(start, 4, direction);
+    }
+
+    /**
+     * BFS over states, each vertex has given number of states (1 without turning, 4 with turning).
+     */
+    private int[] statesFrom(PositionMapNode start, int states, int startDirection) {
+        boolean turning = states > 1;
+        int[] distance = new int[width * height * states];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int first = vertex(start) * states + startDirection;
+        distance[first] = 0;
+        queue.add(first);
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int v = state / states, direction = state % states;
+            int x = v % width, y = v / width;
+            for (int d = 0; d < directions.length; d++) {
+                if (turning && d != direction) {
+                    visit(distance, queue, v * states + d, distance[state] + 1); //turn
+                    continue;
+                }
+                int nx = x + directions[d][0], ny = y + directions[d][1];
+                if (nx >= 0 && ny >= 0 && nx < width && ny < height)
+                    visit(distance, queue, (ny * width + nx) * states + direction, distance[state] + 1);
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Computes distances from all vertices to the nearest of given positions (without turning).
+     * @param sources Positions to reach.
+     * @return Distance from each vertex to the nearest position.
+     */
+    int[] toNearest(Collection<PositionMapNode> sources) {
+        int[] distance = new int[width * height];
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (PositionMapNode source : sources)
+            visit(distance, queue, vertex(source), 0);
+
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            int x = v % width, y = v / width;
+            for (int[] d : directions) {
+                int nx = x + d[0], ny = y + d[1];
+                if (nx >= 0 && ny >= 0 && nx < width && ny < height)
+                    visit(distance, queue, ny * width + nx, distance[v] + 1);
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Sets distance of state if it was not reached yet.
+     */
+    private void visit(int[] distance, ArrayDeque<Integer> queue, int state, int newDistance) {
+        if (distance[state] != Integer.MAX_VALUE)
+            return;
+        distance[state] = newDistance;
+        queue.add(state);
+    }
+
+    /**
+     * Computes index of vertex of given position.
+     * @param node Position on the grid.
+     * @return Index of the vertex.
+     */
+    int vertex(PositionMapNode node) {
+        return node.getGridY() * width + node.getGridX();
+    }
+}
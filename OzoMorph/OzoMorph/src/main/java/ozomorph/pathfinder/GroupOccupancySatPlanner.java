@@ -0,0 +1,437 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Solves instances in-process by the time-expanded model of connected agents that turn, encoded with occupancy variables of groups
+ * instead of agents, as agents of a group are interchangeable. Variables are B[T,G,V,D] (some agent of group G at vertex V facing D at time T),
+ * BN[T,G,V] (some agent of G at V) and X[T,G,S,S'] (an agent of G goes from state S at time T-1 to state S' at time T).
+ * Occupied states of consecutive times are matched one to one by X (group-level flow conservation), so the number of variables
+ * does not grow with the number of agents in groups. Plans of individual agents are recovered by following X from initial positions.
+ * Groups cannot be kept connected by flow from their first agent, so connectivity is enforced lazily: when some group is disconnected
+ * at some time of found plans, each of its components C gets a cut (if the group occupies all of C, it occupies some neighbour of C)
+ * and the makespan is solved again. Makespans are tried as in {@link EmbeddedSatPlanner}, clauses learned for smaller makespans are kept.
+ */
+class GroupOccupancySatPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(GroupOccupancySatPlanner.class);
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+    /**
+     * Literal that is always false (variables are numbered from 1).
+     */
+    private static final int FALSE = 0;
+    /**
+     * Index of transition going ahead, transitions 0-3 stay at the vertex facing the direction of the index.
+     */
+    private static final int AHEAD = 4;
+
+    private int width, height;
+    private int agentsCount;
+    private List<int[]> groupAgents = new ArrayList<>();
+    private List<int[]> groupTargets = new ArrayList<>();
+    /**
+     * Initial state (vertex*4, agents face up) of each agent.
+     */
+    private int[] initialStates;
+    /**
+     * Distance from the nearest initial state of group to each state (vertex*4 + direction).
+     */
+    private int[][] earliest;
+    /**
+     * Distance from each vertex to the nearest target of group.
+     */
+    private int[][] toTargets;
+
+    private SatSolver solver = new SatSolver();
+    private ConnectivityVerifier connectivityVerifier;
+    /**
+     * Variables B of layers, indexed by group and state, {@link #FALSE} if no agent of the group can reach the state.
+     */
+    private List<int[][]> occupied = new ArrayList<>();
+    /**
+     * Variables BN of layers, indexed by group and vertex.
+     */
+    private List<int[][]> occupiedVertex = new ArrayList<>();
+    /**
+     * Variables X of transitions to each layer (none to the first one), indexed by group, state at the previous time and transition.
+     */
+    private List<int[][][]> transitions = new ArrayList<>();
+    private int cutsCount;
+    private int refinementRounds;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates new GroupOccupancySatPlanner.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group.
+     */
+    GroupOccupancySatPlanner(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets) {
+        this.width = width;
+        this.height = height;
+        GridDistances distances = new GridDistances(width, height);
+        for (List<PositionMapNode> initials : groupInitials)
+            agentsCount += initials.size();
+        initialStates = new int[agentsCount];
+        earliest = new int[groupInitials.size()][];
+        toTargets = new int[groupInitials.size()][];
+
+        int agent = 0;
+        for (int g = 0; g < groupInitials.size(); g++) {
+            int[] agents = new int[groupInitials.get(g).size()];
+            earliest[g] = new int[4 * width * height];
+            Arrays.fill(earliest[g], Integer.MAX_VALUE);
+            for (int i = 0; i < agents.length; i++, agent++) {
+                agents[i] = agent;
+                PositionMapNode initial = groupInitials.get(g).get(i);
+                initialStates[agent] = 4 * distances.vertex(initial);
+                int[] fromInitial = distances.statesFrom(initial, 0);
+                for (int s = 0; s < fromInitial.length; s++)
+                    earliest[g][s] = Math.min(earliest[g][s], fromInitial[s]);
+            }
+            groupAgents.add(agents);
+            this.groupTargets.add(groupTargets.get(g).stream().mapToInt(distances::vertex).toArray());
+            toTargets[g] = distances.toNearest(groupTargets.get(g));
+        }
+        connectivityVerifier = new ConnectivityVerifier(width, height, groupAgents);
+    }
+
+    /**
+     * Gets number of times plans were found disconnected and solved again with added cuts.
+     * @return Number of refinement rounds so far.
+     */
+    int getRefinementRounds() {
+        return refinementRounds;
+    }
+
+    /**
+     * Finds plans of the smallest makespan, starting from given makespan.
+     * @param firstMakespan The smallest makespan (number of configurations) that can have plans.
+     * @param progressListener Listener of progress, may be null.
+     * @return Names of actions of each agent (in Picat form), null if cancelled.
+     */
+    List<List<String>> solve(int firstMakespan, ProgressListener progressListener) {
+        long start = System.nanoTime();
+        for (int makespan = Math.max(1, firstMakespan); ; makespan++) {
+            if (progressListener != null)
+                progressListener.progressChanged(new SolverProgress(makespan, 0, (System.nanoTime() - start) / 1e9));
+            Boolean satisfiable = solveExactly(makespan);
+            if (satisfiable == null)
+                return null;
+            if (satisfiable)
+                return extractPlans(makespan);
+        }
+    }
+
+    /**
+     * Finds plans of exactly given makespan. Makespans can be tried in any order, clauses learned by previous calls are kept.
+     * @param makespan Number of configurations.
+     * @return Names of actions of each agent (in Picat form), null if there are no plans or if cancelled.
+     */
+    List<List<String>> solveMakespan(int makespan) {
+        return Boolean.TRUE.equals(solveExactly(makespan)) ? extractPlans(makespan) : null;
+    }
+
+    /**
+     * Stops running {@link #solve(int, ProgressListener)}.
+     */
+    void cancel() {
+        cancelled = true;
+        solver.interrupt();
+    }
+
+    /**
+     * Solves the encoding with targets of given makespan, adding cuts until groups of found plans are connected at all times.
+     * Layers after the makespan may exist from previous calls, they do not restrict plans, agents can wait there.
+     * @param makespan Number of configurations.
+     * @return Whether plans exist, null if cancelled.
+     */
+    private Boolean solveExactly(int makespan) {
+        while (occupied.size() < makespan)
+            addLayer(occupied.size());
+        int activation = solver.newVar();
+        addTargets(makespan, activation);
+
+        long start = System.nanoTime();
+        int rounds = 0;
+        Boolean satisfiable = cancelled ? null : solver.solve(activation);
+        while (Boolean.TRUE.equals(satisfiable) && addCuts(makespan)) {
+            rounds++;
+            refinementRounds++;
+            satisfiable = cancelled ? null : solver.solve(activation);
+        }
+        logger.info(String.format("Makespan %d: %s in %.3f s (%d conflicts so far, %d refinement rounds, %d cuts so far).", makespan,
+                satisfiable == null ? "cancelled" : satisfiable ? "plans found" : "no plans",
+                (System.nanoTime() - start) / 1e9, solver.getConflicts(), rounds, cutsCount));
+        solver.addClause(-activation); //targets of this makespan are not needed anymore, the model stays readable
+        return satisfiable;
+    }
+
+    /**
+     * Adds variables and constraints of time T (0-based) and transitions from time T-1.
+     * @param t Time of the layer.
+     */
+    private void addLayer(int t) {
+        int vertices = width * height;
+        int groups = groupAgents.size();
+        int[][] b = new int[groups][4 * vertices];
+        int[][] bn = new int[groups][vertices];
+        for (int g = 0; g < groups; g++) {
+            for (int s = 0; s < 4 * vertices; s++) {
+                if (earliest[g][s] <= t) {
+                    b[g][s] = solver.newVar();
+                    if (t == 0)
+                        solver.addClause(b[g][s]); //only initial states are reachable at time 0
+                }
+            }
+            for (int v = 0; v < vertices; v++) {
+                List<Integer> directionsAtV = new ArrayList<>();
+                for (int d = 0; d < 4; d++)
+                    if (b[g][4 * v + d] != FALSE)
+                        directionsAtV.add(b[g][4 * v + d]);
+                if (directionsAtV.isEmpty())
+                    continue;
+                bn[g][v] = solver.newVar();
+                List<Integer> definition = new ArrayList<>();
+                definition.add(-bn[g][v]);
+                for (int literal : directionsAtV) {
+                    definition.add(literal);
+                    solver.addClause(-literal, bn[g][v]);
+                }
+                clause(definition);
+            }
+        }
+        occupied.add(b);
+        occupiedVertex.add(bn);
+
+        //at most one agent in one state at each vertex
+        for (int v = 0; v < vertices; v++) {
+            List<Integer> statesAtV = new ArrayList<>();
+            for (int g = 0; g < groups; g++)
+                for (int d = 0; d < 4; d++)
+                    if (b[g][4 * v + d] != FALSE)
+                        statesAtV.add(b[g][4 * v + d]);
+            atMostOne(statesAtV);
+        }
+
+        if (t > 0)
+            addTransitions(t);
+    }
+
+    /**
+     * Adds transitions from time T-1 to T: go ahead keeping direction, or stay at vertex facing any direction.
+     * Each occupied state at T-1 has exactly one outgoing transition and each occupied state at T exactly one incoming transition,
+     * so agents of each group are neither created nor lost. Agents cannot swap their vertices: at most one agent moves along each edge in either direction.
+     * @param t Time of the later layer.
+     */
+    private void addTransitions(int t) {
+        int vertices = width * height;
+        int[][] previous = occupied.get(t - 1);
+        int[][] current = occupied.get(t);
+        int[][][] x = new int[groupAgents.size()][4 * vertices][];
+        List<List<Integer>> edgeMoves = new ArrayList<>(); //moves along undirected edges, in either direction
+        for (int e = 0; e < 2 * vertices; e++)
+            edgeMoves.add(new ArrayList<>());
+
+        for (int g = 0; g < groupAgents.size(); g++) {
+            List<List<Integer>> incoming = new ArrayList<>();
+            for (int s = 0; s < 4 * vertices; s++)
+                incoming.add(new ArrayList<>());
+            for (int s = 0; s < 4 * vertices; s++) {
+                int from = previous[g][s];
+                if (from == FALSE)
+                    continue;
+                int v = s / 4, d = s % 4;
+                int[] next = new int[AHEAD + 1];
+                for (int nd = 0; nd < 4; nd++)
+                    next[nd] = 4 * v + nd;
+                int nv = neighbour(v, d);
+                next[AHEAD] = nv >= 0 ? 4 * nv + d : -1;
+
+                x[g][s] = new int[AHEAD + 1];
+                List<Integer> outgoing = new ArrayList<>();
+                outgoing.add(-from);
+                for (int k = 0; k <= AHEAD; k++) {
+                    if (next[k] < 0 || current[g][next[k]] == FALSE)
+                        continue;
+                    int transition = solver.newVar();
+                    x[g][s][k] = transition;
+                    solver.addClause(-transition, from);
+                    solver.addClause(-transition, current[g][next[k]]);
+                    outgoing.add(transition);
+                    incoming.get(next[k]).add(transition);
+                    if (k == AHEAD)
+                        edgeMoves.get(undirectedEdge(v, nv)).add(transition);
+                }
+                clause(outgoing);
+                atMostOne(outgoing.subList(1, outgoing.size()));
+            }
+            for (int s = 0; s < 4 * vertices; s++) {
+                if (current[g][s] == FALSE)
+                    continue;
+                List<Integer> arrival = new ArrayList<>(incoming.get(s));
+                atMostOne(arrival);
+                arrival.add(0, -current[g][s]);
+                clause(arrival);
+            }
+        }
+        transitions.add(x);
+        for (List<Integer> moves : edgeMoves)
+            atMostOne(moves);
+    }
+
+    /**
+     * Adds constraints of makespan M guarded by activation literal: targets are occupied by agents of their group at the last time,
+     * groups are only at vertices from which their targets can be reached in time.
+     * @param makespan Number of configurations.
+     * @param activation Activation literal.
+     */
+    private void addTargets(int makespan, int activation) {
+        int last = makespan - 1;
+        int[][] bn = occupiedVertex.get(last);
+        for (int g = 0; g < groupAgents.size(); g++)
+            for (int target : groupTargets.get(g))
+                clause(List.of(-activation, bn[g][target]));
+        for (int t = 0; t <= last; t++) {
+            int[][] layer = occupiedVertex.get(t);
+            for (int g = 0; g < groupAgents.size(); g++)
+                for (int v = 0; v < width * height; v++)
+                    if (layer[g][v] != FALSE && toTargets[g][v] > last - t)
+                        solver.addClause(-activation, -layer[g][v]);
+        }
+    }
+
+    /**
+     * Checks connectivity of groups in model found by the solver, adds cut for each component of each disconnected group:
+     * if the group occupies all vertices of the component, it occupies some vertex next to the component.
+     * Cuts hold for any makespan, as groups must be connected at all times.
+     * @param makespan Number of configurations.
+     * @return Whether some cut was added.
+     */
+    private boolean addCuts(int makespan) {
+        boolean added = false;
+        for (int t = 0; t < makespan; t++) {
+            int[][] bn = occupiedVertex.get(t);
+            for (int g = 0; g < groupAgents.size(); g++) {
+                boolean[] groupVertices = new boolean[width * height];
+                for (int v = 0; v < groupVertices.length; v++)
+                    groupVertices[v] = bn[g][v] != FALSE && solver.value(bn[g][v]);
+                List<List<Integer>> components = connectivityVerifier.components(groupVertices);
+                if (components.size() <= 1)
+                    continue;
+                for (List<Integer> component : components) {
+                    //vertices of the component and its neighbours already in the cut
+                    boolean[] inCut = new boolean[width * height];
+                    for (int v : component)
+                        inCut[v] = true;
+                    List<Integer> cut = new ArrayList<>();
+                    for (int v : component) {
+                        cut.add(-bn[g][v]);
+                        for (int d = 0; d < 4; d++) {
+                            int nv = neighbour(v, d);
+                            if (nv >= 0 && !inCut[nv] && bn[g][nv] != FALSE) {
+                                inCut[nv] = true;
+                                cut.add(bn[g][nv]);
+                            }
+                        }
+                    }
+                    clause(cut);
+                    cutsCount++;
+                }
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Reads plans from model found by the solver: each agent follows transitions of its group from its initial state.
+     * @param makespan Number of configurations.
+     * @return Names of actions of each agent.
+     */
+    private List<List<String>> extractPlans(int makespan) {
+        List<List<String>> plans = new ArrayList<>();
+        for (int g = 0; g < groupAgents.size(); g++) {
+            for (int a : groupAgents.get(g)) {
+                List<String> plan = new ArrayList<>();
+                int state = initialStates[a];
+                for (int t = 1; t < makespan; t++) {
+                    int next = nextState(t, g, state);
+                    EmbeddedSatPlanner.appendActions(plan, state, next);
+                    state = next;
+                }
+                plans.add(plan);
+            }
+        }
+        return plans;
+    }
+
+    /**
+     * Finds state at time T of agent of group that was in given state at time T-1, by its transition in the model.
+     */
+    private int nextState(int t, int g, int state) {
+        int[] x = transitions.get(t - 1)[g][state];
+        for (int k = 0; k < AHEAD; k++)
+            if (x[k] != FALSE && solver.value(x[k]))
+                return 4 * (state / 4) + k;
+        if (x[AHEAD] != FALSE && solver.value(x[AHEAD]))
+            return 4 * neighbour(state / 4, state % 4) + state % 4;
+        throw new IllegalStateException("Agent of group " + g + " has no transition from state " + state + " at time " + t + ".");
+    }
+
+    /**
+     * Gets neighbour of vertex in direction, -1 if it is outside of the grid.
+     */
+    private int neighbour(int v, int d) {
+        int x = v % width + directions[d][0], y = v / width + directions[d][1];
+        return x >= 0 && y >= 0 && x < width && y < height ? y * width + x : -1;
+    }
+
+    /**
+     * Gets index of undirected edge between neighbouring vertices.
+     */
+    private int undirectedEdge(int v, int nv) {
+        int low = Math.min(v, nv), high = Math.max(v, nv);
+        return 2 * low + (high - low == 1 ? 0 : 1);
+    }
+
+    /**
+     * Adds clause, false literals are left out.
+     */
+    private void clause(List<Integer> literals) {
+        solver.addClause(literals.stream().mapToInt(Integer::intValue).filter(l -> l != FALSE).toArray());
+    }
+
+    /**
+     * Adds constraint that at most one of the literals is true, pairwise for few literals, by sequential counter otherwise.
+     */
+    private void atMostOne(List<Integer> literals) {
+        int n = literals.size();
+        if (n <= 5) {
+            for (int i = 0; i < n; i++)
+                for (int j = i + 1; j < n; j++)
+                    solver.addClause(-literals.get(i), -literals.get(j));
+            return;
+        }
+        int previous = solver.newVar();
+        solver.addClause(-literals.get(0), previous);
+        for (int i = 1; i < n - 1; i++) {
+            int current = solver.newVar();
+            solver.addClause(-literals.get(i), current);
+            solver.addClause(-previous, current);
+            solver.addClause(-literals.get(i), -previous);
+            previous = current;
+        }
+        solver.addClause(-literals.get(n - 1), -previous);
+    }
+}
@@ -0,0 +1,224 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.*;
+
+/**
+ * Two-level planner for large grids. The grid is coarsened to blocks of {@code blockSize x blockSize} vertices,
+ * each block is a super-vertex with capacity of its vertices. Groups (the largest first) are routed on the coarse grid
+ * from the block of the centre of their initial positions to the block of the centre of their targets by Dijkstra,
+ * entering a block costs more when agents of groups routed before already pass through it, so groups spread over the grid.
+ * Corridor of a group are blocks of its route and blocks of its initial and target positions, extended by a ring of blocks.
+ * The fine model ({@link EmbeddedSatPlanner}) is then solved with every group restricted to its corridor,
+ * timings come from reachability within the model (agents cannot be where they cannot arrive in time from initials or to targets).
+ * If no plans are found within {@link #MAKESPAN_SLACK} blocks of steps above the lower bound, corridors are extended by another ring;
+ * once a corridor covers the whole grid the model is not restricted at all. Plans are optimal within the corridors.
+ */
+class HierarchicalPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(HierarchicalPlanner.class);
+    /**
+     * Makespans tried with one width of corridors, in multiples of the block size above the first makespan.
+     */
+    private static final int MAKESPAN_SLACK = 2;
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+
+    private int width, height;
+    private List<List<PositionMapNode>> groupInitials;
+    private List<? extends Collection<PositionMapNode>> groupTargets;
+    private int blockSize;
+    private int coarseWidth, coarseHeight;
+    /**
+     * Blocks of coarse route of each group.
+     */
+    private List<Set<Integer>> routes = new ArrayList<>();
+    private volatile EmbeddedSatPlanner currentPlanner;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates new HierarchicalPlanner and routes groups on the coarse grid.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group.
+     * @param blockSize Number of vertices in a row of a block of the coarse grid.
+     */
+    HierarchicalPlanner(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets, int blockSize) {
+        this.width = width;
+        this.height = height;
+        this.groupInitials = groupInitials;
+        this.groupTargets = groupTargets;
+        this.blockSize = blockSize;
+        this.coarseWidth = (width + blockSize - 1) / blockSize;
+        this.coarseHeight = (height + blockSize - 1) / blockSize;
+        routeGroups();
+    }
+
+    /**
+     * Finds plans within corridors of groups, extending the corridors until plans are found.
+     * @param firstMakespan The smallest makespan (number of configurations) that can have plans.
+     * @param progressListener Listener of progress, may be null.
+     * @return Names of actions of each agent (in Picat form), null if cancelled.
+     */
+    List<List<String>> solve(int firstMakespan, ProgressListener progressListener) {
+        long start = System.nanoTime();
+        for (int ring = 1; !cancelled; ring++) {
+            boolean[][] allowed = new boolean[groupInitials.size()][];
+            boolean wholeGrid = true;
+            for (int g = 0; g < allowed.length; g++) {
+                allowed[g] = corridor(g, ring);
+                for (boolean a : allowed[g])
+                    wholeGrid &= a;
+            }
+            logger.info(String.format("Corridors extended by %d blocks cover %s of the grid.", ring, describeCoverage(allowed)));
+            EmbeddedSatPlanner planner = new EmbeddedSatPlanner(width, height, groupInitials, groupTargets, null, wholeGrid ? null : allowed);
+            currentPlanner = planner;
+            if (cancelled)
+                return null;
+            if (wholeGrid)
+                return planner.solve(firstMakespan, progressListener);
+
+            for (int makespan = firstMakespan; makespan <= firstMakespan + MAKESPAN_SLACK * blockSize; makespan++) {
+                if (progressListener != null)
+                    progressListener.progressChanged(new SolverProgress(makespan, 0, (System.nanoTime() - start) / 1e9));
+                List<List<String>> plans = planner.solveMakespan(makespan);
+                if (plans != null)
+                    return plans;
+                if (cancelled)
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops running {@link #solve(int, ProgressListener)}.
+     */
+    void cancel() {
+        cancelled = true;
+        EmbeddedSatPlanner planner = currentPlanner;
+        if (planner != null)
+            planner.cancel();
+    }
+
+    /**
+     * Routes groups (the largest first) on the coarse grid, cost of entering a block grows with number of agents routed through it.
+     */
+    private void routeGroups() {
+        double capacity = blockSize * blockSize;
+        double[] load = new double[coarseWidth * coarseHeight];
+        Integer[] order = new Integer[groupInitials.size()];
+        for (int g = 0; g < order.length; g++) {
+            order[g] = g;
+            routes.add(null);
+        }
+        Arrays.sort(order, Comparator.comparingInt((Integer g) -> groupInitials.get(g).size()).reversed());
+
+        for (int g : order) {
+            int from = block(centre(groupInitials.get(g)));
+            int to = block(centre(groupTargets.get(g)));
+            Set<Integer> route = new HashSet<>(cheapestRoute(from, to, load, capacity));
+            for (PositionMapNode position : groupInitials.get(g))
+                route.add(block(position));
+            for (PositionMapNode position : groupTargets.get(g))
+                route.add(block(position));
+            for (int b : route)
+                load[b] += groupInitials.get(g).size();
+            routes.set(g, route);
+        }
+    }
+
+    /**
+     * Dijkstra on the coarse grid, entering block B costs {@code 1 + load[B]/capacity}.
+     * @return Blocks of the cheapest route from block to block.
+     */
+    private List<Integer> cheapestRoute(int from, int to, double[] load, double capacity) {
+        double[] cost = new double[load.length];
+        int[] previous = new int[load.length];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        cost[from] = 0;
+        previous[from] = -1;
+        PriorityQueue<double[]> queue = new PriorityQueue<>(Comparator.comparingDouble(entry -> entry[0]));
+        queue.add(new double[]{0, from});
+        while (!queue.isEmpty()) {
+            double[] entry = queue.poll();
+            int b = (int) entry[1];
+            if (entry[0] > cost[b])
+                continue;
+            if (b == to)
+                break;
+            for (int[] d : directions) {
+                int nx = b % coarseWidth + d[0], ny = b / coarseWidth + d[1];
+                if (nx < 0 || ny < 0 || nx >= coarseWidth || ny >= coarseHeight)
+                    continue;
+                int nb = ny * coarseWidth + nx;
+                double newCost = cost[b] + 1 + load[nb] / capacity;
+                if (newCost < cost[nb]) {
+                    cost[nb] = newCost;
+                    previous[nb] = b;
+                    queue.add(new double[]{newCost, nb});
+                }
+            }
+        }
+        List<Integer> route = new ArrayList<>();
+        for (int b = to; b != -1; b = previous[b])
+            route.add(b);
+        return route;
+    }
+
+    /**
+     * Computes vertices of corridor of a group: blocks of its route extended by given number of rings of blocks.
+     * @param group Index of group.
+     * @param ring Number of rings of blocks added around the route.
+     * @return Whether each vertex of the fine grid is in the corridor.
+     */
+    private boolean[] corridor(int group, int ring) {
+        boolean[] blocks = new boolean[coarseWidth * coarseHeight];
+        for (int b : routes.get(group)) {
+            int bx = b % coarseWidth, by = b / coarseWidth;
+            for (int y = Math.max(0, by - ring); y <= Math.min(coarseHeight - 1, by + ring); y++)
+                for (int x = Math.max(0, bx - ring); x <= Math.min(coarseWidth - 1, bx + ring); x++)
+                    blocks[y * coarseWidth + x] = true;
+        }
+        boolean[] vertices = new boolean[width * height];
+        for (int v = 0; v < vertices.length; v++)
+            vertices[v] = blocks[(v / width / blockSize) * coarseWidth + v % width / blockSize];
+        return vertices;
+    }
+
+    /**
+     * Gets block of the coarse grid containing given position.
+     */
+    private int block(PositionMapNode position) {
+        return (position.getGridY() / blockSize) * coarseWidth + position.getGridX() / blockSize;
+    }
+
+    /**
+     * Gets position nearest to the average of given positions.
+     */
+    private PositionMapNode centre(Collection<PositionMapNode> positions) {
+        double x = 0, y = 0;
+        for (PositionMapNode position : positions) {
+            x += position.getGridX();
+            y += position.getGridY();
+        }
+        return new PositionMapNode((int) Math.round(x / positions.size()), (int) Math.round(y / positions.size()));
+    }
+
+    /**
+     * Describes average share of the grid allowed to a group.
+     */
+    private String describeCoverage(boolean[][] allowed) {
+        long count = 0;
+        for (boolean[] group : allowed)
+            for (boolean a : group)
+                if (a)
+                    count++;
+        return String.format("%.0f %%", 100.0 * count / allowed.length / (width * height));
+    }
+}
@@ -0,0 +1,103 @@
+package ozomorph.pathfinder;
+
+import ozomorph.nodes.Group;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.*;
+
+/**
+ * Lower bound of number of steps of plans, based on distances of initial and target positions.
+ * Agents of a group can be assigned to targets of the group arbitrarily, so the bound of a group is the bottleneck of the best assignment:
+ * the smallest distance D such that agents can be matched to targets using only pairs not farther than D.
+ * Bound of the instance is the maximum over groups, groups are processed in parallel.
+ */
+class MakespanLowerBound {
+    private GridDistances grid;
+    private boolean turning;
+
+    /**
+     * Creates new MakespanLowerBound.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param turning Whether agents must turn before moving to another direction (each turn takes one step), agents start facing up.
+     */
+    MakespanLowerBound(int width, int height, boolean turning) {
+        this.grid = new GridDistances(width, height);
+        this.turning = turning;
+    }
+
+    /**
+     * Computes lower bound of number of steps of plans solving given instance.
+     * @param problemInstance Instance of problem.
+     * @return Lower bound of number of steps.
+     */
+    int compute(ProblemInstance problemInstance) {
+        Map<Group, Set<PositionMapNode>> targets = problemInstance.getTargetPositions();
+        return problemInstance.getInitialPositions().entrySet().parallelStream()
+                .mapToInt(entry -> computeGroup(new ArrayList<>(entry.getValue()), new ArrayList<>(targets.get(entry.getKey()))))
+                .max().orElse(0);
+    }
+
+    /**
+     * Computes bottleneck of the best assignment of agents of a group to its targets.
+     * @param initials Initial positions of agents of the group.
+     * @param targets Target positions of the group.
+     * @return The smallest distance D such that agents can be matched to targets not farther than D.
+     */
+    private int computeGroup(List<PositionMapNode> initials, List<PositionMapNode> targets) {
+        int[][] distances = new int[initials.size()][];
+        TreeSet<Integer> values = new TreeSet<>();
+        for (int i = 0; i < initials.size(); i++) {
+            int[] fromInitial = grid.from(initials.get(i), turning);
+            distances[i] = new int[targets.size()];
+            for (int j = 0; j < targets.size(); j++) {
+                distances[i][j] = fromInitial[grid.vertex(targets.get(j))];
+                values.add(distances[i][j]);
+            }
+        }
+
+        //binary search over distinct distances, matching exists for the largest one
+        Integer[] sorted = values.toArray(new Integer[0]);
+        int low = 0, high = sorted.length - 1;
+        while (low < high) {
+            int middle = (low + high) / 2;
+            if (hasPerfectMatching(distances, sorted[middle]))
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return sorted.length == 0 ? 0 : sorted[low];
+    }
+
+    /**
+     * Checks whether every agent can be matched to distinct target not farther than given distance (augmenting paths).
+     * @param distances Distances from agents (rows) to targets (columns).
+     * @param maxDistance Maximal distance of matched pair.
+     * @return Whether perfect matching exists.
+     */
+    private boolean hasPerfectMatching(int[][] distances, int maxDistance) {
+        int[] agentOfTarget = new int[distances.length == 0 ? 0 : distances[0].length];
+        Arrays.fill(agentOfTarget, -1);
+        for (int agent = 0; agent < distances.length; agent++) {
+            if (!augment(distances, maxDistance, agent, agentOfTarget, new boolean[agentOfTarget.length]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tries to find augmenting path from given agent.
+     */
+    private boolean augment(int[][] distances, int maxDistance, int agent, int[] agentOfTarget, boolean[] visited) {
+        for (int target = 0; target < agentOfTarget.length; target++) {
+            if (distances[agent][target] > maxDistance || visited[target])
+                continue;
+            visited[target] = true;
+            if (agentOfTarget[target] == -1 || augment(distances, maxDistance, agentOfTarget[target], agentOfTarget, visited)) {
+                agentOfTarget[target] = agent;
+                return true;
+            }
+        }
+        return false;
+    }
+}
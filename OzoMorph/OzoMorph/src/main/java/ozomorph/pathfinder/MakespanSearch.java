@@ -0,0 +1,16 @@
+package ozomorph.pathfinder;
+
+/**
+ * Strategy of search for the smallest makespan with plans.
+ */
+public enum MakespanSearch {
+    /**
+     * Makespans are tried one by one from the lower bound (or by growing horizon, see {@link SolverSettings#isIncrementalMakespan()}).
+     */
+    LINEAR,
+    /**
+     * Makespans LB, LB+1, LB+2, LB+4, ... are tried until one has plans, then the gap is binary searched,
+     * see {@link GallopingMakespanSearch}.
+     */
+    GALLOPING
+}
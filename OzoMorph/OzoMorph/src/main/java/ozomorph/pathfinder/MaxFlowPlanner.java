@@ -0,0 +1,457 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Solves instances with a single group whose agents need not stay connected in polynomial time, without SAT.
+ * Agents of one group are interchangeable, so plans of makespan M are unit flows in time-expanded network of M configurations:
+ * source to initial positions at time 0, vertex gadgets (in and out node of each vertex at each time, capacity 1) keep one agent at a vertex,
+ * each step has edges for waiting and a swap gadget for each undirected edge (both ends feed one node of capacity 1),
+ * so agents cannot swap their vertices, targets at the last time to sink. Flow is found by Dinic's algorithm
+ * (ported from {@code Generator/max_flow.cpp}), the smallest makespan with flow of all agents by galloping and binary search.
+ * Nodes that cannot be reached from initial positions in time or from which targets cannot be reached in time are left out.
+ * The flow is optimal for agents without turning; turning plans are derived from it: agents turn to their next direction while they wait,
+ * and a step of turns is inserted before a step in which an agent would move in another direction than it faces.
+ */
+class MaxFlowPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(MaxFlowPlanner.class);
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+
+    private int width, height;
+    private int[] initials;
+    private boolean[] isTarget;
+    /**
+     * Distance from the nearest initial position to each vertex.
+     */
+    private int[] fromInitials;
+    /**
+     * Distance from each vertex to the nearest target.
+     */
+    private int[] toTargets;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates new MaxFlowPlanner.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param initials Initial positions of agents, agents are numbered in this order.
+     * @param targets Target positions, as many as agents.
+     */
+    MaxFlowPlanner(int width, int height, List<PositionMapNode> initials, Collection<PositionMapNode> targets) {
+        this.width = width;
+        this.height = height;
+        GridDistances distances = new GridDistances(width, height);
+        this.initials = initials.stream().mapToInt(distances::vertex).toArray();
+        isTarget = new boolean[width * height];
+        for (PositionMapNode target : targets)
+            isTarget[distances.vertex(target)] = true;
+        fromInitials = distances.toNearest(initials);
+        toTargets = distances.toNearest(targets);
+    }
+
+    /**
+     * Finds plans of the smallest makespan without turning and derives turning plans from them.
+     * @param firstMakespan The smallest makespan (number of configurations) that can have plans without turning.
+     * @param progressListener Listener of progress, may be null.
+     * @return Names of actions of each agent (in Picat form), null if cancelled.
+     */
+    List<List<String>> solve(int firstMakespan, ProgressListener progressListener) {
+        long start = System.nanoTime();
+        int low = Math.max(1, firstMakespan);
+        int high = low;
+        FlowNetwork found = null;
+        //galloping: makespans low, low+1, low+3, low+7, ... until all agents flow
+        for (int step = 1; found == null; step *= 2) {
+            if (cancelled)
+                return null;
+            if (progressListener != null)
+                progressListener.progressChanged(new SolverProgress(high, 0, (System.nanoTime() - start) / 1e9));
+            FlowNetwork network = buildAndSolve(high);
+            if (network.getFlow() == initials.length)
+                found = network;
+            else {
+                low = high + 1;
+                high += step;
+            }
+        }
+        //binary search between the last makespan without plans and the first one with them
+        while (low < high) {
+            if (cancelled)
+                return null;
+            int middle = (low + high) / 2;
+            FlowNetwork network = buildAndSolve(middle);
+            if (network.getFlow() == initials.length) {
+                found = network;
+                high = middle;
+            } else
+                low = middle + 1;
+        }
+        List<List<String>> plans = toTurningPlans(decompose(found, high));
+        logger.info(String.format("Plans of makespan %d without turning found by max-flow in %.3f s.", high, (System.nanoTime() - start) / 1e9));
+        return plans;
+    }
+
+    /**
+     * Stops running {@link #solve(int, ProgressListener)} before the next makespan is tried.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Builds time-expanded network of given makespan and finds its maximum flow.
+     * @param makespan Number of configurations.
+     * @return Network with maximum flow.
+     */
+    private FlowNetwork buildAndSolve(int makespan) {
+        long start = System.nanoTime();
+        int vertices = width * height;
+        FlowNetwork network = new FlowNetwork(sink(makespan) + 1);
+        for (int v : initials)
+            network.addEdge(source(makespan), in(0, v), 1);
+        for (int t = 0; t < makespan; t++) {
+            for (int v = 0; v < vertices; v++) {
+                if (!isUsable(makespan, t, v))
+                    continue;
+                network.addEdge(in(t, v), out(t, v), 1);
+                if (t == makespan - 1) {
+                    if (isTarget[v])
+                        network.addEdge(out(t, v), sink(makespan), 1);
+                    continue;
+                }
+                if (isUsable(makespan, t + 1, v))
+                    network.addEdge(out(t, v), in(t + 1, v), 1); //wait
+            }
+            if (t == makespan - 1)
+                continue;
+            for (int v = 0; v < vertices; v++) {
+                for (int d = 1; d <= 2; d++) { //right and down, each undirected edge once
+                    int nv = neighbour(v, d);
+                    if (nv < 0)
+                        continue;
+                    boolean forward = isUsable(makespan, t, v) && isUsable(makespan, t + 1, nv);
+                    boolean backward = isUsable(makespan, t, nv) && isUsable(makespan, t + 1, v);
+                    if (!forward && !backward)
+                        continue;
+                    int gadget = swapGadget(makespan, t, undirectedEdge(v, d));
+                    network.addEdge(gadget, gadget + 1, 1);
+                    if (forward) {
+                        network.addEdge(out(t, v), gadget, 1);
+                        network.addEdge(gadget + 1, in(t + 1, nv), 1);
+                    }
+                    if (backward) {
+                        network.addEdge(out(t, nv), gadget, 1);
+                        network.addEdge(gadget + 1, in(t + 1, v), 1);
+                    }
+                }
+            }
+        }
+        int flow = network.maxFlow(source(makespan), sink(makespan));
+        logger.info(String.format("Makespan %d: flow of %d of %d agents in %.3f s (%d nodes, %d edges).",
+                makespan, flow, initials.length, (System.nanoTime() - start) / 1e9, network.getNodesCount(), network.getEdgesCount()));
+        return network;
+    }
+
+    /**
+     * Follows units of flow from the source, each unit is path of one agent.
+     * @param network Network with flow of all agents.
+     * @param makespan Number of configurations of the network.
+     * @return Vertex of each agent at each time, indexed by agent and time.
+     */
+    private int[][] decompose(FlowNetwork network, int makespan) {
+        int vertices = width * height;
+        int[][] paths = new int[initials.length][makespan];
+        for (int a = 0; a < initials.length; a++) {
+            int v = initials[a];
+            paths[a][0] = v;
+            for (int t = 0; t < makespan - 1; t++) {
+                int next = network.flowTarget(out(t, v));
+                if (next >= 2 * makespan * vertices) //swap gadget, leads to in node of the next time
+                    next = network.flowTarget(next + 1);
+                v = (next / 2) % vertices;
+                paths[a][t + 1] = v;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Derives plans of turning agents (starting facing up) from paths without turning.
+     * Every step of the paths becomes a step of moves, preceded by a step of turns if an agent faces another direction than it moves.
+     * Agents that wait turn to the direction of their next move, so the extra steps are needed only after moves.
+     * @param paths Vertex of each agent at each time.
+     * @return Names of actions of each agent (in Picat form).
+     */
+    private List<List<String>> toTurningPlans(int[][] paths) {
+        int agents = paths.length;
+        int makespan = agents == 0 ? 0 : paths[0].length;
+        int[] states = new int[agents];
+        for (int a = 0; a < agents; a++)
+            states[a] = paths[a][0] * 4; //agents start facing up
+        List<int[]> configurations = new ArrayList<>();
+        configurations.add(states.clone());
+
+        for (int t = 0; t < makespan - 1; t++) {
+            int[] turned = states.clone();
+            boolean turnNeeded = false;
+            for (int a = 0; a < agents; a++) {
+                int v = paths[a][t], nv = paths[a][t + 1];
+                if (v != nv && direction(v, nv) != states[a] % 4) {
+                    turned[a] = v * 4 + direction(v, nv);
+                    turnNeeded = true;
+                }
+            }
+            if (turnNeeded) {
+                configurations.add(turned);
+                states = turned;
+            }
+            int[] moved = states.clone();
+            for (int a = 0; a < agents; a++) {
+                int v = paths[a][t], nv = paths[a][t + 1];
+                if (v != nv)
+                    moved[a] = nv * 4 + states[a] % 4;
+                else
+                    moved[a] = v * 4 + nextDirection(paths[a], t + 1, states[a] % 4);
+            }
+            configurations.add(moved);
+            states = moved;
+        }
+
+        List<List<String>> plans = new ArrayList<>();
+        for (int a = 0; a < agents; a++) {
+            List<String> plan = new ArrayList<>();
+            for (int i = 1; i < configurations.size(); i++)
+                EmbeddedSatPlanner.appendActions(plan, configurations.get(i - 1)[a], configurations.get(i)[a]);
+            plans.add(plan);
+        }
+        logger.info(String.format("Turning plans have %d steps (%d steps without turning).", configurations.size() - 1, makespan - 1));
+        return plans;
+    }
+
+    /**
+     * Finds direction of the next move on path after given time, the current direction if the agent does not move anymore.
+     */
+    private int nextDirection(int[] path, int t, int current) {
+        for (int i = t; i < path.length - 1; i++)
+            if (path[i] != path[i + 1])
+                return direction(path[i], path[i + 1]);
+        return current;
+    }
+
+    /**
+     * Gets direction from vertex to its neighbour.
+     */
+    private int direction(int v, int nv) {
+        for (int d = 0; d < directions.length; d++)
+            if (neighbour(v, d) == nv)
+                return d;
+        throw new IllegalArgumentException("Vertices " + v + " and " + nv + " are not neighbours.");
+    }
+
+    /**
+     * Checks whether an agent can be at vertex at time T of makespan: it can get there from an initial position and reach a target in time.
+     */
+    private boolean isUsable(int makespan, int t, int v) {
+        return fromInitials[v] <= t && toTargets[v] <= makespan - 1 - t;
+    }
+
+    /**
+     * Gets node through which agents enter vertex at time T.
+     */
+    private int in(int t, int v) {
+        return 2 * (t * width * height + v);
+    }
+
+    /**
+     * Gets node through which agents leave vertex at time T (in node + 1).
+     */
+    private int out(int t, int v) {
+        return in(t, v) + 1;
+    }
+
+    /**
+     * Gets the first node of swap gadget of undirected edge in step from time T, the second node follows it.
+     */
+    private int swapGadget(int makespan, int t, int edge) {
+        return 2 * makespan * width * height + 2 * (t * 2 * width * height + edge);
+    }
+
+    /**
+     * Gets source of network of makespan.
+     */
+    private int source(int makespan) {
+        return swapGadget(makespan, makespan - 1, 0);
+    }
+
+    /**
+     * Gets sink of network of makespan.
+     */
+    private int sink(int makespan) {
+        return source(makespan) + 1;
+    }
+
+    /**
+     * Gets index of undirected edge from vertex to its neighbour to the right (d=1) or down (d=2).
+     */
+    private int undirectedEdge(int v, int d) {
+        return 2 * v + (d == 1 ? 0 : 1);
+    }
+
+    /**
+     * Gets neighbour of vertex in direction, -1 if it is outside of the grid.
+     */
+    private int neighbour(int v, int d) {
+        int x = v % width + directions[d][0], y = v / width + directions[d][1];
+        return x >= 0 && y >= 0 && x < width && y < height ? y * width + x : -1;
+    }
+
+    /**
+     * Flow network with integer capacities, maximum flow is found by Dinic's algorithm.
+     * Edges are stored in arrays, reverse edge of edge E is E^1.
+     */
+    private static class FlowNetwork {
+        private int nodes;
+        private int[] head;
+        private int[] next = new int[16], to = new int[16], capacity = new int[16];
+        private int edges;
+        private int[] level;
+        /**
+         * Next edge of each node to be tried by {@link #sendFlow(int, int, int)}.
+         */
+        private int[] start;
+        private int flow;
+
+        /**
+         * Creates network without edges.
+         * @param nodes Number of nodes.
+         */
+        FlowNetwork(int nodes) {
+            this.nodes = nodes;
+            head = new int[nodes];
+            Arrays.fill(head, -1);
+            level = new int[nodes];
+            start = new int[nodes];
+        }
+
+        /**
+         * Adds directed edge and its reverse edge of zero capacity.
+         */
+        void addEdge(int u, int v, int edgeCapacity) {
+            if (edges + 2 > to.length) {
+                next = Arrays.copyOf(next, 2 * to.length);
+                capacity = Arrays.copyOf(capacity, 2 * to.length);
+                to = Arrays.copyOf(to, 2 * to.length);
+            }
+            link(u, v, edgeCapacity);
+            link(v, u, 0);
+        }
+
+        /**
+         * Appends edge to list of edges of node.
+         */
+        private void link(int u, int v, int edgeCapacity) {
+            to[edges] = v;
+            capacity[edges] = edgeCapacity;
+            next[edges] = head[u];
+            head[u] = edges++;
+        }
+
+        /**
+         * Finds maximum flow from source to sink.
+         * @return Value of the flow.
+         */
+        int maxFlow(int source, int sink) {
+            while (computeLevels(source, sink)) {
+                System.arraycopy(head, 0, start, 0, nodes);
+                int sent;
+                while ((sent = sendFlow(source, sink, Integer.MAX_VALUE)) > 0)
+                    flow += sent;
+            }
+            return flow;
+        }
+
+        /**
+         * BFS from source over edges with residual capacity, assigns levels to nodes.
+         * @return Whether sink is reachable.
+         */
+        private boolean computeLevels(int source, int sink) {
+            Arrays.fill(level, -1);
+            level[source] = 0;
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            queue.add(source);
+            while (!queue.isEmpty()) {
+                int u = queue.poll();
+                for (int e = head[u]; e != -1; e = next[e])
+                    if (capacity[e] > 0 && level[to[e]] < 0) {
+                        level[to[e]] = level[u] + 1;
+                        queue.add(to[e]);
+                    }
+            }
+            return level[sink] >= 0;
+        }
+
+        /**
+         * Sends flow along a path of increasing levels (DFS), edges that cannot carry more flow in this phase are skipped for good.
+         * @return Flow sent, 0 if sink cannot be reached anymore.
+         */
+        private int sendFlow(int u, int sink, int limit) {
+            if (u == sink)
+                return limit;
+            for (; start[u] != -1; start[u] = next[start[u]]) {
+                int e = start[u];
+                if (capacity[e] > 0 && level[to[e]] == level[u] + 1) {
+                    int sent = sendFlow(to[e], sink, Math.min(limit, capacity[e]));
+                    if (sent > 0) {
+                        capacity[e] -= sent;
+                        capacity[e ^ 1] += sent;
+                        return sent;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Finds node to which flow leaves given node (unit flows: at most one such edge carries flow out of a node).
+         * @return The node, -1 if no flow leaves.
+         */
+        int flowTarget(int u) {
+            for (int e = head[u]; e != -1; e = next[e])
+                if ((e & 1) == 0 && capacity[e ^ 1] > 0)
+                    return to[e];
+            return -1;
+        }
+
+        /**
+         * Gets value of flow found by {@link #maxFlow(int, int)}.
+         */
+        int getFlow() {
+            return flow;
+        }
+
+        /**
+         * Gets number of nodes.
+         */
+        int getNodesCount() {
+            return nodes;
+        }
+
+        /**
+         * Gets number of edges (without reverse edges).
+         */
+        int getEdgesCount() {
+            return edges / 2;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.AgentMapNode;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Finds plans with the smallest makespan by trying several makespans at the same time.
+ * Relies on monotonicity - if plans exist for makespan M, they exist for every larger makespan too (agents can wait).
+ * So when a makespan succeeds, larger makespans are cancelled, and when a makespan fails, smaller ones are cancelled.
+ */
+class ParallelMakespanSearch {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelMakespanSearch.class);
+
+    /**
+     * Solves problem instance for exactly one makespan.
+     */
+    @FunctionalInterface
+    interface ProbeSolver {
+        /**
+         * Solves the problem instance for makespan of given probe.
+         * @param probe Probe to solve, worker solving it must be registered by {@link MakespanProbe#setWorker(PicatWorker)} (and unregistered before it is returned to the pool).
+         * @return Agents with plans, null if no plans exist for the makespan.
+         * @throws NoPlansFoundException The probe was cancelled.
+         * @throws IOException IO error.
+         * @throws InterruptedException Interrupted while waiting for a worker.
+         */
+        AgentMapNode[] solve(MakespanProbe probe) throws IOException, InterruptedException, NoPlansFoundException;
+    }
+
+    /**
+     * Makespan being tried and worker trying it.
+     */
+    static class MakespanProbe {
+        private final int makespan;
+        private volatile PicatWorker worker;
+        private volatile boolean cancelled;
+
+        MakespanProbe(int makespan) {
+            this.makespan = makespan;
+        }
+
+        int getMakespan() {
+            return makespan;
+        }
+
+        /**
+         * Registers worker solving this probe, so that it can be cancelled.
+         * @param worker Worker solving this probe, null once it is returned to the pool.
+         */
+        void setWorker(PicatWorker worker) {
+            this.worker = worker;
+            if (cancelled && worker != null)
+                worker.cancel();
+        }
+
+        /**
+         * Cancels this probe, its worker is terminated.
+         */
+        void cancel() {
+            cancelled = true;
+            PicatWorker w = worker;
+            if (w != null)
+                w.cancel();
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Result of one probe.
+     */
+    private static class ProbeResult {
+        final MakespanProbe probe;
+        final AgentMapNode[] agents;
+
+        ProbeResult(MakespanProbe probe, AgentMapNode[] agents) {
+            this.probe = probe;
+            this.agents = agents;
+        }
+    }
+
+    private int probesCount;
+    private int firstMakespan;
+    private ProbeSolver solver;
+    private final Map<Integer, MakespanProbe> running = new TreeMap<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Creates new ParallelMakespanSearch.
+     * @param probesCount Number of makespans tried at the same time.
+     * @param firstMakespan The smallest makespan to try.
+     * @param solver Solves problem instance for exactly one makespan.
+     */
+    ParallelMakespanSearch(int probesCount, int firstMakespan, ProbeSolver solver) {
+        this.probesCount = probesCount;
+        this.firstMakespan = firstMakespan;
+        this.solver = solver;
+    }
+
+    /**
+     * Finds plans with the smallest makespan.
+     * @return Agents with plans.
+     * @throws NoPlansFoundException The search was cancelled.
+     * @throws IOException IO error.
+     * @throws InterruptedException Interrupted while waiting for probes.
+     */
+    AgentMapNode[] search() throws IOException, InterruptedException, NoPlansFoundException {
+        ExecutorService executor = Executors.newFixedThreadPool(probesCount, r -> {
+            Thread t = new Thread(r, "makespan-probe");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<ProbeResult> completion = new ExecutorCompletionService<>(executor);
+
+        int nextMakespan = firstMakespan;
+        int lowestOpen = firstMakespan; //all smaller makespans have no plans
+        int best = Integer.MAX_VALUE;
+        AgentMapNode[] bestAgents = null;
+
+        try {
+            while (true) {
+                synchronized (running) {
+                    if (cancelled)
+                        throw new NoPlansFoundException();
+                    while (running.size() < probesCount && nextMakespan < best) {
+                        MakespanProbe probe = new MakespanProbe(nextMakespan++);
+                        running.put(probe.getMakespan(), probe);
+                        completion.submit(() -> new ProbeResult(probe, solveProbe(probe)));
+                    }
+                }
+                if (lowestOpen >= best)
+                    return bestAgents;
+
+                ProbeResult result = takeResult(completion);
+                int makespan = result.probe.getMakespan();
+                synchronized (running) {
+                    running.remove(makespan);
+                    if (result.probe.isCancelled())
+                        continue;
+
+                    if (result.agents != null) {
+                        logger.info("Makespan " + makespan + " succeeded, cancelling larger makespans.");
+                        if (makespan < best) {
+                            best = makespan;
+                            bestAgents = result.agents;
+                        }
+                        cancelRunning(m -> m > makespan);
+                    } else {
+                        logger.info("Makespan " + makespan + " failed, cancelling smaller makespans.");
+                        lowestOpen = Math.max(lowestOpen, makespan + 1);
+                        cancelRunning(m -> m < makespan);
+                    }
+                }
+            }
+        } finally {
+            synchronized (running) {
+                cancelRunning(m -> true);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Solves one probe, cancellation of the probe is not an error.
+     * @param probe Probe to solve.
+     * @return Agents with plans, null if no plans exist or the probe was cancelled.
+     * @throws Exception Error of the solver.
+     */
+    private AgentMapNode[] solveProbe(MakespanProbe probe) throws Exception {
+        try {
+            return solver.solve(probe);
+        } catch (NoPlansFoundException e) {
+            if (probe.isCancelled())
+                return null;
+            throw e;
+        } catch (IOException e) {
+            if (probe.isCancelled())
+                return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for next finished probe.
+     * @param completion Completion service running the probes.
+     * @return Result of the probe.
+     * @throws IOException IO error of the probe.
+     * @throws InterruptedException Interrupted while waiting.
+     * @throws NoPlansFoundException Solving of the probe was cancelled.
+     */
+    private ProbeResult takeResult(CompletionService<ProbeResult> completion) throws IOException, InterruptedException, NoPlansFoundException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof NoPlansFoundException)
+                throw (NoPlansFoundException) cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+            throw new IOException("Makespan probe failed.", cause);
+        }
+    }
+
+    /**
+     * Cancels running probes of given makespans. Must be called while holding lock of {@code running}.
+     * @param makespans Which makespans to cancel.
+     */
+    private void cancelRunning(IntPredicate makespans) {
+        for (MakespanProbe probe : running.values()) {
+            if (makespans.test(probe.getMakespan()))
+                probe.cancel();
+        }
+    }
+
+    /**
+     * Cancels the search, all running probes are terminated.
+     */
+    void cancel() {
+        synchronized (running) {
+            cancelled = true;
+            cancelRunning(m -> true);
+        }
+    }
+}
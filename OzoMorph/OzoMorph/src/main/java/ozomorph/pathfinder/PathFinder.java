@@ -14,25 +14,95 @@ import ozomorph.nodes.PositionMapNode;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Solves given {@link ProblemInstance}.
  */
 public class PathFinder {
     private static final Logger logger = LoggerFactory.getLogger(PathFinder.class);
+    /**
+     * Time (seconds) given to fast suboptimal planner in anytime solving.
+     */
+    private static final double FAST_PLANNER_TIME_LIMIT = 2;
+    /**
+     * Number of steps by which replanned plans may exceed lower bound of the edited instance, longer plans are found from scratch.
+     */
+    private static final int REPLANNING_SLACK = 2;
     private ActionFactory actionFactory;
     private GetPathCallback getPicatExec;
+    private PicatWorkerPool workerPool;
+    private SolverSettings solverSettings;
     private boolean isPicatRunning;
     private Process picatProcess;
+    private Set<PicatWorker> activeWorkers = ConcurrentHashMap.newKeySet();
+    private volatile ParallelMakespanSearch currentSearch;
+    private volatile PortfolioRace currentRace;
+    private volatile EmbeddedSatPlanner currentPlanner;
+    private volatile GroupOccupancySatPlanner currentGroupPlanner;
+    private volatile GallopingMakespanSearch currentGallop;
+    private volatile RollingHorizonPlanner currentRollingPlanner;
+    private volatile HierarchicalPlanner currentHierarchicalPlanner;
+    private volatile MaxFlowPlanner currentFlowPlanner;
+    private volatile ConflictBasedSearch currentConflictSearch;
+    private volatile PrioritizedPlanner currentFastPlanner;
+    /**
+     * Whether {@link #stop()} was called, solvers started after that are cancelled at once.
+     */
+    private volatile boolean stopped;
+    private SolutionListener solutionListener;
+    private AgentMapNode[] bestAgents;
+    private double bestDuration;
+    private ProgressListener progressListener;
+    private SolutionCache solutionCache;
+    private SymmetryCanonicalizer canonicalizer = new SymmetryCanonicalizer();
+    /**
+     * Whether this PathFinder solves a subproblem of {@link SubproblemDecomposition} (which is not decomposed again).
+     */
+    private boolean isSubproblemFinder;
+    /**
+     * Whether this PathFinder solves instance already reduced by {@link Presolver}.
+     */
+    private boolean isPresolvedFinder;
+    private volatile SubproblemDecomposition currentDecomposition;
+    private Set<PathFinder> subproblemFinders = ConcurrentHashMap.newKeySet();
 
     /**
-     * Creates new PathFinder.
+     * Creates new PathFinder, each solve starts new Picat process.
      * @param settings Duration of actions.
      * @param getPicatExec Callback to get path to executable of Picat runtime. Used when not found in system PATH.
      */
     public PathFinder(ActionSettings settings, GetPathCallback getPicatExec) {
         actionFactory = new ActionFactory(settings);
         this.getPicatExec = getPicatExec;
+        this.solverSettings = new SolverSettings();
+    }
+
+    /**
+     * Creates new PathFinder that solves instances on long-lived Picat workers.
+     * @param settings Duration of actions.
+     * @param solverSettings Settings of the solver.
+     * @param workerPool Pool of Picat workers, may be shared by more PathFinders.
+     */
+    public PathFinder(ActionSettings settings, SolverSettings solverSettings, PicatWorkerPool workerPool) {
+        actionFactory = new ActionFactory(settings);
+        this.solverSettings = solverSettings;
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Creates new PathFinder solving subproblems of given PathFinder using its settings, workers and cache.
+     * @param parent PathFinder whose instance is decomposed or reduced.
+     */
+    private PathFinder(PathFinder parent) {
+        actionFactory = parent.actionFactory;
+        getPicatExec = parent.getPicatExec;
+        workerPool = parent.workerPool;
+        solverSettings = parent.solverSettings;
+        progressListener = parent.progressListener;
+        solutionCache = parent.solutionCache;
+        isSubproblemFinder = parent.isSubproblemFinder;
     }
 
     /**
@@ -45,62 +115,989 @@ public class PathFinder {
      * @throws PicatNotFoundException Executable of Picat runtime not found.
      */
     public List<AgentMapNode> findPaths(ProblemInstance problemInstance) throws IOException, InterruptedException, NoPlansFoundException {
+        if(stopped)
+            throw new NoPlansFoundException();
+        if(solverSettings.isPresolve() && !isPresolvedFinder){
+            Presolver presolver = new Presolver(problemInstance, solverSettings.getPresolveMargin());
+            if(presolver.isReduced())
+                return findPathsPresolved(problemInstance, presolver);
+        }
         List<PositionMapNode> agentsLinearOrdering = new ArrayList<>();
-        String picatInput = translateToPicatInput(problemInstance, agentsLinearOrdering);
-        logger.info("Instance of problem (Picat): " + picatInput);
+        translateGroups(problemInstance, agentsLinearOrdering, new ArrayList<>()); //the same ordering as in the Picat term
+        int lowerBoundTurning = new MakespanLowerBound(problemInstance.getWidth(), problemInstance.getHeight(), true).compute(problemInstance);
+        logger.info("Lower bound of number of steps (with turning): " + lowerBoundTurning + ".");
 
+        SymmetryCanonicalizer.CanonicalForm canonicalForm = null;
+        String cacheKey = null;
+        String cachedSolver = solutionCache == null ? null : describeCachedSolver();
+        if(cachedSolver != null){
+            canonicalForm = canonicalizer.canonicalize(problemInstance);
+            cacheKey = cachedSolver + " " + canonicalForm.getTerm();
+            AgentMapNode[] cached = findCachedPaths(problemInstance, canonicalForm, cacheKey, lowerBoundTurning, agentsLinearOrdering);
+            if(cached != null)
+                return Arrays.asList(cached);
+        }
 
-        File problemInstanceFile = createProblemInstanceFile(picatInput);
-        logger.info("Instance of problem being written to: " + problemInstanceFile.getCanonicalPath());
+        //models start with makespan (number of configurations) one larger than the lower bound, which is at least 1
+        int firstMakespan = Math.max(1, lowerBoundTurning) + 1;
+        AgentMapNode[] agents = null;
+        if(isFlowSolvable(problemInstance))
+            agents = solveByFlow(problemInstance, agentsLinearOrdering, Math.max(1, computeLowerBound(problemInstance)) + 1);
+        else if(!requiresConnectivity() && solverSettings.isSuboptimalSearch())
+            agents = solveBySearch(problemInstance, agentsLinearOrdering);
+        else if(solverSettings.isDecomposition() && !isSubproblemFinder)
+            agents = solveDecomposed(problemInstance, agentsLinearOrdering);
+        if(agents == null)
+            if(solverSettings.getWindowLength() > 0)
+                agents = solveInWindows(problemInstance, agentsLinearOrdering);
+            else if(solverSettings.getCoarseBlockSize() > 1)
+                agents = solveHierarchically(problemInstance, agentsLinearOrdering, firstMakespan);
+            else
+                agents = solverSettings.isEmbeddedSolver()
+                        ? solveEmbedded(problemInstance, agentsLinearOrdering, firstMakespan)
+                        : solveByPicat(problemInstance, lowerBoundTurning, agentsLinearOrdering, firstMakespan);
+        if(cacheKey != null){
+            String plans = formatPlans(agents, canonicalForm.getAgentsOrdering(), agentsLinearOrdering);
+            solutionCache.put(cacheKey, new SolutionCache.CachedPlans(canonicalForm.getTransform(), plans));
+        }
+        return Arrays.asList(agents);
+    }
 
-        String picatOutput;
-        try{
-            picatOutput = runPicat(problemInstanceFile,"picat");
-            logger.info("Plans from Picat: " + picatOutput);
-        } catch(PicatNotFoundException e){
-            logger.warn("Cannot get picat executable from PATH, trying getting the path from user.");
-            picatOutput = runPicat(problemInstanceFile, getPicatExec.getPath());
-            logger.info("Plans from Picat: " + picatOutput);
+    /**
+     * Finds plans of edited instance, reusing plans of the previous instance. Plans of groups whose initial and target positions
+     * did not change are kept, the other groups are planned again by {@link EmbeddedSatPlanner} avoiding the kept plans
+     * (see {@link FixedPlans}), the solver tries previous plans of the replanned agents first.
+     * When nothing can be kept, when replanning fails or its plans would exceed lower bound of the edited instance by more than
+     * {@link #REPLANNING_SLACK} steps, or when the configured solver is not plain {@link EmbeddedSatPlanner} (which replanning uses),
+     * the edited instance is solved from scratch by {@link #findPaths(ProblemInstance)}.
+     * @param previousInstance Previously solved instance (not changed by editing since, see {@link ProblemInstance#copy()}).
+     * @param previousAgents Agents with plans of the previous instance.
+     * @param editedInstance Instance to solve.
+     * @return Agents with plans of the edited instance.
+     * @throws IOException IO error.
+     * @throws InterruptedException Picat runtime interupted.
+     * @throws NoPlansFoundException Given problem was not solved (maybe solver terminated?).
+     * @throws PicatNotFoundException Executable of Picat runtime not found.
+     */
+    public List<AgentMapNode> replan(ProblemInstance previousInstance, List<AgentMapNode> previousAgents, ProblemInstance editedInstance) throws IOException, InterruptedException, NoPlansFoundException {
+        int width = editedInstance.getWidth(), height = editedInstance.getHeight();
+        if(previousInstance.getWidth() != width || previousInstance.getHeight() != height || !isReplanningSupported())
+            return findPaths(editedInstance);
+
+        Map<Group, Set<PositionMapNode>> changedInitials = new HashMap<>();
+        Map<Group, Set<PositionMapNode>> changedTargets = new HashMap<>();
+        for (Group group : editedInstance.getInitialPositions().keySet()) {
+            Set<PositionMapNode> initials = editedInstance.getInitialPositions().get(group);
+            Set<PositionMapNode> targets = editedInstance.getTargetPositions().get(group);
+            if(!previousInstance.getInitialPositions().containsKey(group)
+                    || !vertices(initials, width).equals(vertices(previousInstance.getInitialPositions().get(group), width))
+                    || !vertices(targets, width).equals(vertices(previousInstance.getTargetPositions().get(group), width))){
+                changedInitials.put(group, initials);
+                changedTargets.put(group, targets);
+            }
+        }
+        if(changedInitials.size() == editedInstance.getInitialPositions().size()){
+            logger.info("All groups changed, solving edited instance from scratch.");
+            return findPaths(editedInstance);
+        }
+
+        Map<Integer, AgentMapNode> previousByStart = new HashMap<>();
+        List<AgentMapNode> keptAgents = new ArrayList<>();
+        for (AgentMapNode agent : previousAgents) {
+            previousByStart.put(SubproblemDecomposition.startVertex(agent, width), agent);
+            if(editedInstance.getInitialPositions().containsKey(agent.getGroup()) && !changedInitials.containsKey(agent.getGroup()))
+                keptAgents.add(agent);
+        }
+        logger.info("Replanning " + changedInitials.size() + " changed groups, plans of " + keptAgents.size() + " agents are kept.");
+
+        Map<Integer, List<Action>> plans = new HashMap<>();
+        for (AgentMapNode agent : keptAgents)
+            plans.put(SubproblemDecomposition.startVertex(agent, width), agent.getPlan());
+        if(!changedInitials.isEmpty()){
+            int maxSteps = Math.max(1, new MakespanLowerBound(width, height, true).compute(editedInstance)) + REPLANNING_SLACK;
+            AgentMapNode[] replanned = replanGroups(new ProblemInstance(width, height, changedInitials, changedTargets), keptAgents, previousByStart, maxSteps);
+            if(replanned == null){
+                logger.info("Replanning failed or its plans are too long, solving edited instance from scratch.");
+                return findPaths(editedInstance);
+            }
+            for (AgentMapNode agent : replanned)
+                plans.put(SubproblemDecomposition.startVertex(agent, width), agent.getPlan());
+        }
+
+        List<PositionMapNode> agentsLinearOrdering = new ArrayList<>();
+        translateGroups(editedInstance, agentsLinearOrdering, new ArrayList<>()); //the same ordering as used by findPaths
+        List<AgentMapNode> agents = new ArrayList<>();
+        for (int i = 0; i < agentsLinearOrdering.size(); i++) {
+            PositionMapNode initial = agentsLinearOrdering.get(i);
+            agents.add(new AgentMapNode(initial, i, plans.get(getVertexLinIdx(editedInstance, initial) - 1)));
+        }
+        return agents;
+    }
+
+    /**
+     * Checks whether the configured solver is the one used by replanning: {@link EmbeddedSatPlanner} solving whole instance,
+     * not in windows, on coarse grid, decomposed or by occupancy of groups.
+     * @return Whether edited instances can be replanned.
+     */
+    private boolean isReplanningSupported() {
+        return solverSettings.isEmbeddedSolver() && !solverSettings.isGroupOccupancy() && !solverSettings.isDecomposition()
+                && solverSettings.getWindowLength() == 0 && solverSettings.getCoarseBlockSize() <= 1;
+    }
+
+    /**
+     * Plans changed groups so that they avoid kept plans of the other groups.
+     * @param changed Instance containing only changed groups.
+     * @param keptAgents Agents whose plans are kept.
+     * @param previousByStart Agents of the previous instance by their starting vertex, their plans are tried first.
+     * @param maxSteps The largest number of steps of plans worth keeping, longer plans are found from scratch.
+     * @return Agents of changed groups with plans, null if no plans were found within the limit of steps.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] replanGroups(ProblemInstance changed, List<AgentMapNode> keptAgents, Map<Integer, AgentMapNode> previousByStart, int maxSteps) throws NoPlansFoundException {
+        int width = changed.getWidth();
+        List<PositionMapNode> agentsLinOrdering = new ArrayList<>();
+        translateGroups(changed, agentsLinOrdering, new ArrayList<>());
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        List<Set<PositionMapNode>> groupTargets = new ArrayList<>();
+        splitGroups(changed, agentsLinOrdering, groupInitials, groupTargets);
+
+        FixedPlans fixedPlans = new FixedPlans(keptAgents, width, changed.getHeight());
+        int[][] hints = new int[agentsLinOrdering.size()][];
+        for (int i = 0; i < hints.length; i++) {
+            PositionMapNode initial = agentsLinOrdering.get(i);
+            AgentMapNode previous = previousByStart.get(getVertexLinIdx(changed, initial) - 1);
+            if(previous != null && previous.getGroup() == initial.getGroup())
+                hints[i] = FixedPlans.earliestVertices(previous, width);
+        }
+
+        EmbeddedSatPlanner planner = new EmbeddedSatPlanner(width, changed.getHeight(), groupInitials, groupTargets);
+        planner.setFixedPlans(fixedPlans);
+        planner.setPhaseHints(hints);
+        planner.setLazyConnectivity(solverSettings.isLazyConnectivity());
+        currentPlanner = planner;
+        if(stopped)
+            planner.cancel();
+        try {
+            int lowerBound = new MakespanLowerBound(width, changed.getHeight(), true).compute(changed);
+            //kept agents must finish before replanned agents settle at their targets
+            int firstMakespan = Math.max(Math.max(1, lowerBound) + 1, fixedPlans.getLength() + 1);
+            int lastMakespan = maxSteps + 1;
+            long start = System.nanoTime();
+            for (int makespan = firstMakespan; makespan <= lastMakespan; makespan++) {
+                if(progressListener != null)
+                    progressListener.progressChanged(new SolverProgress(makespan, 0, (System.nanoTime() - start) / 1e9));
+                List<List<String>> plans = planner.solveMakespan(makespan);
+                if(plans != null)
+                    return createAgents(plans, agentsLinOrdering);
+                if(planner.isCancelled())
+                    throw new NoPlansFoundException();
+            }
+            return null;
+        } finally {
+            currentPlanner = null;
+        }
+    }
+
+    /**
+     * Gets indices of vertices ({@code y*width + x}) of positions.
+     * @param positions Positions on the grid.
+     * @param width Width of grid map.
+     * @return Indices of vertices.
+     */
+    private Set<Integer> vertices(Set<PositionMapNode> positions, int width) {
+        Set<Integer> vertices = new HashSet<>();
+        for (PositionMapNode position : positions)
+            vertices.add(position.getGridY() * width + position.getGridX());
+        return vertices;
+    }
+
+    /**
+     * Finds plans in anytime manner. Plans of fast suboptimal planner ({@link PrioritizedPlanner}) are passed to {@link SolutionListener} first,
+     * then {@link #findPaths(ProblemInstance)} runs and better plans are passed as they appear
+     * (with {@link MakespanSearch#GALLOPING}, every makespan that has plans gives better plans).
+     * Improving stops when the optimal plans are found, or when time budget from {@link SolverSettings#getAnytimeBudget()} runs out;
+     * the best plans found are returned then. {@link #stop()} (also during the fast planner) aborts solving, no plans are passed or returned after it.
+     * @param problemInstance Problem (initial and target configuration) to solve.
+     * @return Agents with the best plans found.
+     * @throws IOException IO error.
+     * @throws InterruptedException Picat runtime interupted.
+     * @throws NoPlansFoundException No plans were found before solving stopped, or solving was aborted by {@link #stop()}.
+     * @throws PicatNotFoundException Executable of Picat runtime not found.
+     */
+    public List<AgentMapNode> findPathsAnytime(ProblemInstance problemInstance) throws IOException, InterruptedException, NoPlansFoundException {
+        synchronized (this) {
+            bestAgents = null;
+            bestDuration = Double.POSITIVE_INFINITY;
+        }
+        List<PositionMapNode> agentsLinearOrdering = new ArrayList<>();
+        translateGroups(problemInstance, agentsLinearOrdering, new ArrayList<>()); //the same ordering as used by findPaths
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        List<Set<PositionMapNode>> groupTargets = new ArrayList<>();
+        splitGroups(problemInstance, agentsLinearOrdering, groupInitials, groupTargets);
+        PrioritizedPlanner fastPlanner = new PrioritizedPlanner(problemInstance.getWidth(), problemInstance.getHeight(), groupInitials, groupTargets);
+        currentFastPlanner = fastPlanner;
+        if(stopped)
+            fastPlanner.cancel();
+        List<List<String>> fastPlans;
+        try {
+            fastPlans = fastPlanner.solve(FAST_PLANNER_TIME_LIMIT);
+        } finally {
+            currentFastPlanner = null;
+        }
+        if(fastPlans != null)
+            offerSolution(createAgents(fastPlans, agentsLinearOrdering), false);
+
+        Timer budgetTimer = null;
+        if(solverSettings.getAnytimeBudget() > 0){
+            budgetTimer = new Timer("anytime-budget", true);
+            //repeated, so that a solver started just after the budget ran out is stopped too
+            budgetTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    logger.info("Time budget of anytime solving ran out.");
+                    cancelSolvers();
+                }
+            }, solverSettings.getAnytimeBudget() * 1000, 1000);
+        }
+        try {
+            List<AgentMapNode> agents = findPaths(problemInstance);
+            offerSolution(agents.toArray(new AgentMapNode[0]), true);
+            return agents;
+        } catch (NoPlansFoundException e) {
+            synchronized (this) {
+                if(bestAgents == null || stopped)
+                    throw e;
+                logger.info("Improving of plans stopped, using the best plans found.");
+                return Arrays.asList(bestAgents);
+            }
+        } finally {
+            if(budgetTimer != null)
+                budgetTimer.cancel();
+        }
+    }
+
+    /**
+     * Passes plans to {@link SolutionListener} if they are executed faster than the best plans so far.
+     * @param agents Agents with plans.
+     * @param optimal Whether the plans are proven to have the smallest makespan.
+     */
+    private void offerSolution(AgentMapNode[] agents, boolean optimal) {
+        double duration = 0;
+        for (AgentMapNode agent : agents)
+            duration = Math.max(duration, agent.getPlan().stream().mapToDouble(Action::getDuration).sum());
+        synchronized (this) {
+            if(duration >= bestDuration || stopped)
+                return;
+            bestAgents = agents;
+            bestDuration = duration;
+        }
+        logger.info(String.format("Plans executed in %.1f s found%s.", duration, optimal ? " (optimal)" : ""));
+        if(solutionListener != null)
+            solutionListener.solutionFound(Arrays.asList(agents), optimal);
+    }
+
+    /**
+     * Computes lower bound of number of steps of plans without turning.
+     * @param problemInstance Instance of problem.
+     * @return Lower bound of number of steps.
+     */
+    private int computeLowerBound(ProblemInstance problemInstance) {
+        int lowerBound = new MakespanLowerBound(problemInstance.getWidth(), problemInstance.getHeight(), false).compute(problemInstance);
+        logger.info("Lower bound of number of steps (without turning): " + lowerBound + ".");
+        return lowerBound;
+    }
+
+    /**
+     * Translates the instance to Picat term (captured to a file if enabled by {@link SolverSettings}) and solves it by Picat.
+     * The term is logged only at debug level, with reachability of large instances it has megabytes.
+     * @param problemInstance Instance of problem.
+     * @param lowerBoundTurning Lower bound of number of steps with turning.
+     * @param agentsLinearOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param firstMakespan The smallest makespan that can have plans.
+     * @return Agents with plans, at index of the agent in the linear ordering.
+     * @throws IOException IO error.
+     * @throws InterruptedException Picat runtime interupted.
+     * @throws NoPlansFoundException Given problem was not solved (maybe solver terminated?).
+     */
+    private AgentMapNode[] solveByPicat(ProblemInstance problemInstance, int lowerBoundTurning, List<PositionMapNode> agentsLinearOrdering, int firstMakespan) throws IOException, InterruptedException, NoPlansFoundException {
+        String picatInput = translateToPicatInput(problemInstance, computeLowerBound(problemInstance), lowerBoundTurning, agentsLinearOrdering);
+        logger.info("Instance of problem translated to Picat term of " + picatInput.length() + " characters.");
+        logger.debug("Instance of problem (Picat): {}", picatInput);
+
+        if(solverSettings.isCaptureInstances()){
+            File problemInstanceFile = createProblemInstanceFile(picatInput);
+            logger.info("Instance of problem captured to: " + problemInstanceFile.getCanonicalPath());
+        }
+        return solve(picatInput, agentsLinearOrdering, firstMakespan);
+    }
+
+    /**
+     * Solves the instance using method selected by {@link SolverSettings}.
+     * @param picatInput Instance of problem, in Picat language.
+     * @param agentsLinearOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param firstMakespan The smallest makespan that can have plans.
+     * @return Agents with plans, at index of the agent in the linear ordering.
+     * @throws IOException IO error.
+     * @throws InterruptedException Picat runtime interupted.
+     * @throws NoPlansFoundException Given problem was not solved (maybe solver terminated?).
+     */
+    private AgentMapNode[] solve(String picatInput, List<PositionMapNode> agentsLinearOrdering, int firstMakespan) throws IOException, InterruptedException, NoPlansFoundException {
+        AgentMapNode[] agents = new AgentMapNode[agentsLinearOrdering.size()];
+        PicatPlanParser planParser = createPlanParser(agentsLinearOrdering, agents);
+        //whole search for the smallest makespan is done by the solver, either makespan by makespan or by growing horizon
+        String request = solverSettings.isIncrementalMakespan() ? String.format("incremental(%s)", picatInput) : picatInput;
+
+        if(workerPool != null && solverSettings.getPortfolio().size() > 1){
+            return findPathsByPortfolio(request, agentsLinearOrdering);
+        } else if(workerPool != null && solverSettings.getParallelProbes() > 1){
+            return findPathsInParallel(picatInput, agentsLinearOrdering, firstMakespan);
+        } else if(solverSettings.getMakespanSearch() == MakespanSearch.GALLOPING){
+            return findPathsByGalloping(firstMakespan, makespan -> {
+                AgentMapNode[] probeAgents = new AgentMapNode[agentsLinearOrdering.size()];
+                solveRequest(String.format("makespan(%d,%s)", makespan, picatInput), createPlanParser(agentsLinearOrdering, probeAgents));
+                return hasAllPlans(probeAgents) ? probeAgents : null;
+            });
+        } else {
+            solveRequest(request, planParser);
+        }
+
+        if(!hasAllPlans(agents))
+            throw new NoPlansFoundException();
+        return agents;
+    }
+
+    /**
+     * Solves one request on a worker, or by new Picat process when there is no worker pool.
+     * @param request Request for the solver, in Picat language.
+     * @param planParser Parser of plans outputted by the solver.
+     * @throws IOException IO error.
+     * @throws InterruptedException Picat runtime interupted.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private void solveRequest(String request, PicatPlanParser planParser) throws IOException, InterruptedException, NoPlansFoundException {
+        if(workerPool != null){
+            solveOnWorker(workerPool, request, planParser, worker -> {});
+        } else {
+            try{
+                runPicat(request,"picat", planParser);
+            } catch(PicatNotFoundException e){
+                logger.warn("Cannot get picat executable from PATH, trying getting the path from user.");
+                runPicat(request, getPicatExec.getPath(), planParser);
+            }
+        }
+    }
+
+    /**
+     * Finds plans by exponential and binary search over makespans, see {@link GallopingMakespanSearch}.
+     * @param firstMakespan The smallest makespan that can have plans.
+     * @param makespanSolver Solver of single makespan.
+     * @return Agents with plans of the smallest makespan.
+     * @throws IOException IO error.
+     * @throws InterruptedException Interrupted while waiting for the solver.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] findPathsByGalloping(int firstMakespan, GallopingMakespanSearch.MakespanSolver makespanSolver) throws IOException, InterruptedException, NoPlansFoundException {
+        GallopingMakespanSearch search = new GallopingMakespanSearch(firstMakespan, makespanSolver, progressListener,
+                solutionListener == null ? null : agents -> offerSolution(agents, false));
+        currentGallop = search;
+        if(stopped)
+            search.cancel();
+        try {
+            return search.search();
+        } finally {
+            currentGallop = null;
+        }
+    }
+
+    /**
+     * Solves the instance in-process by {@link EmbeddedSatPlanner}, without Picat.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param firstMakespan The smallest makespan that can have plans.
+     * @return Agents with plans of the smallest makespan, at index of the agent in the linear ordering.
+     * @throws IOException IO error (not done by the embedded solver itself).
+     * @throws InterruptedException Interrupted while solving.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] solveEmbedded(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering, int firstMakespan) throws IOException, InterruptedException, NoPlansFoundException {
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        List<Set<PositionMapNode>> groupTargets = new ArrayList<>();
+        splitGroups(problemInstance, agentsLinOrdering, groupInitials, groupTargets);
+        if(solverSettings.isGroupOccupancy())
+            return solveByGroupOccupancy(problemInstance, agentsLinOrdering, groupInitials, groupTargets, firstMakespan);
+        EmbeddedSatPlanner planner = new EmbeddedSatPlanner(problemInstance.getWidth(), problemInstance.getHeight(), groupInitials, groupTargets);
+        planner.setLazyConnectivity(solverSettings.isLazyConnectivity());
+        currentPlanner = planner;
+        if(stopped)
+            planner.cancel();
+        try {
+            if(solverSettings.getMakespanSearch() == MakespanSearch.GALLOPING)
+                return findPathsByGalloping(firstMakespan, makespan -> createAgents(planner.solveMakespan(makespan), agentsLinOrdering));
+            AgentMapNode[] agents = createAgents(planner.solve(firstMakespan, progressListener), agentsLinOrdering);
+            if(agents == null)
+                throw new NoPlansFoundException();
+            return agents;
+        } finally {
+            if(solverSettings.isLazyConnectivity())
+                logger.info("Connectivity enforced lazily in " + planner.getRefinementRounds() + " refinement rounds.");
+            currentPlanner = null;
+        }
+    }
+
+    /**
+     * Solves the instance in-process by {@link GroupOccupancySatPlanner}, which encodes occupancy of groups instead of agents.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param groupInitials Initial positions of agents of each group, in the linear ordering.
+     * @param groupTargets Target positions of each group.
+     * @param firstMakespan The smallest makespan that can have plans.
+     * @return Agents with plans of the smallest makespan, at index of the agent in the linear ordering.
+     * @throws IOException IO error (not done by the embedded solver itself).
+     * @throws InterruptedException Interrupted while solving.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] solveByGroupOccupancy(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering, List<List<PositionMapNode>> groupInitials,
+                                                 List<Set<PositionMapNode>> groupTargets, int firstMakespan) throws IOException, InterruptedException, NoPlansFoundException {
+        GroupOccupancySatPlanner planner = new GroupOccupancySatPlanner(problemInstance.getWidth(), problemInstance.getHeight(), groupInitials, groupTargets);
+        currentGroupPlanner = planner;
+        if(stopped)
+            planner.cancel();
+        try {
+            if(solverSettings.getMakespanSearch() == MakespanSearch.GALLOPING)
+                return findPathsByGalloping(firstMakespan, makespan -> createAgents(planner.solveMakespan(makespan), agentsLinOrdering));
+            AgentMapNode[] agents = createAgents(planner.solve(firstMakespan, progressListener), agentsLinOrdering);
+            if(agents == null)
+                throw new NoPlansFoundException();
+            return agents;
+        } finally {
+            logger.info("Groups kept connected by cuts added in " + planner.getRefinementRounds() + " refinement rounds.");
+            currentGroupPlanner = null;
+        }
+    }
+
+    /**
+     * Checks whether instance can be solved by {@link MaxFlowPlanner}: it has a single group and the solver does not keep groups connected.
+     * @param problemInstance Instance of problem.
+     * @return Whether the instance is solved as a flow problem.
+     */
+    private boolean isFlowSolvable(ProblemInstance problemInstance) {
+        return problemInstance.getInitialPositions().size() == 1 && !requiresConnectivity();
+    }
+
+    /**
+     * Checks whether the solver keeps groups connected: the embedded solver and the default model always do,
+     * otherwise some variant of the portfolio (or of the worker pool) must have a model with connectivity.
+     * @return Whether groups must stay connected.
+     */
+    private boolean requiresConnectivity() {
+        if(solverSettings.isEmbeddedSolver())
+            return true;
+        return getConfiguredVariants().stream().anyMatch(SolverVariant::isConnected);
+    }
+
+    /**
+     * Gets variants of Picat solver that solve instances: the portfolio, or the variant of the worker pool (the default variant without pool).
+     * @return Variants solving instances.
+     */
+    private List<SolverVariant> getConfiguredVariants() {
+        List<SolverVariant> variants = solverSettings.getPortfolio();
+        if(workerPool != null && variants.size() <= 1)
+            return List.of(workerPool.getVariant());
+        else if(variants.size() <= 1)
+            return List.of(SolverVariant.DEFAULT);
+        return variants;
+    }
+
+    /**
+     * Describes solver whose plans are stored in {@link SolutionCache}, the description is part of keys of the cache.
+     * Only plans with the smallest makespan and connected groups are cached, so plans of fast suboptimal planners
+     * (windows, coarse grid, decomposition) or of solvers ignoring connectivity are never returned for the instance later.
+     * @return Description of the configured solver, null if its plans are not cached.
+     */
+    private String describeCachedSolver() {
+        if(solverSettings.getWindowLength() > 0 || solverSettings.getCoarseBlockSize() > 1 || (solverSettings.isDecomposition() && !isSubproblemFinder))
+            return null;
+        if(solverSettings.isEmbeddedSolver())
+            return "embedded";
+        List<SolverVariant> variants = getConfiguredVariants();
+        if(!variants.stream().allMatch(SolverVariant::isConnected))
+            return null;
+        return "picat" + variants;
+    }
+
+    /**
+     * Solves single-group instance without connectivity as a flow problem by {@link MaxFlowPlanner}, without Picat.
+     * @param problemInstance Instance of problem with a single group.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param firstMakespan The smallest makespan (number of configurations) that can have plans without turning.
+     * @return Agents with plans, at index of the agent in the linear ordering.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] solveByFlow(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering, int firstMakespan) throws NoPlansFoundException {
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        List<Set<PositionMapNode>> groupTargets = new ArrayList<>();
+        splitGroups(problemInstance, agentsLinOrdering, groupInitials, groupTargets);
+        MaxFlowPlanner planner = new MaxFlowPlanner(problemInstance.getWidth(), problemInstance.getHeight(), groupInitials.get(0), groupTargets.get(0));
+        currentFlowPlanner = planner;
+        if(stopped)
+            planner.cancel();
+        try {
+            AgentMapNode[] agents = createAgents(planner.solve(firstMakespan, progressListener), agentsLinOrdering);
+            if(agents == null)
+                throw new NoPlansFoundException();
+            return agents;
+        } finally {
+            currentFlowPlanner = null;
+        }
+    }
+
+    /**
+     * Solves instance without connectivity by {@link ConflictBasedSearch}, without Picat.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Agents with plans, at index of the agent in the linear ordering.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] solveBySearch(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering) throws NoPlansFoundException {
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        List<Set<PositionMapNode>> groupTargets = new ArrayList<>();
+        splitGroups(problemInstance, agentsLinOrdering, groupInitials, groupTargets);
+        ConflictBasedSearch search = new ConflictBasedSearch(problemInstance.getWidth(), problemInstance.getHeight(), groupInitials, groupTargets);
+        currentConflictSearch = search;
+        if(stopped)
+            search.cancel();
+        try {
+            AgentMapNode[] agents = createAgents(search.solve(progressListener), agentsLinOrdering);
+            if(agents == null)
+                throw new NoPlansFoundException();
+            return agents;
+        } finally {
+            currentConflictSearch = null;
+        }
+    }
+
+    /**
+     * Solves instance reduced by {@link Presolver} and maps plans back to the original instance.
+     * If plans of the reduced instance pass through positions of removed static groups, the original instance is solved instead.
+     * @param problemInstance Instance of problem.
+     * @param presolver Presolver that reduced the instance.
+     * @return Agents with plans, agents of static groups have empty plans.
+     * @throws IOException IO error.
+     * @throws InterruptedException Picat runtime interupted.
+     * @throws NoPlansFoundException Given problem was not solved (maybe solver terminated?).
+     */
+    private List<AgentMapNode> findPathsPresolved(ProblemInstance problemInstance, Presolver presolver) throws IOException, InterruptedException, NoPlansFoundException {
+        PathFinder finder = new PathFinder(this);
+        finder.isPresolvedFinder = true;
+        Map<Integer, List<Action>> plans = new HashMap<>();
+        if(!presolver.isTriviallySolved()){
+            subproblemFinders.add(finder);
+            if(stopped)
+                finder.stop();
+            try {
+                List<AgentMapNode> reducedAgents = finder.findPaths(presolver.getReducedInstance());
+                if(presolver.avoidsStaticGroups(reducedAgents)){
+                    for (AgentMapNode agent : reducedAgents)
+                        plans.put(presolver.originalStartVertex(agent), agent.getPlan());
+                } else {
+                    logger.info("Plans of presolved instance pass through static groups, solving the original instance.");
+                    return finder.findPaths(problemInstance);
+                }
+            } finally {
+                subproblemFinders.remove(finder);
+            }
+        }
+
+        List<PositionMapNode> agentsLinearOrdering = new ArrayList<>();
+        translateGroups(problemInstance, agentsLinearOrdering, new ArrayList<>()); //the same ordering as used without presolving
+        List<AgentMapNode> agents = new ArrayList<>();
+        for (int i = 0; i < agentsLinearOrdering.size(); i++) {
+            PositionMapNode initial = agentsLinearOrdering.get(i);
+            List<Action> plan = plans.getOrDefault(getVertexLinIdx(problemInstance, initial) - 1, new ArrayList<>());
+            agents.add(new AgentMapNode(initial, i, plan));
+        }
+        return agents;
+    }
+
+    /**
+     * Solves clusters of groups that do not interact as separate instances, each by its own PathFinder.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Agents with plans, at index of the agent in the linear ordering, null if the instance cannot be decomposed.
+     * @throws IOException IO error.
+     * @throws InterruptedException Picat runtime interupted.
+     * @throws NoPlansFoundException Some subproblem has no plans or solving was cancelled.
+     */
+    private AgentMapNode[] solveDecomposed(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering) throws IOException, InterruptedException, NoPlansFoundException {
+        SubproblemDecomposition decomposition = new SubproblemDecomposition(problemInstance, subproblem -> {
+            PathFinder finder = new PathFinder(this);
+            finder.isSubproblemFinder = true;
+            subproblemFinders.add(finder);
+            if(stopped)
+                finder.stop();
+            try {
+                if(currentDecomposition == null)
+                    throw new NoPlansFoundException(); //stopped
+                return finder.findPaths(subproblem);
+            } finally {
+                subproblemFinders.remove(finder);
+            }
+        });
+        if(decomposition.getClustersCount() < 2)
+            return null;
+        currentDecomposition = decomposition;
+        if(stopped)
+            decomposition.cancel();
+        try {
+            return decomposition.solve(agentsLinOrdering);
+        } finally {
+            currentDecomposition = null;
+        }
+    }
+
+    /**
+     * Solves the instance in windows of few steps by {@link RollingHorizonPlanner}, plans of windows are concatenated.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Agents with plans, at index of the agent in the linear ordering.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] solveInWindows(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering) throws NoPlansFoundException {
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        List<Set<PositionMapNode>> groupTargets = new ArrayList<>();
+        splitGroups(problemInstance, agentsLinOrdering, groupInitials, groupTargets);
+        RollingHorizonPlanner planner = new RollingHorizonPlanner(problemInstance.getWidth(), problemInstance.getHeight(), groupInitials, groupTargets,
+                solverSettings.getWindowLength(), solverSettings.getWindowCommit());
+        currentRollingPlanner = planner;
+        if(stopped)
+            planner.cancel();
+        try {
+            AgentMapNode[] agents = createAgents(planner.solve(progressListener), agentsLinOrdering);
+            if(agents == null)
+                throw new NoPlansFoundException();
+            logger.info("Plans of " + planner.getCommittedSteps() + " steps found in windows.");
+            return agents;
+        } finally {
+            currentRollingPlanner = null;
         }
+    }
+
+    /**
+     * Solves the instance on the fine grid restricted to corridors found on coarse grid by {@link HierarchicalPlanner}.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param firstMakespan The smallest makespan (number of configurations) that can have plans.
+     * @return Agents with plans, at index of the agent in the linear ordering.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] solveHierarchically(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering, int firstMakespan) throws NoPlansFoundException {
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        List<Set<PositionMapNode>> groupTargets = new ArrayList<>();
+        splitGroups(problemInstance, agentsLinOrdering, groupInitials, groupTargets);
+        HierarchicalPlanner planner = new HierarchicalPlanner(problemInstance.getWidth(), problemInstance.getHeight(), groupInitials, groupTargets,
+                solverSettings.getCoarseBlockSize());
+        currentHierarchicalPlanner = planner;
+        if(stopped)
+            planner.cancel();
+        try {
+            AgentMapNode[] agents = createAgents(planner.solve(firstMakespan, progressListener), agentsLinOrdering);
+            if(agents == null)
+                throw new NoPlansFoundException();
+            return agents;
+        } finally {
+            currentHierarchicalPlanner = null;
+        }
+    }
+
+    /**
+     * Splits agents to groups, agents of a group are consecutive in the linear ordering.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param groupInitials Output argument, initial positions of agents of each group in the linear ordering.
+     * @param groupTargets Output argument, target positions of each group.
+     */
+    private void splitGroups(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering, List<List<PositionMapNode>> groupInitials, List<Set<PositionMapNode>> groupTargets) {
+        Map<PositionMapNode, Group> groupOfInitial = new HashMap<>();
+        problemInstance.getInitialPositions().forEach((group, initials) -> initials.forEach(initial -> groupOfInitial.put(initial, group)));
+        Group previous = null;
+        for (PositionMapNode initial : agentsLinOrdering) {
+            Group group = groupOfInitial.get(initial);
+            if(group != previous){
+                groupInitials.add(new ArrayList<>());
+                groupTargets.add(problemInstance.getTargetPositions().get(group));
+                previous = group;
+            }
+            groupInitials.get(groupInitials.size() - 1).add(initial);
+        }
+    }
+
+    /**
+     * Creates agents with plans given by names of actions.
+     * @param plans Names of actions of each agent (in Picat form), null if there are no plans.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Agents with plans, at index of the agent in the linear ordering, null if there are no plans.
+     */
+    private AgentMapNode[] createAgents(List<List<String>> plans, List<PositionMapNode> agentsLinOrdering) {
+        if(plans == null)
+            return null;
+        AgentMapNode[] agents = new AgentMapNode[agentsLinOrdering.size()];
+        for (int i = 0; i < agents.length; i++) {
+            List<Action> plan = new ArrayList<>();
+            for (String name : plans.get(i))
+                plan.add(actionFactory.createAction(name));
+            agents[i] = new AgentMapNode(agentsLinOrdering.get(i), i, plan);
+        }
+        return agents;
+    }
+
+    /**
+     * Gets plans of the instance from {@link SolutionCache}.
+     * Plans may have been solved for a rotated, mirrored or translated variant of the instance, they are transformed back.
+     * Plans of rotated variants start in other direction than up, so turns are prepended to them. Such plans are used only
+     * when they still reach the lower bound of number of steps, otherwise they may be longer than the optimal plans.
+     * @param problemInstance Instance of problem.
+     * @param canonicalForm Normal form of the instance.
+     * @param cacheKey Key of the instance in the cache (normal form and description of the solver).
+     * @param lowerBoundTurning Lower bound of number of steps of plans of the instance, with turning.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Agents with cached plans, at index of the agent in the linear ordering, null if there are no usable plans.
+     * @throws IOException IO error.
+     */
+    private AgentMapNode[] findCachedPaths(ProblemInstance problemInstance, SymmetryCanonicalizer.CanonicalForm canonicalForm, String cacheKey, int lowerBoundTurning, List<PositionMapNode> agentsLinOrdering) throws IOException {
+        SolutionCache.CachedPlans cached = solutionCache.get(cacheKey);
+        if(cached == null)
+            return null;
+
+        List<List<Action>> plans = new ArrayList<>();
+        try (Reader reader = new StringReader(cached.getPlans())) {
+            if(reader.read() != '[')
+                return null;
+            new PicatPlanParser(actionFactory, (agentIndex, plan) -> plans.add(plan)).parse(reader);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Cached plans are not valid, solving the instance again.", e);
+            return null;
+        }
+        List<PositionMapNode> canonicalOrdering = canonicalForm.getAgentsOrdering();
+        if(plans.size() != canonicalOrdering.size())
+            return null;
+
+        Map<PositionMapNode, Integer> agentIndices = indexAgents(agentsLinOrdering);
+        AgentMapNode[] agents = new AgentMapNode[agentsLinOrdering.size()];
+        List<String> alignment = canonicalizer.turnsFromUp(canonicalizer.startDirection(cached.getTransform(), canonicalForm.getTransform()));
+        int steps = 0;
+        for (int i = 0; i < canonicalOrdering.size(); i++) {
+            List<String> names = new ArrayList<>();
+            for (Action action : plans.get(i))
+                names.add(actionFactory.getPicatName(action));
+            names = canonicalizer.transformPlan(names, cached.getTransform(), canonicalForm.getTransform());
+            names.addAll(0, alignment);
+            steps = Math.max(steps, names.size());
 
-        return parsePlans(picatOutput,agentsLinearOrdering);
+            PositionMapNode start = canonicalOrdering.get(i);
+            if(!canonicalizer.staysOnGrid(start, names, problemInstance.getWidth(), problemInstance.getHeight())){
+                logger.info("Cached plans leave the grid of this instance, solving the instance again.");
+                return null;
+            }
+            List<Action> plan = new ArrayList<>();
+            for (String name : names)
+                plan.add(actionFactory.createAction(name));
+            int agentIndex = agentIndices.get(start);
+            agents[agentIndex] = new AgentMapNode(start, agentIndex, plan);
+        }
+        if(!alignment.isEmpty() && steps > Math.max(1, lowerBoundTurning)){
+            logger.info("Cached plans of rotated instance are longer than lower bound, solving the instance again.");
+            return null;
+        }
+        logger.info("Plans found in cache.");
+        return agents;
     }
 
     /**
-     * Creates Picat source file containing the instance of problem as input to solver.
+     * Formats plans of agents in the same form as they are outputted by the solver.
+     * @param agents Agents with plans, at index of the agent in the linear ordering.
+     * @param ordering Starting positions of agents in the order in which their plans are formatted.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Picat list of lists of actions.
+     */
+    private String formatPlans(AgentMapNode[] agents, List<PositionMapNode> ordering, List<PositionMapNode> agentsLinOrdering){
+        Map<PositionMapNode, Integer> agentIndices = indexAgents(agentsLinOrdering);
+        StringBuilder plans = new StringBuilder();
+        plans.append("[");
+        String prefix = "";
+        for (PositionMapNode start : ordering) {
+            plans.append(prefix);
+            prefix = ",";
+            plans.append("[");
+            String actionPrefix = "";
+            for (Action action : agents[agentIndices.get(start)].getPlan()) {
+                plans.append(actionPrefix);
+                actionPrefix = ",";
+                plans.append(actionFactory.getPicatName(action));
+            }
+            plans.append("]");
+        }
+        plans.append("]");
+        return plans.toString();
+    }
+
+    /**
+     * Maps starting positions of agents to indices of the agents.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Index of agent for each starting position.
+     */
+    private Map<PositionMapNode, Integer> indexAgents(List<PositionMapNode> agentsLinOrdering){
+        Map<PositionMapNode, Integer> agentIndices = new HashMap<>();
+        for (int i = 0; i < agentsLinOrdering.size(); i++)
+            agentIndices.put(agentsLinOrdering.get(i), i);
+        return agentIndices;
+    }
+
+    /**
+     * Finds plans by trying several makespans at the same time, see {@link ParallelMakespanSearch}.
+     * @param picatInput Instance of problem, in Picat language.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param firstMakespan The smallest makespan that can have plans.
+     * @return Agents with plans of the smallest makespan.
+     * @throws IOException IO error.
+     * @throws InterruptedException Interrupted while waiting for workers.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private AgentMapNode[] findPathsInParallel(String picatInput, List<PositionMapNode> agentsLinOrdering, int firstMakespan) throws IOException, InterruptedException, NoPlansFoundException {
+        ParallelMakespanSearch search = new ParallelMakespanSearch(solverSettings.getParallelProbes(), firstMakespan, probe -> {
+            AgentMapNode[] agents = new AgentMapNode[agentsLinOrdering.size()];
+            String request = String.format("makespan(%d,%s)", probe.getMakespan(), picatInput);
+            solveOnWorker(workerPool, request, createPlanParser(agentsLinOrdering, agents), probe::setWorker);
+            return hasAllPlans(agents) ? agents : null;
+        });
+        currentSearch = search;
+        if(stopped)
+            search.cancel();
+        try {
+            return search.search();
+        } finally {
+            currentSearch = null;
+        }
+    }
+
+    /**
+     * Finds plans by racing variants of the solver from {@link SolverSettings#getPortfolio()}, see {@link PortfolioRace}.
+     * @param picatInput Request for the solver (instance of problem), in Picat language.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Agents with plans found by the fastest variant.
+     * @throws InterruptedException Interrupted while waiting for variants.
+     * @throws NoPlansFoundException No variant found plans or solving was cancelled.
+     */
+    private AgentMapNode[] findPathsByPortfolio(String picatInput, List<PositionMapNode> agentsLinOrdering) throws InterruptedException, NoPlansFoundException {
+        PortfolioRace race = new PortfolioRace(solverSettings.getPortfolio(), (variant, onWorkerChanged) -> {
+            AgentMapNode[] agents = new AgentMapNode[agentsLinOrdering.size()];
+            solveOnWorker(workerPool.forVariant(variant), picatInput, createPlanParser(agentsLinOrdering, agents), onWorkerChanged);
+            return hasAllPlans(agents) ? agents : null;
+        });
+        currentRace = race;
+        if(stopped)
+            race.cancel();
+        try {
+            return race.race();
+        } finally {
+            currentRace = null;
+        }
+    }
+
+    /**
+     * Solves request on a worker from {@link PicatWorkerPool}.
+     * If the worker crashes, the request is solved once again on a new worker.
+     * @param pool Pool to take the worker from.
+     * @param picatInput Request for the solver (instance of problem), in Picat language.
+     * @param planParser Parser of plans outputted by the solver.
+     * @param onWorkerChanged Called with the worker before the request is sent to it, and with null before the worker is returned to the pool.
+     * @throws IOException IO error.
+     * @throws InterruptedException Interrupted while waiting for a worker.
+     * @throws NoPlansFoundException Solving was cancelled.
+     */
+    private void solveOnWorker(PicatWorkerPool pool, String picatInput, PicatPlanParser planParser, Consumer<PicatWorker> onWorkerChanged) throws IOException, InterruptedException, NoPlansFoundException {
+        for (int attempt = 1; ; attempt++) {
+            PicatWorker worker = pool.acquire();
+            activeWorkers.add(worker);
+            if(stopped)
+                worker.cancel();
+            onWorkerChanged.accept(worker);
+            try {
+                String picatOutput = worker.solve(picatInput, solverSettings.getWorkerTimeout(), progressListener, planParser);
+                logger.info("Full picat output (worker " + worker.getId() + ", " + pool.getVariant() + "): \n" + picatOutput);
+                return;
+            } catch (PicatWorkerCrashedException e) {
+                if (attempt >= 2)
+                    throw e;
+                logger.warn("Picat worker " + worker.getId() + " crashed, solving again on new worker.", e);
+            } finally {
+                activeWorkers.remove(worker);
+                onWorkerChanged.accept(null);
+                pool.release(worker);
+            }
+        }
+    }
+
+    /**
+     * Creates parser that creates agents as soon as their plans are read from output of the solver.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param agents Output argument, agents with parsed plans at index of the agent in the linear ordering.
+     * @return Parser of plans outputted by the solver.
+     */
+    private PicatPlanParser createPlanParser(List<PositionMapNode> agentsLinOrdering, AgentMapNode[] agents){
+        return new PicatPlanParser(actionFactory, (agentIndex, plan) -> {
+            if(agentIndex >= agents.length)
+                throw new IllegalArgumentException(String.format("Solver returned more plans than %d agents.", agents.length));
+            agents[agentIndex] = new AgentMapNode(agentsLinOrdering.get(agentIndex), agentIndex, plan);
+        });
+    }
+
+    /**
+     * Checks whether plan was parsed for every agent.
+     * @param agents Agents with parsed plans.
+     * @return Whether there is plan for every agent.
+     */
+    private boolean hasAllPlans(AgentMapNode[] agents) {
+        for (AgentMapNode agent : agents) {
+            if(agent == null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the instance of problem to new file in {@code ../workdir}, for debugging purposes.
+     * The file can be passed to solver as argument (or as its standard input).
      * @param problemInstance Instance of problem, in Picat language.
-     * @return File containing the instance of problem as input to solver.
+     * @return File containing the instance of problem.
      * @throws IOException Error while creating the file / writing to it.
      */
     private File createProblemInstanceFile(String problemInstance) throws IOException {
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-");
         Date date = new Date();
 
-        File file = new File("../workdir/" + formatter.format(date)  + ".pi");
-        file.getParentFile().mkdirs();
-        file.createNewFile();
-        FileWriter fileWriter = new FileWriter(file);
-        PrintWriter printWriter = new PrintWriter(fileWriter);
-        printWriter.printf("getProblemInstance() = PI =>\n" +
-                "    PI = %s.", problemInstance);
-        printWriter.close();
+        File dir = new File("../workdir");
+        dir.mkdirs();
+        //unique name, so that instances solved in the same second do not overwrite each other
+        File file = File.createTempFile(formatter.format(date), ".pi", dir);
+        try (PrintWriter printWriter = new PrintWriter(new FileWriter(file))) {
+            printWriter.printf("%s.\n", problemInstance);
+        }
         return file;
     }
 
     /**
-     * Runs solver in Picat.
-     * @param problemInstanceFile Picat source file containing the problem instance (input for solver).
+     * Runs solver in Picat, the problem instance is passed to its standard input.
+     * @param problemInstance Instance of problem, in Picat language.
      * @param picatExecPath Path to executable of Picat runtime.
-     * @return Plans returned by solver, in Picat language.
+     * @param planParser Parser of plans outputted by the solver.
      * @throws PicatNotFoundException Executable of Picat runtime not found.
      * @throws IOException IO error.
      * @throws InterruptedException Picat runtime interupted.
-     * @throws NoPlansFoundException No plans outputted by Picat solver.
      */
-    private String runPicat(File problemInstanceFile, String picatExecPath) throws IOException, InterruptedException, NoPlansFoundException {
+    private void runPicat(String problemInstance, String picatExecPath, PicatPlanParser planParser) throws IOException, InterruptedException {
         String picatMain = "../picat/solve.pi"; // "C:\\Users\\jakub\\OneDrive\\02_mff\\05\\bp\\picat\\solve.pi";
 
-        ProcessBuilder builder = new ProcessBuilder(picatExecPath, picatMain, problemInstanceFile.getCanonicalPath());
+        ProcessBuilder builder = new ProcessBuilder(picatExecPath, picatMain);
         builder.directory(new File("."));
 
         logger.info("Starting picat as: " + String.join(" ",builder.command()) + "\nPicat process working directory is: " + builder.directory().getCanonicalPath());
@@ -108,85 +1105,107 @@ public class PathFinder {
         try{
             picatProcess  = builder.start();
             isPicatRunning = true;
+            if(stopped)
+                picatProcess.destroy();
         } catch (IOException e){
             throw new PicatNotFoundException(e);
         }
 
-        picatProcess.waitFor();
-        isPicatRunning = false;
-
-        byte[] errOut = picatProcess.getErrorStream().readAllBytes();
-        if(errOut != null && errOut.length > 0)
-            logger.warn("Picat error output: \n" + new String(errOut));
+        try (Writer writer = new OutputStreamWriter(picatProcess.getOutputStream())) {
+            writer.write(problemInstance);
+            writer.write(".\n");
+        } catch (IOException e) {
+            logger.warn("Writing of problem instance to Picat failed.", e);
+        }
 
-        StringBuilder out = new StringBuilder();
-        String plans = null;
+        //error output is drained concurrently, so that the solver never blocks on full pipe
+        StringBuilder errOut = new StringBuilder();
+        Thread errReader = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(picatProcess.getErrorStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    errOut.append(line).append("\n");
+            } catch (IOException e) {
+                logger.warn("Reading of Picat error output failed.", e);
+            }
+        }, "picat-stderr");
+        errReader.setDaemon(true);
+        errReader.start();
 
+        String out;
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(picatProcess.getInputStream()))) {
-            //debug only
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                //debug only
-                out.append(line);
-                out.append("\n");
-
-                //real code
-                if(line.trim().charAt(0) == '[')
-                    plans = line;
-            }
+            out = new PicatOutputReader(reader, progressListener, planParser).read();
         } catch (IOException e) {
             throw new IOException("Reading of Picat output failed.", e);
+        } finally {
+            picatProcess.waitFor();
+            isPicatRunning = false;
+            errReader.join();
         }
 
+        if(errOut.length() > 0)
+            logger.warn("Picat error output: \n" + errOut);
 
-
-        logger.info("Full picat output: \n"+ out.toString());
-
-        if(plans != null)
-            return plans;
-        else
-            throw new NoPlansFoundException();
+        logger.info("Full picat output: \n"+ out);
     }
 
     /**
-     * Translates {@link ProblemInstance} to corresponding Picat predicate.
+     * Translates {@link ProblemInstance} to corresponding Picat term (readable by {@code read_term}).
      * @param problemInstance Instance of problem to translate.
+     * @param lowerBound Lower bound of number of steps, models start from it.
+     * @param lowerBoundTurning Lower bound of number of steps when agents have to turn, turning models start from it.
      * @param agentsLinOrdering Output argument, linear ordering of occupied positions in initial configuration (= starting positions of agets).
      * @return Picat predicate corresponding to given {@link ProblemInstance}.
      */
-    private String translateToPicatInput(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering){
+    private String translateToPicatInput(ProblemInstance problemInstance, int lowerBound, int lowerBoundTurning, List<PositionMapNode> agentsLinOrdering){
         agentsLinOrdering.clear();
+        List<Group> groupsOrdering = new ArrayList<>();
         StringBuilder input = new StringBuilder();
-        input.append("$problem(");
+        input.append("problem(");
         input.append(problemInstance.getAgentsCount());
         input.append(",");
-        input.append(translateGroups(problemInstance, agentsLinOrdering));
+        input.append(translateGroups(problemInstance, agentsLinOrdering, groupsOrdering));
         input.append(",");
         input.append(problemInstance.getWidth());
         input.append(",");
         input.append(problemInstance.getHeight());
+        input.append(",");
+        input.append(lowerBound);
+        input.append(",");
+        input.append(lowerBoundTurning);
+        input.append(",");
+        input.append(translateReachability(problemInstance, agentsLinOrdering, groupsOrdering));
         input.append(")");
         return input.toString();
     }
 
     /**
      * Translates groups used in ProblemInstance to sequence of corresponding Picat predicates.
+     * The translation is canonical: groups are ordered by their smallest initial vertex and vertices of each group are sorted,
+     * so the same configuration always gives the same term and the same ordering of agents (regardless of colors of groups).
      * @param problemInstance ProblemInstance to translate.
      * @param agentsLinOrdering Output argument, linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param groupsOrdering Output argument, groups in order of the translation.
      * @return Groups used in ProblemInstance to sequence of corresponding Picat predicates.
      */
-    private String translateGroups(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering){
+    private String translateGroups(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering, List<Group> groupsOrdering){
         StringBuilder groupsList = new StringBuilder();
         int firstAgentNumber = 1; //number of first agent in the group
         groupsList.append("[");
         String prefix = "";
-        for (Map.Entry<Group, Set<PositionMapNode>> initialsEntry : problemInstance.getInitialPositions().entrySet()) {
+        Comparator<PositionMapNode> byLinIdx = Comparator.comparingInt(node -> getVertexLinIdx(problemInstance, node));
+        List<Map.Entry<Group, Set<PositionMapNode>>> groups = new ArrayList<>(problemInstance.getInitialPositions().entrySet());
+        groups.sort(Comparator.comparing(entry -> Collections.min(entry.getValue(), byLinIdx), byLinIdx));
+        for (Map.Entry<Group, Set<PositionMapNode>> initialsEntry : groups) {
             var initials = new ArrayList<>(initialsEntry.getValue());
+            initials.sort(byLinIdx);
             agentsLinOrdering.addAll(initials);
-            var targets = problemInstance.getTargetPositions().get(initialsEntry.getKey());
+            groupsOrdering.add(initialsEntry.getKey());
+            var targets = new ArrayList<>(problemInstance.getTargetPositions().get(initialsEntry.getKey()));
+            targets.sort(byLinIdx);
             groupsList.append(prefix);
             prefix = ",";
-            groupsList.append("$group(");
+            groupsList.append("group(");
             groupsList.append(firstAgentNumber);
             groupsList.append(",");
             groupsList.append(translateNodeCollection(problemInstance,initials));
@@ -199,6 +1218,61 @@ public class PathFinder {
         return groupsList.toString();
     }
 
+    /**
+     * Translates distances used by models to exclude vertices that agents cannot occupy at given time.
+     * Term {@code reach(FromInitials,FromInitialsTurning,ToTargets)} contains lists indexed by agent (or group) and vertex:
+     * distance from initial vertex of the agent (also with turning), and distance to the nearest target of the group.
+     * Agent A can be at vertex V at time T of makespan M only if {@code FromInitials[A,V] <= T-1} and {@code ToTargets[G,V] <= M-T}.
+     * @param problemInstance Instance of problem.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @param groupsOrdering Groups in order of the translation.
+     * @return Picat term with the distances.
+     */
+    private String translateReachability(ProblemInstance problemInstance, List<PositionMapNode> agentsLinOrdering, List<Group> groupsOrdering){
+        GridDistances distances = new GridDistances(problemInstance.getWidth(), problemInstance.getHeight());
+        List<int[]> fromInitials = new ArrayList<>();
+        List<int[]> fromInitialsTurning = new ArrayList<>();
+        for (PositionMapNode initial : agentsLinOrdering) {
+            fromInitials.add(distances.from(initial, false));
+            fromInitialsTurning.add(distances.from(initial, true));
+        }
+        List<int[]> toTargets = new ArrayList<>();
+        for (Group group : groupsOrdering)
+            toTargets.add(distances.toNearest(problemInstance.getTargetPositions().get(group)));
+
+        StringBuilder reach = new StringBuilder();
+        reach.append("reach(");
+        appendDistanceRows(reach, fromInitials);
+        reach.append(",");
+        appendDistanceRows(reach, fromInitialsTurning);
+        reach.append(",");
+        appendDistanceRows(reach, toTargets);
+        reach.append(")");
+        return reach.toString();
+    }
+
+    /**
+     * Appends Picat list of lists of distances.
+     * @param term Term being built.
+     * @param rows Distances to vertices, one row per agent or group.
+     */
+    private void appendDistanceRows(StringBuilder term, List<int[]> rows){
+        term.append("[");
+        String prefix = "";
+        for (int[] row : rows) {
+            term.append(prefix);
+            prefix = ",";
+            term.append("[");
+            for (int v = 0; v < row.length; v++) {
+                if(v > 0)
+                    term.append(",");
+                term.append(row[v]);
+            }
+            term.append("]");
+        }
+        term.append("]");
+    }
+
     /**
      * Translates collection of map nodes (vertices) to corresponding Picat predicate.
      * @param problemInstance Instance of problem.
@@ -229,53 +1303,80 @@ public class PathFinder {
     }
 
     /**
-     * Parses plans from Picat output.
-     * @param picatOutput Output of solver, in Picat language.
-     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
-     * @return List of agents containing parsed plans.
+     * Sets listener of progress of the solver (makespan being tried).
+     * @param progressListener Listener called from the thread running {@link #findPaths(ProblemInstance)}, may be null.
      */
-    private List<AgentMapNode> parsePlans(String picatOutput, List<PositionMapNode> agentsLinOrdering){
-        List<AgentMapNode> agents = new ArrayList<>();
-        String[] plans = removeParentheses(picatOutput).split(",(?![^\\[\\]]*\\])"); //split on comma not inside brackets
-        for (int i = 0; i < agentsLinOrdering.size(); i++) {
-            var parsedPlan = parsePlan(plans[i]);
-            agents.add(new AgentMapNode(agentsLinOrdering.get(i), i, parsedPlan));
-        }
-        return agents;
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
     }
 
     /**
-     * Remove brackets ("[]") from both sides of given string.
-     * @param s String surrounded by brackets.
-     * @return String without the brackets.
+     * Sets listener of plans found by {@link #findPathsAnytime(ProblemInstance)}.
+     * @param solutionListener Listener called from the thread running the solving, may be null.
      */
-    private String removeParentheses(String s){
-        if(s.charAt(0) == '[' && s.charAt(s.length()-1) == ']')
-            return s.substring(1,s.length()-1);
-    else
-        throw new IllegalArgumentException(String.format("String %s does not start with [ or end with ].", s));
+    public void setSolutionListener(SolutionListener solutionListener) {
+        this.solutionListener = solutionListener;
     }
 
     /**
-     * Parse plan to list of {@link Action}s.
-     * @param plan Plan for one agent, list of actions in Picat language.
-     * @return List of {@link Action}s
+     * Sets cache of plans, instances found in the cache are not solved and solved instances are stored to it.
+     * @param solutionCache Cache of plans, may be shared by more PathFinders, null means no caching.
      */
-    private List<Action> parsePlan(String plan){
-        List<Action> parsedPlan = new ArrayList<>();
-
-        String[] picatActions = removeParentheses(plan).split(",");
-        for (String picatAction : picatActions) {
-            parsedPlan.add(actionFactory.createAction(picatAction));
-        }
-        return parsedPlan;
+    public void setSolutionCache(SolutionCache solutionCache) {
+        this.solutionCache = solutionCache;
     }
 
     /**
-     * Terminates solver (if running).
+     * Terminates solver (if running). Solving cannot continue after that, no more plans are passed to {@link SolutionListener}.
      */
     public void stop() {
+        stopped = true;
+        cancelSolvers();
+    }
+
+    /**
+     * Cancels running solvers, solving may continue (e.g. anytime solving returns the best plans found so far).
+     */
+    private void cancelSolvers() {
         if(isPicatRunning)
             picatProcess.destroy();
+        ParallelMakespanSearch search = currentSearch;
+        if(search != null)
+            search.cancel();
+        PortfolioRace race = currentRace;
+        if(race != null)
+            race.cancel();
+        GallopingMakespanSearch gallop = currentGallop;
+        if(gallop != null)
+            gallop.cancel();
+        EmbeddedSatPlanner planner = currentPlanner;
+        if(planner != null)
+            planner.cancel();
+        GroupOccupancySatPlanner groupPlanner = currentGroupPlanner;
+        if(groupPlanner != null)
+            groupPlanner.cancel();
+        RollingHorizonPlanner rollingPlanner = currentRollingPlanner;
+        if(rollingPlanner != null)
+            rollingPlanner.cancel();
+        HierarchicalPlanner hierarchicalPlanner = currentHierarchicalPlanner;
+        if(hierarchicalPlanner != null)
+            hierarchicalPlanner.cancel();
+        MaxFlowPlanner flowPlanner = currentFlowPlanner;
+        if(flowPlanner != null)
+            flowPlanner.cancel();
+        ConflictBasedSearch conflictSearch = currentConflictSearch;
+        if(conflictSearch != null)
+            conflictSearch.cancel();
+        PrioritizedPlanner fastPlanner = currentFastPlanner;
+        if(fastPlanner != null)
+            fastPlanner.cancel();
+        SubproblemDecomposition decomposition = currentDecomposition;
+        currentDecomposition = null;
+        if(decomposition != null)
+            decomposition.cancel();
+        for (PathFinder finder : subproblemFinders)
+            finder.stop();
+        for (PicatWorker worker : activeWorkers)
+            worker.cancel();
     }
 }
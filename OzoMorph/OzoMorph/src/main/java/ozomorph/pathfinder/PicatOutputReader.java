@@ -0,0 +1,109 @@
+package ozomorph.pathfinder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads output of Picat solver while it is running and reports its progress.
+ * Plans are passed to {@link PicatPlanParser} directly from the stream, without reading them into a String.
+ * Progress is reported when the solver starts trying new makespan and then every second until it finishes.
+ */
+class PicatOutputReader {
+    private static final Pattern makespanLine = Pattern.compile("trying makespan (\\d+)");
+    /**
+     * Reports time spent on current makespan while the solver prints nothing.
+     */
+    private static final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "picat-progress-ticker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private BufferedReader reader;
+    private ProgressListener listener;
+    private PicatPlanParser planParser;
+    private long startTime;
+    private volatile long makespanStartTime;
+    private volatile int makespan;
+    private boolean responseEndRead;
+
+    /**
+     * Creates new PicatOutputReader.
+     * @param reader Standard output of Picat process.
+     * @param listener Listener of progress, may be null.
+     * @param planParser Parser of lines containing plans (starting with {@code [}).
+     */
+    PicatOutputReader(BufferedReader reader, ProgressListener listener, PicatPlanParser planParser) {
+        this.reader = reader;
+        this.listener = listener;
+        this.planParser = planParser;
+    }
+
+    /**
+     * Reads output until end of stream or until {@link PicatWorker#RESPONSE_END} line.
+     * @return Output read (without the end line and without plans).
+     * @throws IOException IO error.
+     */
+    String read() throws IOException {
+        startTime = System.nanoTime();
+        ScheduledFuture<?> tick = null;
+        if (listener != null)
+            tick = ticker.scheduleAtFixedRate(this::reportProgress, 1, 1, TimeUnit.SECONDS);
+
+        StringBuilder out = new StringBuilder();
+        try {
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '[') {
+                    int plansCount = planParser.parse(reader);
+                    reader.readLine();
+                    out.append(String.format("<plans of %d agents>\n", plansCount));
+                    continue;
+                }
+                String rest = c == '\n' ? "" : reader.readLine();
+                String line = c == '\n' ? "" : (char) c + (rest == null ? "" : rest);
+                if (line.trim().equals(PicatWorker.RESPONSE_END)) {
+                    responseEndRead = true;
+                    break;
+                }
+                out.append(line);
+                out.append("\n");
+
+                Matcher matcher = makespanLine.matcher(line);
+                if (matcher.lookingAt()) {
+                    makespanStartTime = System.nanoTime();
+                    makespan = Integer.parseInt(matcher.group(1));
+                    reportProgress();
+                }
+            }
+        } finally {
+            if (tick != null)
+                tick.cancel(false);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Checks whether whole answer was read, i.e. output did not end before {@link PicatWorker#RESPONSE_END} line.
+     * @return Whether whole answer was read.
+     */
+    boolean isResponseEndRead() {
+        return responseEndRead;
+    }
+
+    /**
+     * Reports current makespan to the listener (if the solver already started trying some).
+     */
+    private void reportProgress() {
+        if (listener == null || makespan == 0)
+            return;
+        long now = System.nanoTime();
+        listener.progressChanged(new SolverProgress(makespan, (now - makespanStartTime) / 1e9, (now - startTime) / 1e9));
+    }
+}
@@ -0,0 +1,121 @@
+package ozomorph.pathfinder;
+
+import ozomorph.actions.Action;
+import ozomorph.actions.ActionFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass parser of plans outputted by the solver, i.e. Picat list of lists of actions ({@code [[goAhead,wait],[turnLeft]]}).
+ * Reads characters directly from output of the solver, each plan is passed to listener as soon as it is parsed.
+ */
+class PicatPlanParser {
+    private ActionFactory actionFactory;
+    private PlanListener listener;
+    /**
+     * Name of currently parsed action, reused for all actions.
+     */
+    private StringBuilder token = new StringBuilder();
+
+    /**
+     * Creates new PicatPlanParser.
+     * @param actionFactory Creates actions from their names.
+     * @param listener Receives parsed plans.
+     */
+    PicatPlanParser(ActionFactory actionFactory, PlanListener listener) {
+        this.actionFactory = actionFactory;
+        this.listener = listener;
+    }
+
+    /**
+     * Parses list of plans. The opening bracket must be already read from the reader.
+     * Reading stops right after the closing bracket.
+     * @param reader Output of the solver.
+     * @return Number of parsed plans.
+     * @throws IOException IO error.
+     * @throws IllegalArgumentException Output is not a list of lists of actions.
+     */
+    int parse(Reader reader) throws IOException {
+        int agentIndex = 0;
+        int c = nextNonSpace(reader);
+        if (c == ']')
+            return 0;
+
+        while (true) {
+            expect(c, '[');
+            listener.planParsed(agentIndex++, parsePlan(reader));
+
+            c = nextNonSpace(reader);
+            if (c == ']')
+                return agentIndex;
+            expect(c, ',');
+            c = nextNonSpace(reader);
+        }
+    }
+
+    /**
+     * Parses plan of one agent. The opening bracket must be already read from the reader.
+     * @param reader Output of the solver.
+     * @return Plan of the agent.
+     * @throws IOException IO error.
+     */
+    private List<Action> parsePlan(Reader reader) throws IOException {
+        List<Action> plan = new ArrayList<>();
+        int c = nextNonSpace(reader);
+        if (c == ']')
+            return plan;
+
+        while (true) {
+            token.setLength(0);
+            while (Character.isLetterOrDigit(c) || c == '_') {
+                token.append((char) c);
+                c = reader.read();
+            }
+            plan.add(actionFactory.createAction(token));
+
+            c = skipSpaces(reader, c);
+            if (c == ']')
+                return plan;
+            expect(c, ',');
+            c = nextNonSpace(reader);
+        }
+    }
+
+    /**
+     * Reads next character that is not a whitespace.
+     * @param reader Output of the solver.
+     * @return Next non-whitespace character, -1 at the end of stream.
+     * @throws IOException IO error.
+     */
+    private int nextNonSpace(Reader reader) throws IOException {
+        return skipSpaces(reader, reader.read());
+    }
+
+    /**
+     * Skips whitespaces starting with already read character.
+     * @param reader Output of the solver.
+     * @param c Already read character.
+     * @return First non-whitespace character, -1 at the end of stream.
+     * @throws IOException IO error.
+     */
+    private int skipSpaces(Reader reader, int c) throws IOException {
+        while (c == ' ' || c == '\t')
+            c = reader.read();
+        return c;
+    }
+
+    /**
+     * Checks that read character is the expected one.
+     * @param c Read character.
+     * @param expected Expected character.
+     */
+    private void expect(int c, char expected) {
+        if (c != expected)
+            throw new IllegalArgumentException(c == -1
+                    ? String.format("Plans ended unexpectedly, expected %c.", expected)
+                    : String.format("Unexpected character %c in plans, expected %c.", (char) c, expected));
+    }
+}
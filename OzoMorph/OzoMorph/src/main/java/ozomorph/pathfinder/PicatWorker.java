@@ -0,0 +1,162 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived Picat process with the solver already loaded.
+ * Problem instances are written to its standard input, plans are read from its standard output.
+ */
+class PicatWorker {
+    private static final Logger logger = LoggerFactory.getLogger(PicatWorker.class);
+    /**
+     * Line printed by the solver after each answer.
+     */
+    static final String RESPONSE_END = "response_end";
+    /**
+     * Recycles workers that are solving for too long.
+     */
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "picat-worker-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private int id;
+    private Process process;
+    private BufferedWriter input;
+    private BufferedReader output;
+    private volatile boolean cancelled, timedOut;
+    /**
+     * Whether reading of an answer failed before its end, rest of the answer would be read as answer to next instance.
+     */
+    private volatile boolean outputUnread;
+
+    /**
+     * Starts new worker.
+     * @param id ID of this worker (for logging).
+     * @param picatExecPath Path to executable of Picat runtime.
+     * @param picatMain Picat source file of the solver.
+     * @throws PicatNotFoundException Executable of Picat runtime not found.
+     * @throws IOException IO error.
+     */
+    PicatWorker(int id, String picatExecPath, String picatMain) throws IOException {
+        this.id = id;
+        ProcessBuilder builder = new ProcessBuilder(picatExecPath, picatMain);
+        builder.directory(new File("."));
+        logger.info("Starting picat worker " + id + " as: " + String.join(" ", builder.command()));
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            throw new PicatNotFoundException(e);
+        }
+        input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        drainErrorOutput();
+    }
+
+    /**
+     * Logs error output of Picat process, so that the process is never blocked on full pipe.
+     */
+    private void drainErrorOutput() {
+        Thread t = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    logger.warn("Picat worker " + id + " error output: " + line);
+            } catch (IOException e) {
+                //process terminated
+            }
+        }, "picat-worker-" + id + "-stderr");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Solves given problem instance.
+     * @param problemInstance Instance of problem, in Picat language.
+     * @param timeout Time (seconds) after which the worker is considered hung and is destroyed, 0 means no limit.
+     * @param listener Listener of progress of the solver, may be null.
+     * @param planParser Parser of plans outputted by the solver.
+     * @return Output of solver for given instance (without the plans, these are passed to the parser).
+     * @throws NoPlansFoundException Solving was cancelled or the worker hung.
+     * @throws PicatWorkerCrashedException Picat process terminated unexpectedly.
+     * @throws IOException IO error.
+     * @throws IllegalArgumentException Plans outputted by the solver are not valid, the worker is terminated.
+     */
+    String solve(String problemInstance, long timeout, ProgressListener listener, PicatPlanParser planParser) throws IOException, NoPlansFoundException {
+        ScheduledFuture<?> hangGuard = null;
+        if (timeout > 0)
+            hangGuard = watchdog.schedule(() -> {
+                logger.warn("Picat worker " + id + " has not answered in " + timeout + " s, recycling it.");
+                timedOut = true;
+                destroy();
+            }, timeout, TimeUnit.SECONDS);
+
+        PicatOutputReader reader = new PicatOutputReader(output, listener, planParser);
+        String out = "";
+        try {
+            input.write(problemInstance);
+            input.write(".\n");
+            input.flush();
+
+            out = reader.read();
+            if (reader.isResponseEndRead())
+                return out;
+        } catch (IOException e) {
+            if (!cancelled && !timedOut)
+                throw new PicatWorkerCrashedException(e);
+        } catch (RuntimeException e) {
+            //rest of the answer is still in the pipe, the worker cannot be used for next instance
+            outputUnread = true;
+            destroy();
+            throw e;
+        } finally {
+            if (hangGuard != null)
+                hangGuard.cancel(false);
+        }
+
+        logger.info("Picat worker " + id + " output before termination: \n" + out);
+        if (cancelled || timedOut)
+            throw new NoPlansFoundException();
+        throw new PicatWorkerCrashedException(null);
+    }
+
+    /**
+     * Checks whether Picat process is still running and can accept next instance.
+     * @return Whether the worker can be used.
+     */
+    boolean isAlive() {
+        return process.isAlive() && !cancelled && !timedOut && !outputUnread;
+    }
+
+    /**
+     * Cancels currently solved instance, the worker is terminated.
+     */
+    void cancel() {
+        cancelled = true;
+        destroy();
+    }
+
+    /**
+     * Terminates Picat process.
+     */
+    void destroy() {
+        process.destroyForcibly();
+    }
+
+    /**
+     * Gets ID of this worker.
+     * @return ID of this worker.
+     */
+    int getId() {
+        return id;
+    }
+}
@@ -0,0 +1,12 @@
+package ozomorph.pathfinder;
+
+import java.io.IOException;
+
+/**
+ * Exception indicating that Picat worker process terminated unexpectedly.
+ */
+public class PicatWorkerCrashedException extends IOException {
+    public PicatWorkerCrashedException(IOException e) {
+        super("Picat worker terminated unexpectedly.", e);
+    }
+}
@@ -0,0 +1,211 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of long-lived Picat workers, so that Picat runtime start and compilation of the solver are not paid on every solve.
+ * Crashed, cancelled and hung workers are replaced by new ones.
+ * All workers of a pool run the same {@link SolverVariant}, pools of other variants are obtained by {@link #forVariant(SolverVariant)}.
+ */
+public class PicatWorkerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PicatWorkerPool.class);
+
+    private final SolverSettings settings;
+    private final SolverVariant variant;
+    private final GetPathCallback getPicatExec;
+    private final Map<SolverVariant, PicatWorkerPool> variantPools = new HashMap<>();
+    private String picatMain;
+    private final BlockingQueue<PicatWorker> idleWorkers = new LinkedBlockingQueue<>();
+    private final List<PicatWorker> workers = new ArrayList<>();
+    private String picatExecPath = "picat";
+    private int nextWorkerId = 1;
+    private boolean closed;
+
+    /**
+     * Creates new pool, workers are started lazily.
+     * @param settings Settings of the solver (number of workers, timeout).
+     * @param getPicatExec Callback to get path to executable of Picat runtime. Used when not found in system PATH.
+     */
+    public PicatWorkerPool(SolverSettings settings, GetPathCallback getPicatExec) {
+        this(settings, SolverVariant.DEFAULT, getPicatExec);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Creates new pool of workers running given variant of the solver, workers are started lazily.
+     * @param settings Settings of the solver (number of workers, timeout).
+     * @param variant Model and backend run by the workers.
+     * @param getPicatExec Callback to get path to executable of Picat runtime. Used when not found in system PATH.
+     */
+    private PicatWorkerPool(SolverSettings settings, SolverVariant variant, GetPathCallback getPicatExec) {
+        this.settings = settings;
+        this.variant = variant;
+        this.getPicatExec = getPicatExec;
+    }
+
+    /**
+     * Gets pool of workers running given variant of the solver. The pool is closed together with this pool.
+     * @param variant Model and backend run by the workers.
+     * @return Pool of workers running the variant.
+     */
+    synchronized PicatWorkerPool forVariant(SolverVariant variant) {
+        if (variant.equals(this.variant))
+            return this;
+        PicatWorkerPool pool = variantPools.get(variant);
+        if (pool == null) {
+            pool = new PicatWorkerPool(settings, variant, getPicatExec);
+            pool.picatExecPath = picatExecPath;
+            variantPools.put(variant, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Gets model and backend run by workers of this pool.
+     * @return Variant of the solver.
+     */
+    SolverVariant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Starts all workers in background, so that they are ready when the first instance comes.
+     */
+    public void warmUp() {
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    PicatWorker worker = startWorkerIfPossible();
+                    if (worker == null)
+                        break;
+                    idleWorkers.add(worker);
+                }
+            } catch (IOException e) {
+                logger.warn("Warming up of Picat workers failed.", e);
+            }
+        }, "picat-worker-warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Gets idle worker, starts new one if there are less workers than configured, otherwise waits for one.
+     * @return Running worker reserved for the caller, must be returned by {@link #release(PicatWorker)}.
+     * @throws PicatNotFoundException Executable of Picat runtime not found.
+     * @throws IOException IO error.
+     * @throws InterruptedException Interrupted while waiting for a worker.
+     */
+    PicatWorker acquire() throws IOException, InterruptedException {
+        while (true) {
+            PicatWorker worker = idleWorkers.poll();
+            if (worker == null)
+                worker = startWorkerIfPossible();
+            if (worker == null)
+                worker = idleWorkers.take();
+
+            if (worker.isAlive())
+                return worker;
+            logger.warn("Picat worker " + worker.getId() + " is not running, replacing it.");
+            discard(worker);
+        }
+    }
+
+    /**
+     * Returns worker to the pool. Workers that are no longer running are replaced by new ones.
+     * @param worker Worker obtained from {@link #acquire()}.
+     */
+    void release(PicatWorker worker) {
+        if (worker.isAlive() && !isClosed()) {
+            idleWorkers.add(worker);
+            return;
+        }
+        discard(worker);
+        if (!isClosed())
+            warmUp();
+    }
+
+    /**
+     * Starts new worker if number of workers is lower than configured.
+     * @return New worker or null if there are already enough workers.
+     * @throws IOException IO error.
+     */
+    private PicatWorker startWorkerIfPossible() throws IOException {
+        int id;
+        String execPath;
+        String main;
+        synchronized (this) {
+            if (closed || workers.size() >= getCapacity())
+                return null;
+            if (picatMain == null)
+                picatMain = variant.prepareMainFile();
+            id = nextWorkerId++;
+            execPath = picatExecPath;
+            main = picatMain;
+        }
+
+        PicatWorker worker;
+        try {
+            worker = new PicatWorker(id, execPath, main);
+        } catch (PicatNotFoundException e) {
+            logger.warn("Cannot get picat executable from " + execPath + ", trying getting the path from user.");
+            execPath = getPicatExec.getPath();
+            worker = new PicatWorker(id, execPath, main);
+        }
+
+        synchronized (this) {
+            picatExecPath = execPath;
+            workers.add(worker);
+        }
+        return worker;
+    }
+
+    /**
+     * Gets maximal number of workers, there must be enough workers for all parallel makespan probes.
+     * @return Maximal number of workers.
+     */
+    private int getCapacity() {
+        return Math.max(settings.getWorkersCount(), settings.getParallelProbes());
+    }
+
+    /**
+     * Terminates worker and removes it from the pool.
+     * @param worker Worker to remove.
+     */
+    private synchronized void discard(PicatWorker worker) {
+        worker.destroy();
+        workers.remove(worker);
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Terminates all workers, including workers of pools of other variants.
+     */
+    @Override
+    public void close() {
+        List<PicatWorker> toDestroy;
+        List<PicatWorkerPool> toClose;
+        synchronized (this) {
+            closed = true;
+            toDestroy = new ArrayList<>(workers);
+            workers.clear();
+            toClose = new ArrayList<>(variantPools.values());
+        }
+        idleWorkers.clear();
+        for (PicatWorker worker : toDestroy)
+            worker.destroy();
+        for (PicatWorkerPool pool : toClose)
+            pool.close();
+    }
+}
@@ -0,0 +1,18 @@
+package ozomorph.pathfinder;
+
+import ozomorph.actions.Action;
+
+import java.util.List;
+
+/**
+ * Receives plans of agents as they are parsed from output of the solver.
+ */
+@FunctionalInterface
+public interface PlanListener {
+    /**
+     * Plan of an agent was parsed.
+     * @param agentIndex Index of the agent in linear ordering of agents (0-based).
+     * @param plan Plan of the agent.
+     */
+    void planParsed(int agentIndex, List<Action> plan);
+}
@@ -0,0 +1,140 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.AgentMapNode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Solves problem instance by several variants of the solver at the same time, the first answer wins and the others are cancelled.
+ * Every variant tries makespans from the smallest one, so the first answer is optimal.
+ */
+class PortfolioRace {
+    private static final Logger logger = LoggerFactory.getLogger(PortfolioRace.class);
+
+    /**
+     * Solves problem instance by one variant of the solver.
+     */
+    @FunctionalInterface
+    interface VariantSolver {
+        /**
+         * Solves the problem instance by given variant.
+         * @param variant Model and backend to use.
+         * @param onWorkerChanged Must be called with the worker solving the instance, and with null once the worker is returned to the pool.
+         * @return Agents with plans, null if the variant did not find plans.
+         * @throws Exception Error of the solver or cancellation.
+         */
+        AgentMapNode[] solve(SolverVariant variant, Consumer<PicatWorker> onWorkerChanged) throws Exception;
+    }
+
+    /**
+     * Result of one variant.
+     */
+    private static class VariantResult {
+        final SolverVariant variant;
+        final AgentMapNode[] agents;
+
+        VariantResult(SolverVariant variant, AgentMapNode[] agents) {
+            this.variant = variant;
+            this.agents = agents;
+        }
+    }
+
+    private List<SolverVariant> variants;
+    private VariantSolver solver;
+    private final Map<SolverVariant, PicatWorker> workers = new ConcurrentHashMap<>();
+    private volatile boolean finished;
+
+    /**
+     * Creates new PortfolioRace.
+     * @param variants Raced variants of the solver.
+     * @param solver Solves problem instance by one variant.
+     */
+    PortfolioRace(List<SolverVariant> variants, VariantSolver solver) {
+        this.variants = variants;
+        this.solver = solver;
+    }
+
+    /**
+     * Runs all variants and waits for the first one that finds plans.
+     * @return Agents with plans.
+     * @throws NoPlansFoundException No variant found plans or the race was cancelled.
+     * @throws InterruptedException Interrupted while waiting for variants.
+     */
+    AgentMapNode[] race() throws InterruptedException, NoPlansFoundException {
+        ExecutorService executor = Executors.newFixedThreadPool(variants.size(), r -> {
+            Thread t = new Thread(r, "portfolio-variant");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<VariantResult> completion = new ExecutorCompletionService<>(executor);
+        long startTime = System.nanoTime();
+
+        try {
+            for (SolverVariant variant : variants)
+                completion.submit(() -> new VariantResult(variant, solveVariant(variant)));
+
+            for (int i = 0; i < variants.size(); i++) {
+                VariantResult result;
+                try {
+                    result = completion.take().get();
+                } catch (ExecutionException e) {
+                    continue; //solveVariant does not throw
+                }
+                if (result.agents != null) {
+                    logger.info(String.format("Solver variant %s won the race in %.3f s.", result.variant, (System.nanoTime() - startTime) / 1e9));
+                    return result.agents;
+                }
+                if (finished)
+                    break;
+            }
+            throw new NoPlansFoundException();
+        } finally {
+            cancel();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Solves the instance by one variant, failures of a variant only make it lose the race.
+     * @param variant Model and backend to use.
+     * @return Agents with plans, null if the variant failed.
+     */
+    private AgentMapNode[] solveVariant(SolverVariant variant) {
+        try {
+            return solver.solve(variant, worker -> setWorker(variant, worker));
+        } catch (Exception e) {
+            if (!finished)
+                logger.warn("Solver variant " + variant + " failed.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Registers worker solving given variant, so that it can be cancelled.
+     * @param variant Variant solved by the worker.
+     * @param worker Worker solving the variant, null once it is returned to the pool.
+     */
+    private void setWorker(SolverVariant variant, PicatWorker worker) {
+        if (worker == null) {
+            workers.remove(variant);
+            return;
+        }
+        workers.put(variant, worker);
+        if (finished)
+            worker.cancel();
+    }
+
+    /**
+     * Cancels the race, all running variants are terminated.
+     */
+    void cancel() {
+        finished = true;
+        for (PicatWorker worker : workers.values())
+            worker.cancel();
+    }
+}
@@ -0,0 +1,163 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.AgentMapNode;
+import ozomorph.nodes.Group;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.*;
+
+/**
+ * Shrinks instance before it is passed to the solver.
+ * Static groups (the same initial and target positions, not in corridor of any other group) are removed, their agents just wait.
+ * Grid is cropped to the bounding box of positions of the remaining groups extended by a margin.
+ * Instance whose groups are all at their targets is solved trivially.
+ * Plans of the reduced instance need no change, only starting positions of agents are mapped back by the offset of the cropped grid.
+ */
+class Presolver {
+    private static final Logger logger = LoggerFactory.getLogger(Presolver.class);
+
+    private ProblemInstance problemInstance;
+    private Set<Group> staticGroups = new HashSet<>();
+    private boolean triviallySolved;
+    private ProblemInstance reducedInstance;
+    private int offsetX, offsetY;
+
+    /**
+     * Creates new Presolver and reduces given instance.
+     * @param problemInstance Instance of problem.
+     * @param margin Number of vertices added around the bounding box of positions of moving groups.
+     */
+    Presolver(ProblemInstance problemInstance, int margin) {
+        this.problemInstance = problemInstance;
+        Map<Group, Set<PositionMapNode>> initials = problemInstance.getInitialPositions();
+        Map<Group, Set<PositionMapNode>> targets = problemInstance.getTargetPositions();
+
+        Set<Group> moving = new HashSet<>();
+        for (Group group : initials.keySet())
+            if (!vertices(initials.get(group)).equals(vertices(targets.get(group))))
+                moving.add(group);
+        triviallySolved = moving.isEmpty();
+        if (triviallySolved) {
+            logger.info("All groups are at their targets.");
+            return;
+        }
+
+        GridDistances grid = new GridDistances(problemInstance.getWidth(), problemInstance.getHeight());
+        boolean[] touched = new boolean[problemInstance.getWidth() * problemInstance.getHeight()];
+        for (Group group : moving) {
+            boolean[] corridor = SubproblemDecomposition.corridor(grid, initials.get(group), targets.get(group));
+            for (int v = 0; v < touched.length; v++)
+                touched[v] |= corridor[v];
+        }
+        for (Group group : initials.keySet())
+            if (!moving.contains(group) && vertices(initials.get(group)).stream().noneMatch(v -> touched[v]))
+                staticGroups.add(group);
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = 0, maxY = 0;
+        for (Group group : initials.keySet()) {
+            if (staticGroups.contains(group))
+                continue;
+            for (Set<PositionMapNode> positions : List.of(initials.get(group), targets.get(group)))
+                for (PositionMapNode position : positions) {
+                    minX = Math.min(minX, position.getGridX());
+                    minY = Math.min(minY, position.getGridY());
+                    maxX = Math.max(maxX, position.getGridX());
+                    maxY = Math.max(maxY, position.getGridY());
+                }
+        }
+        offsetX = Math.max(0, minX - margin);
+        offsetY = Math.max(0, minY - margin);
+        int width = Math.min(problemInstance.getWidth() - 1, maxX + margin) - offsetX + 1;
+        int height = Math.min(problemInstance.getHeight() - 1, maxY + margin) - offsetY + 1;
+
+        Map<Group, Set<PositionMapNode>> reducedInitials = new HashMap<>();
+        Map<Group, Set<PositionMapNode>> reducedTargets = new HashMap<>();
+        for (Group group : initials.keySet()) {
+            if (staticGroups.contains(group))
+                continue;
+            reducedInitials.put(group, translate(initials.get(group), group));
+            reducedTargets.put(group, translate(targets.get(group), group));
+        }
+        reducedInstance = new ProblemInstance(width, height, reducedInitials, reducedTargets);
+        logger.info(String.format("Presolved: %d static groups removed, grid %dx%d cropped to %dx%d at (%d,%d).",
+                staticGroups.size(), problemInstance.getWidth(), problemInstance.getHeight(), width, height, offsetX, offsetY));
+    }
+
+    /**
+     * Gets whether all groups are at their targets, so that no agent needs to move.
+     * @return Whether the instance is solved trivially.
+     */
+    boolean isTriviallySolved() {
+        return triviallySolved;
+    }
+
+    /**
+     * Gets whether the reduced instance is smaller than the original one.
+     * @return Whether some group was removed or the grid was cropped.
+     */
+    boolean isReduced() {
+        return triviallySolved || !staticGroups.isEmpty()
+                || reducedInstance.getWidth() < problemInstance.getWidth() || reducedInstance.getHeight() < problemInstance.getHeight();
+    }
+
+    /**
+     * Gets instance without static groups on the cropped grid.
+     * @return Reduced instance, null if the instance is solved trivially.
+     */
+    ProblemInstance getReducedInstance() {
+        return reducedInstance;
+    }
+
+    /**
+     * Gets vertex of the original grid where agent of the reduced instance starts.
+     * @param agent Agent of the reduced instance.
+     * @return Index of the vertex in the original grid ({@code y*width + x}).
+     */
+    int originalStartVertex(AgentMapNode agent) {
+        return (agent.getStartY() + offsetY) * problemInstance.getWidth() + agent.getStartX() + offsetX;
+    }
+
+    /**
+     * Checks that plans of the reduced instance do not pass through positions of static groups.
+     * @param agents Agents of the reduced instance.
+     * @return Whether no agent visits a position of a static group.
+     */
+    boolean avoidsStaticGroups(List<AgentMapNode> agents) {
+        Set<Integer> occupied = new HashSet<>();
+        for (Group group : staticGroups)
+            occupied.addAll(vertices(problemInstance.getInitialPositions().get(group)));
+        if (occupied.isEmpty())
+            return true;
+        int width = reducedInstance.getWidth();
+        for (AgentMapNode agent : agents)
+            for (int v : SubproblemDecomposition.visitedVertices(agent, width))
+                if (occupied.contains((v / width + offsetY) * problemInstance.getWidth() + v % width + offsetX))
+                    return false;
+        return true;
+    }
+
+    /**
+     * Creates positions on the cropped grid.
+     */
+    private Set<PositionMapNode> translate(Set<PositionMapNode> positions, Group group) {
+        Set<PositionMapNode> translated = new HashSet<>();
+        for (PositionMapNode position : positions) {
+            PositionMapNode node = new PositionMapNode(position.getGridX() - offsetX, position.getGridY() - offsetY);
+            node.setGroup(group);
+            translated.add(node);
+        }
+        return translated;
+    }
+
+    /**
+     * Gets indices of vertices of positions in the original grid.
+     */
+    private Set<Integer> vertices(Set<PositionMapNode> positions) {
+        Set<Integer> vertices = new HashSet<>();
+        for (PositionMapNode position : positions)
+            vertices.add(position.getGridY() * problemInstance.getWidth() + position.getGridX());
+        return vertices;
+    }
+}
@@ -0,0 +1,484 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.*;
+
+/**
+ * Fast suboptimal planner: agents are planned one by one by space-time A* (agents turn, each action takes one step),
+ * avoiding vertices and edges used by agents planned before.
+ * Groups stay connected because every agent except the first one of its group stays next to an agent of its group planned before.
+ * For that, agents of a group are planned in BFS order of their initial positions and each one is assigned the nearest free target
+ * next to targets already assigned. Leading agents wait after every move or turn so that followers can keep up with them.
+ * Several settings (order of groups, waiting of leading agents, leading agent of each group) are tried until one gives plans.
+ * The planner is not complete, e.g. groups exchanging their places are usually not planned, so when all settings fail,
+ * the rest of the time limit is given to {@link EmbeddedSatPlanner}.
+ */
+class PrioritizedPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(PrioritizedPlanner.class);
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+    /**
+     * Maximal number of states expanded by search of one agent.
+     */
+    private static final int EXPANSIONS_LIMIT = 2_000_000;
+    /**
+     * Settings tried one by one: whether agents go around initial positions of agents not planned yet,
+     * steps waited by the first agent of a group and by other followed agents after every move or turn, whether groups are planned in reverse order.
+     */
+    private static final int[][] ATTEMPTS = {
+            {1, 1, 0, 0}, {0, 1, 0, 0}, {0, 3, 1, 0},
+            {1, 1, 0, 1}, {0, 1, 0, 1}, {0, 3, 1, 1}
+    };
+
+    private int width, height;
+    private GridDistances distances;
+    private List<List<PositionMapNode>> groupInitials;
+    private List<? extends Collection<PositionMapNode>> groupTargets;
+
+    /**
+     * Occupied vertices at each time, value is agent number + 1, 0 for free vertex.
+     */
+    private List<int[]> occupancy = new ArrayList<>();
+    /**
+     * Vertices occupied after the end of plans of planned agents (agents stay at their targets).
+     */
+    private int[] parked;
+    /**
+     * Initial positions of agents not planned yet. Other agents do not pass through them, they only can end there,
+     * the waiting agent then has to leave in time.
+     */
+    private int[] waiting;
+    /**
+     * States (vertex*4 + direction) of planned agents at each time, indexed by agent.
+     */
+    private int[][] paths;
+    private int[] groupOf;
+    private int makespan;
+    private boolean blockWaiting;
+    private int rootSlowdown, followSlowdown;
+    /**
+     * Rank (by distance to targets of the group) of initial position of the leading agent of each group.
+     */
+    private int rootRank;
+    private long deadline;
+    private volatile boolean cancelled;
+    private volatile EmbeddedSatPlanner currentPlanner;
+
+    /**
+     * Creates new PrioritizedPlanner.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group.
+     */
+    PrioritizedPlanner(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets) {
+        this.width = width;
+        this.height = height;
+        this.distances = new GridDistances(width, height);
+        this.groupInitials = groupInitials;
+        this.groupTargets = groupTargets;
+    }
+
+    /**
+     * Finds plans of all agents. Planning is tried with several settings (whether agents go around initial positions of agents not planned yet,
+     * how much followed agents slow down, order of groups), first with the agent nearest to the targets leading each group,
+     * then with the other agents leading, until it succeeds or time runs out.
+     * When no setting gives plans, {@link EmbeddedSatPlanner} solves the instance until the time limit.
+     * @param timeLimit Time limit in seconds.
+     * @return Names of actions of each agent (in Picat form), all plans have the same number of steps, null if the planner failed.
+     */
+    List<List<String>> solve(double timeLimit) {
+        long start = System.nanoTime();
+        deadline = start + (long) (timeLimit * 1e9);
+        int largestGroup = groupInitials.stream().mapToInt(List::size).max().orElse(0);
+        for (rootRank = 0; rootRank < largestGroup && !isOutOfTime(); rootRank++) {
+            for (int[] attempt : ATTEMPTS) {
+                blockWaiting = attempt[0] == 1;
+                rootSlowdown = attempt[1];
+                followSlowdown = attempt[2];
+                List<List<String>> plans = plan(attempt[3] == 1);
+                if (plans != null) {
+                    logger.info(String.format("Prioritized planner found plans of makespan %d in %.3f s.", makespan, (System.nanoTime() - start) / 1e9));
+                    return plans;
+                }
+                if (isOutOfTime())
+                    break;
+            }
+        }
+        List<List<String>> plans = solveEmbedded();
+        if (plans != null) {
+            logger.info(String.format("Prioritized planner failed, embedded solver found plans of makespan %d in %.3f s.", makespan, (System.nanoTime() - start) / 1e9));
+            return plans;
+        }
+        logger.info(String.format("Prioritized planner failed in %.3f s.", (System.nanoTime() - start) / 1e9));
+        return null;
+    }
+
+    /**
+     * Solves the instance by {@link EmbeddedSatPlanner}, which is cancelled at the deadline.
+     * The first makespan is given by the farthest agent from the nearest target of its group.
+     * @return Names of actions of each agent, null if no plans were found before the deadline.
+     */
+    private List<List<String>> solveEmbedded() {
+        long remaining = (deadline - System.nanoTime()) / 1_000_000;
+        if (remaining <= 0 || cancelled)
+            return null;
+        int lowerBound = 0;
+        for (int g = 0; g < groupInitials.size(); g++) {
+            List<Integer> targets = new ArrayList<>();
+            for (PositionMapNode target : groupTargets.get(g))
+                targets.add(distances.vertex(target));
+            for (PositionMapNode initial : groupInitials.get(g)) {
+                int[] fromInitial = distances.from(initial, true);
+                lowerBound = Math.max(lowerBound, targets.stream().mapToInt(v -> fromInitial[v]).min().orElse(0));
+            }
+        }
+
+        EmbeddedSatPlanner planner = new EmbeddedSatPlanner(width, height, groupInitials, groupTargets);
+        currentPlanner = planner;
+        if (cancelled)
+            planner.cancel();
+        Timer timer = new Timer("prioritized-planner-deadline", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                planner.cancel();
+            }
+        }, remaining);
+        try {
+            for (int m = Math.max(1, lowerBound) + 1; !planner.isCancelled(); m++) {
+                List<List<String>> plans = planner.solveMakespan(m);
+                if (plans != null) {
+                    makespan = m;
+                    return plans;
+                }
+            }
+            return null;
+        } finally {
+            timer.cancel();
+            currentPlanner = null;
+        }
+    }
+
+    /**
+     * Stops running {@link #solve(double)}, it returns null unless plans were already found.
+     */
+    void cancel() {
+        cancelled = true;
+        EmbeddedSatPlanner planner = currentPlanner;
+        if (planner != null)
+            planner.cancel();
+    }
+
+    /**
+     * Checks whether planning has to stop, because the time limit ran out or because it was cancelled.
+     */
+    private boolean isOutOfTime() {
+        return cancelled || System.nanoTime() > deadline;
+    }
+
+    /**
+     * Plans all agents with current settings.
+     * @param reverseGroups Whether groups are planned from the last one.
+     * @return Names of actions of each agent, null if an agent cannot be planned.
+     */
+    private List<List<String>> plan(boolean reverseGroups) {
+        int agentsCount = 0;
+        for (List<PositionMapNode> initials : groupInitials)
+            agentsCount += initials.size();
+        paths = new int[agentsCount][];
+        groupOf = new int[agentsCount];
+        parked = new int[width * height];
+        waiting = new int[width * height];
+        occupancy.clear();
+        occupancy.add(new int[width * height]);
+
+        int[] firstAgents = new int[groupInitials.size()];
+        int firstAgent = 0;
+        for (int g = 0; g < groupInitials.size(); g++) {
+            List<PositionMapNode> initials = groupInitials.get(g);
+            firstAgents[g] = firstAgent;
+            for (int i = 0; i < initials.size(); i++)
+                groupOf[firstAgent + i] = g;
+            //agents that are not planned yet are at their initial positions, agents planned before them may go around
+            for (int i = 0; i < initials.size(); i++) {
+                occupancy.get(0)[distances.vertex(initials.get(i))] = firstAgent + i + 1;
+                waiting[distances.vertex(initials.get(i))] = firstAgent + i + 1;
+            }
+            firstAgent += initials.size();
+        }
+
+        for (int i = 0; i < groupInitials.size(); i++) {
+            int g = reverseGroups ? groupInitials.size() - 1 - i : i;
+            List<PositionMapNode> initials = groupInitials.get(g);
+            int[] toTargets = distances.toNearest(groupTargets.get(g));
+            int[] initialVertices = initials.stream().mapToInt(distances::vertex).toArray();
+            //the agent nearest to the targets leads by default, the other agents lead in later attempts
+            Integer[] byDistance = new Integer[initialVertices.length];
+            for (int j = 0; j < byDistance.length; j++)
+                byDistance[j] = j;
+            Arrays.sort(byDistance, Comparator.comparingInt(j -> toTargets[initialVertices[j]]));
+            int root = byDistance[rootRank % byDistance.length];
+            int[] order = bfsOrder(initialVertices, root);
+            int[] targets = assignTargets(initials, order, new ArrayList<>(groupTargets.get(g)));
+            for (int k = 0; k < order.length; k++) {
+                int agent = firstAgents[g] + order[k];
+                //the last agent of a group is not followed, so it does not slow down
+                int slowdown = k == order.length - 1 ? 0 : k == 0 ? rootSlowdown : followSlowdown;
+                int[] path = findPath(agent, distances.vertex(initials.get(order[k])), targets[k], k == 0, slowdown);
+                if (path == null)
+                    return null;
+                reserve(agent, path);
+            }
+        }
+
+        makespan = occupancy.size();
+        List<List<String>> plans = new ArrayList<>();
+        for (int[] path : paths) {
+            List<String> plan = new ArrayList<>();
+            for (int t = 1; t < makespan; t++)
+                EmbeddedSatPlanner.appendActions(plan, stateAt(path, t - 1), stateAt(path, t));
+            plans.add(plan);
+        }
+        return plans;
+    }
+
+    /**
+     * Gets makespan (number of configurations) of the plans found by {@link #solve(double)}.
+     * @return Makespan of the plans.
+     */
+    int getMakespan() {
+        return makespan;
+    }
+
+    /**
+     * Orders vertices so that each vertex (except the first one) is next to some vertex before it, if they are connected.
+     * @param vertices Vertices to order.
+     * @param first Index of the first vertex.
+     * @return Indices of the vertices in BFS order, vertices not connected to the first one are at the end.
+     */
+    private int[] bfsOrder(int[] vertices, int first) {
+        int[] order = new int[vertices.length];
+        boolean[] added = new boolean[vertices.length];
+        int size = 0;
+        for (int i = 0; i < vertices.length; i++) {
+            int root = (first + i) % vertices.length;
+            if (added[root])
+                continue;
+            added[root] = true;
+            order[size++] = root;
+            for (int head = size - 1; head < size; head++) {
+                for (int j = 0; j < vertices.length; j++) {
+                    if (!added[j] && adjacent(vertices[order[head]], vertices[j])) {
+                        added[j] = true;
+                        order[size++] = j;
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Assigns targets to agents of a group in their planning order.
+     * The first agent (the nearest one to the targets) leads the group to the target farthest from the group,
+     * each other agent gets the nearest free target next to targets already assigned, so that final positions of agents planned so far are connected.
+     * @param initials Initial positions of agents of the group.
+     * @param order Planning order of the agents.
+     * @param targets Target positions of the group.
+     * @return Target vertex of each agent, in planning order.
+     */
+    private int[] assignTargets(List<PositionMapNode> initials, int[] order, List<PositionMapNode> targets) {
+        int[] assigned = new int[order.length];
+        boolean[] used = new boolean[targets.size()];
+        int[] fromGroup = distances.toNearest(initials);
+        for (int k = 0; k < order.length; k++) {
+            int[] fromInitial = distances.from(initials.get(order[k]), true);
+            int best = -1;
+            boolean bestAdjacent = false;
+            for (int j = 0; j < targets.size(); j++) {
+                if (used[j])
+                    continue;
+                int target = distances.vertex(targets.get(j));
+                boolean isAdjacent = k == 0;
+                for (int i = 0; i < k && !isAdjacent; i++)
+                    isAdjacent = adjacent(assigned[i], target);
+                int bestTarget = best == -1 ? -1 : distances.vertex(targets.get(best));
+                boolean better = k == 0
+                        ? best == -1 || fromGroup[target] > fromGroup[bestTarget] || (fromGroup[target] == fromGroup[bestTarget] && fromInitial[target] < fromInitial[bestTarget])
+                        : best == -1 || (isAdjacent && !bestAdjacent) || (isAdjacent == bestAdjacent && fromInitial[target] < fromInitial[bestTarget]);
+                if (better) {
+                    best = j;
+                    bestAdjacent = isAdjacent;
+                }
+            }
+            used[best] = true;
+            assigned[k] = distances.vertex(targets.get(best));
+        }
+        return assigned;
+    }
+
+    /**
+     * Finds path of an agent by space-time A*.
+     * Agents followed by other agents of their group wait after every move or turn, so that the followers can turn and keep up.
+     * @param agent Number of the agent.
+     * @param start Initial vertex, the agent faces up.
+     * @param target Target vertex.
+     * @param isRoot Whether the agent is the first planned agent of its group (it does not have to stay next to another agent).
+     * @param slowdown Number of steps the agent waits after every move or turn (at most 3).
+     * @return States of the agent at each time until it stays at the target, null if no path was found.
+     */
+    private int[] findPath(int agent, int start, int target, boolean isRoot, int slowdown) {
+        int[] toTarget = distances.toNearest(List.of(new PositionMapNode(target % width, target / width)));
+        int horizon = occupancy.size() + 4 * (slowdown + 1) * (width + height) + 16;
+        Map<Long, Long> parents = new HashMap<>(); //key (time, state, steps to wait) -> key of parent
+        PriorityQueue<long[]> open = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+        parents.put(key(0, start * 4, 0), -1L);
+        open.add(new long[]{toTarget[start], 0, start * 4, 0});
+
+        int expansions = 0;
+        while (!open.isEmpty() && expansions++ < EXPANSIONS_LIMIT) {
+            if (expansions % 4096 == 0 && isOutOfTime())
+                return null;
+            long[] node = open.poll();
+            int t = (int) node[1], state = (int) node[2], toWait = (int) node[3];
+            int v = state / 4, d = state % 4;
+            if (v == target && canStay(agent, target, t, isRoot))
+                return reconstruct(parents, key(t, state, toWait), t);
+            if (t + 1 > horizon)
+                continue;
+
+            for (int next : successors(v, d)) {
+                if (toWait > 0 && next != state)
+                    continue;
+                int nv = next / 4;
+                int nextToWait = next != state ? slowdown : Math.max(0, toWait - 1);
+                long nextKey = key(t + 1, next, nextToWait);
+                if (parents.containsKey(nextKey) || !canEnter(agent, v, nv, t, target, isRoot))
+                    continue;
+                parents.put(nextKey, key(t, state, toWait));
+                open.add(new long[]{t + 1 + (long) (slowdown + 1) * toTarget[nv], t + 1, next, nextToWait});
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets states reachable in one step: go ahead, wait, or turn (also by 180 degrees).
+     */
+    private List<Integer> successors(int v, int d) {
+        List<Integer> next = new ArrayList<>();
+        for (int nd = 0; nd < 4; nd++)
+            next.add(v * 4 + nd);
+        int nv = neighbour(v, d);
+        if (nv >= 0)
+            next.add(nv * 4 + d);
+        return next;
+    }
+
+    /**
+     * Checks whether agent can move from vertex V to NV between times T and T+1: NV is free, no agent moves the opposite way,
+     * and the agent stays next to an agent of its group planned before (unless it is the first one).
+     */
+    private boolean canEnter(int agent, int v, int nv, int t, int target, boolean isRoot) {
+        int occupant = occupantAt(t + 1, nv);
+        if (occupant != 0 && occupant != agent + 1)
+            return false;
+        if (blockWaiting && nv != target && waiting[nv] != 0 && waiting[nv] != agent + 1)
+            return false;
+        if (nv != v) {
+            int other = occupantAt(t, nv);
+            if (other != 0 && other != agent + 1 && occupantAt(t + 1, v) == other)
+                return false;
+        }
+        return isRoot || nextToGroup(agent, nv, t + 1);
+    }
+
+    /**
+     * Checks whether agent can stay at its target from time T on.
+     */
+    private boolean canStay(int agent, int target, int t, boolean isRoot) {
+        for (int time = t; time <= Math.max(t, occupancy.size()); time++) {
+            int occupant = occupantAt(time, target);
+            if (occupant != 0 && occupant != agent + 1)
+                return false;
+            if (!isRoot && !nextToGroup(agent, target, time))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether vertex is next to an agent of the same group planned before at time T.
+     */
+    private boolean nextToGroup(int agent, int v, int t) {
+        for (int d = 0; d < 4; d++) {
+            int u = neighbour(v, d);
+            if (u < 0)
+                continue;
+            int occupant = occupantAt(t, u);
+            if (occupant != 0 && paths[occupant - 1] != null && groupOf[occupant - 1] == groupOf[agent])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets agent (number + 1) occupying vertex at time T, 0 if it is free.
+     * Agents not planned yet occupy only their initial positions at time 0.
+     */
+    private int occupantAt(int t, int v) {
+        return t < occupancy.size() ? occupancy.get(t)[v] : parked[v];
+    }
+
+    /**
+     * Stores path of planned agent, so that agents planned later avoid it.
+     */
+    private void reserve(int agent, int[] path) {
+        paths[agent] = path;
+        waiting[path[0] / 4] = 0;
+        while (occupancy.size() < path.length)
+            occupancy.add(parked.clone());
+        for (int t = 1; t < occupancy.size(); t++)
+            occupancy.get(t)[stateAt(path, t) / 4] = agent + 1;
+        parked[path[path.length - 1] / 4] = agent + 1;
+    }
+
+    /**
+     * Gets state of agent at time T, agents stay in their last state after their path ends.
+     */
+    private int stateAt(int[] path, int t) {
+        return path[Math.min(t, path.length - 1)];
+    }
+
+    private int[] reconstruct(Map<Long, Long> parents, long goal, int t) {
+        int[] path = new int[t + 1];
+        for (long key = goal; key != -1; key = parents.get(key))
+            path[(int) (key >>> 34)] = (int) (key >>> 2) & Integer.MAX_VALUE;
+        return path;
+    }
+
+    private long key(int t, int state, int toWait) {
+        return ((long) t << 34) | ((long) state << 2) | toWait;
+    }
+
+    private boolean adjacent(int v, int u) {
+        for (int d = 0; d < 4; d++)
+            if (neighbour(v, d) == u)
+                return true;
+        return false;
+    }
+
+    /**
+     * Gets neighbour of vertex in direction, -1 if it is outside of the grid.
+     */
+    private int neighbour(int v, int d) {
+        int x = v % width + directions[d][0], y = v / width + directions[d][1];
+        return x >= 0 && y >= 0 && x < width && y < height ? y * width + x : -1;
+    }
+}
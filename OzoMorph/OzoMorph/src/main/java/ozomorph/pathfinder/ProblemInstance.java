@@ -78,6 +78,25 @@ public class ProblemInstance implements Serializable {
         return height;
     }
 
+    /**
+     * Creates copy of this instance that does not change when configurations of this instance are edited.
+     * @return Copy of this instance, positions are shared.
+     */
+    public ProblemInstance copy() {
+        return new ProblemInstance(width, height, copyPositions(initialPositions), copyPositions(targetPositions));
+    }
+
+    /**
+     * Copies configuration of agents.
+     * @param positions Configuration to copy.
+     * @return Copy of the configuration.
+     */
+    private Map<Group, Set<PositionMapNode>> copyPositions(Map<Group, Set<PositionMapNode>> positions){
+        Map<Group, Set<PositionMapNode>> copy = new HashMap<>();
+        positions.forEach((group, nodes) -> copy.put(group, new HashSet<>(nodes)));
+        return copy;
+    }
+
     /**
      * Validate this problem instance.
      * @throws NotEnoughInitialsException Number of agents in a group is different in initial and target configuration.
@@ -0,0 +1,9 @@
+package ozomorph.pathfinder;
+
+/**
+ * Receives progress of the solver. Called from the thread reading output of the solver.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    void progressChanged(SolverProgress progress);
+}
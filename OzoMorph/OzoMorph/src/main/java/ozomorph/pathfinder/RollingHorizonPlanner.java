@@ -0,0 +1,240 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Plans in windows of few steps, so that size of the model is bounded by length of the window instead of the makespan.
+ * Each window is solved by new {@link EmbeddedSatPlanner} from the current configuration (agents keep their directions).
+ * The window finishes the instance if it can, otherwise groups are brought closer to their targets:
+ * the farthest agent of every unfinished group gets closer by D steps (D = half of the window, halved down to 1),
+ * or at least one group gets closer by a step while no group gets farther.
+ * First steps of the window are committed if they already got closer to the targets, otherwise the whole window is committed,
+ * so every window decreases sum of distances of the farthest agents of groups and planning terminates.
+ * If no window gives progress, the window is doubled; when it exceeds {@link #MAX_WINDOW_FACTOR} times the initial length,
+ * the rest of the instance is solved without windows. Plans are not optimal.
+ */
+class RollingHorizonPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(RollingHorizonPlanner.class);
+    /**
+     * How many times the window can grow before the rest is solved without windows.
+     */
+    private static final int MAX_WINDOW_FACTOR = 4;
+
+    private int width, height;
+    private List<? extends Collection<PositionMapNode>> groupTargets;
+    private int[] groupSizes;
+    private int windowLength, commitLength;
+    /**
+     * Current state (vertex*4 + direction) of each agent.
+     */
+    private int[] states;
+    private int[][] toTargets;
+    private List<List<String>> plans = new ArrayList<>();
+    private int committedSteps;
+    private volatile EmbeddedSatPlanner currentPlanner;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates new RollingHorizonPlanner.
+     * @param width Width of grid map.
+     * @param height Height of grid map.
+     * @param groupInitials Initial positions of agents of each group, agents are numbered in this order.
+     * @param groupTargets Target positions of each group.
+     * @param windowLength Number of steps planned in each window.
+     * @param commitLength Number of steps of each window that are committed (if they bring groups closer to targets), at most the window length.
+     */
+    RollingHorizonPlanner(int width, int height, List<List<PositionMapNode>> groupInitials, List<? extends Collection<PositionMapNode>> groupTargets,
+                          int windowLength, int commitLength) {
+        this.width = width;
+        this.height = height;
+        this.groupTargets = groupTargets;
+        this.windowLength = windowLength;
+        this.commitLength = Math.min(commitLength, windowLength);
+        GridDistances distances = new GridDistances(width, height);
+        groupSizes = new int[groupInitials.size()];
+        toTargets = new int[groupInitials.size()][];
+        List<Integer> initialStates = new ArrayList<>();
+        for (int g = 0; g < groupInitials.size(); g++) {
+            groupSizes[g] = groupInitials.get(g).size();
+            toTargets[g] = distances.toNearest(groupTargets.get(g));
+            for (PositionMapNode initial : groupInitials.get(g)) {
+                initialStates.add(distances.vertex(initial) * 4); //agents start facing up
+                plans.add(new ArrayList<>());
+            }
+        }
+        states = initialStates.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Plans window by window until all groups are at their targets.
+     * @param progressListener Listener of progress (committed steps and the window being tried), may be null.
+     * @return Names of actions of each agent (in Picat form), null if cancelled.
+     */
+    List<List<String>> solve(ProgressListener progressListener) {
+        long start = System.nanoTime();
+        int window = windowLength;
+        while (true) {
+            int[] farthest = farthestDistances(states);
+            if (sum(farthest) == 0)
+                return plans;
+            if (progressListener != null)
+                progressListener.progressChanged(new SolverProgress(committedSteps + window + 1, 0, (System.nanoTime() - start) / 1e9));
+            if (window > MAX_WINDOW_FACTOR * windowLength) {
+                logger.info("No progress in windows, solving the rest without windows.");
+                return solveRest() ? plans : null;
+            }
+
+            EmbeddedSatPlanner planner = createPlanner();
+            int[][] windowStates = solveWindow(planner, window, farthest);
+            if (cancelled)
+                return null;
+            if (windowStates == null) {
+                window *= 2;
+                logger.info("No progress in window, trying window of " + window + " steps.");
+                continue;
+            }
+
+            int commit = Math.min(commitLength, windowStates.length - 1);
+            if (sum(farthestDistances(windowStates[commit])) >= sum(farthest))
+                commit = windowStates.length - 1;
+            commit(windowStates, commit);
+            window = windowLength;
+        }
+    }
+
+    /**
+     * Stops running {@link #solve(ProgressListener)}.
+     */
+    void cancel() {
+        cancelled = true;
+        EmbeddedSatPlanner planner = currentPlanner;
+        if (planner != null)
+            planner.cancel();
+    }
+
+    /**
+     * Gets number of committed steps.
+     * @return Makespan of the plans (number of steps).
+     */
+    int getCommittedSteps() {
+        return committedSteps;
+    }
+
+    /**
+     * Solves one window: the shortest finishing plans, or plans bringing all unfinished groups closer, or at least one of them.
+     * @return States of agents at each time of the window, null if no progress is possible in the window or if cancelled.
+     */
+    private int[][] solveWindow(EmbeddedSatPlanner planner, int window, int[] farthest) {
+        int groups = farthest.length;
+        for (int makespan = Math.max(2, max(farthest) + 1); makespan <= window + 1; makespan++) {
+            int[][] finished = planner.solveWindow(makespan, new int[groups], null);
+            if (finished != null || cancelled)
+                return finished;
+        }
+        for (int progress = Math.max(1, window / 2); progress >= 1; progress /= 2) {
+            int[] bound = new int[groups];
+            for (int g = 0; g < groups; g++)
+                bound[g] = Math.max(0, farthest[g] - progress);
+            int[][] allCloser = planner.solveWindow(window + 1, bound, null);
+            if (allCloser != null || cancelled)
+                return allCloser;
+        }
+        int[] oneCloser = new int[groups];
+        for (int g = 0; g < groups; g++)
+            oneCloser[g] = Math.max(0, farthest[g] - 1);
+        return planner.solveWindow(window + 1, farthest, oneCloser);
+    }
+
+    /**
+     * Solves the rest of the instance from the current configuration without windows.
+     * @return Whether plans were found (false if cancelled).
+     */
+    private boolean solveRest() {
+        EmbeddedSatPlanner planner = createPlanner();
+        int makespan = Math.max(2, max(farthestDistances(states)) + 1);
+        while (!cancelled) {
+            int[][] restStates = planner.solveWindow(makespan, new int[groupSizes.length], null);
+            if (restStates != null) {
+                commit(restStates, restStates.length - 1);
+                return true;
+            }
+            makespan++;
+        }
+        return false;
+    }
+
+    /**
+     * Creates planner starting from the current configuration.
+     */
+    private EmbeddedSatPlanner createPlanner() {
+        List<List<PositionMapNode>> groupInitials = new ArrayList<>();
+        int[] directions = new int[states.length];
+        int agent = 0;
+        for (int size : groupSizes) {
+            List<PositionMapNode> initials = new ArrayList<>();
+            for (int i = 0; i < size; i++, agent++) {
+                int v = states[agent] / 4;
+                initials.add(new PositionMapNode(v % width, v / width));
+                directions[agent] = states[agent] % 4;
+            }
+            groupInitials.add(initials);
+        }
+        EmbeddedSatPlanner planner = new EmbeddedSatPlanner(width, height, groupInitials, groupTargets, directions);
+        currentPlanner = planner;
+        if (cancelled)
+            planner.cancel();
+        return planner;
+    }
+
+    /**
+     * Appends first steps of a window to plans and moves agents to their states after them.
+     */
+    private void commit(int[][] windowStates, int steps) {
+        for (int t = 1; t <= steps; t++)
+            for (int a = 0; a < states.length; a++)
+                EmbeddedSatPlanner.appendActions(plans.get(a), windowStates[t - 1][a], windowStates[t][a]);
+        states = windowStates[steps];
+        committedSteps += steps;
+        logger.info(String.format("Committed %d steps (%d in total), distances of groups to targets: %s.",
+                steps, committedSteps, Arrays.toString(farthestDistances(states))));
+    }
+
+    /**
+     * Computes distance of the farthest agent of each group to the nearest target of the group.
+     */
+    private int[] farthestDistances(int[] agentStates) {
+        int[] farthest = new int[groupSizes.length];
+        int agent = 0;
+        for (int g = 0; g < groupSizes.length; g++)
+            for (int i = 0; i < groupSizes[g]; i++, agent++)
+                farthest[g] = Math.max(farthest[g], toTargets[g][agentStates[agent] / 4]);
+        return farthest;
+    }
+
+    /**
+     * Sums values.
+     */
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values)
+            sum += value;
+        return sum;
+    }
+
+    /**
+     * Finds the largest value, 0 for no values.
+     */
+    private static int max(int[] values) {
+        int max = 0;
+        for (int value : values)
+            max = Math.max(max, value);
+        return max;
+    }
+}
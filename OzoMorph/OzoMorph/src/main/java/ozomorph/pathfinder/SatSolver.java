@@ -0,0 +1,572 @@
+package ozomorph.pathfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Small CDCL SAT solver (two watched literals, first UIP learning, VSIDS, phase saving, Luby restarts).
+ * Supports incremental solving: clauses can be added between calls of {@link #solve(int...)},
+ * which solves under assumptions, so activation literals can switch groups of clauses on and off while learned clauses are kept.
+ * Literals are given in DIMACS form, i.e. {@code v} or {@code -v} for variable {@code v >= 1}.
+ */
+class SatSolver {
+    private static final int UNDEF = 0, TRUE = 1, FALSE = -1;
+    private static final double VAR_DECAY = 0.95;
+    private static final int RESTART_BASE = 100;
+
+    private int varsCount;
+    /**
+     * Value of variable (internal index from 0).
+     */
+    private byte[] assigns = new byte[16];
+    private int[] level = new int[16];
+    /**
+     * Index of clause that implied the variable, -1 for decisions and top-level facts.
+     */
+    private int[] reason = new int[16];
+    private boolean[] phase = new boolean[16];
+    private boolean[] seen = new boolean[16];
+    private double[] activity = new double[16];
+    private double varInc = 1;
+    private VarHeap heap = new VarHeap();
+
+    private List<int[]> clauses = new ArrayList<>();
+    private List<Boolean> learnt = new ArrayList<>();
+    private int learntsCount;
+    /**
+     * Indices of clauses watching the literal (literal is one of the first two literals of the clause).
+     */
+    private IntList[] watches = new IntList[32];
+
+    private int[] trail = new int[16];
+    private int trailSize;
+    private IntList trailLim = new IntList();
+    private int qhead;
+    private boolean ok = true;
+    private volatile boolean interrupted;
+    private long conflicts;
+    /**
+     * Values of variables in the last found model.
+     */
+    private boolean[] modelValues;
+
+    /**
+     * Creates new variable.
+     * @return Number of the variable (DIMACS).
+     */
+    int newVar() {
+        int v = varsCount++;
+        if (v >= assigns.length) {
+            int size = assigns.length * 2;
+            assigns = Arrays.copyOf(assigns, size);
+            level = Arrays.copyOf(level, size);
+            reason = Arrays.copyOf(reason, size);
+            phase = Arrays.copyOf(phase, size);
+            seen = Arrays.copyOf(seen, size);
+            activity = Arrays.copyOf(activity, size);
+            trail = Arrays.copyOf(trail, size);
+            watches = Arrays.copyOf(watches, size * 2);
+        }
+        watches[2 * v] = new IntList();
+        watches[2 * v + 1] = new IntList();
+        reason[v] = -1;
+        heap.insert(v);
+        return v + 1;
+    }
+
+    /**
+     * Sets value tried first when the solver decides variable, e.g. value from a previous solution (phase saving then overwrites it).
+     * @param var Variable (DIMACS).
+     * @param value Value tried first.
+     */
+    void setPhase(int var, boolean value) {
+        phase[var - 1] = value;
+    }
+
+    /**
+     * Adds clause, must not be called while solving.
+     * @param dimacsLiterals Literals of the clause.
+     */
+    void addClause(int... dimacsLiterals) {
+        if (!ok)
+            return;
+        int[] literals = new int[dimacsLiterals.length];
+        int size = 0;
+        for (int dimacs : dimacsLiterals) {
+            int literal = toLiteral(dimacs);
+            int value = literalValue(literal);
+            if (value == TRUE)
+                return; //satisfied at top level
+            if (value == FALSE)
+                continue;
+            boolean duplicate = false;
+            for (int i = 0; i < size; i++) {
+                if (literals[i] == literal)
+                    duplicate = true;
+                else if (literals[i] == (literal ^ 1))
+                    return; //tautology
+            }
+            if (!duplicate)
+                literals[size++] = literal;
+        }
+
+        if (size == 0) {
+            ok = false;
+        } else if (size == 1) {
+            enqueue(literals[0], -1);
+            ok = propagate() == -1;
+        } else {
+            attach(Arrays.copyOf(literals, size), false);
+        }
+    }
+
+    /**
+     * Solves the formula under given assumptions.
+     * @param assumptions Literals that must be true in this call only.
+     * @return True if satisfiable, false if unsatisfiable under the assumptions, null if interrupted (also before this call).
+     */
+    Boolean solve(int... assumptions) {
+        if (interrupted)
+            return null;
+        if (!ok)
+            return false;
+        int[] assumed = new int[assumptions.length];
+        for (int i = 0; i < assumptions.length; i++)
+            assumed[i] = toLiteral(assumptions[i]);
+
+        try {
+            for (int restart = 0; ; restart++) {
+                int result = search(RESTART_BASE * luby(restart), assumed);
+                if (result != UNDEF)
+                    return result == TRUE;
+                if (interrupted)
+                    return null;
+                reduceLearnts();
+            }
+        } finally {
+            if (ok)
+                cancelUntil(0);
+        }
+    }
+
+    /**
+     * Gets value of variable in the model found by the last successful {@link #solve(int...)}.
+     * @param var Number of the variable (DIMACS).
+     * @return Value of the variable.
+     */
+    boolean value(int var) {
+        return modelValues != null && var - 1 < modelValues.length && modelValues[var - 1];
+    }
+
+    /**
+     * Stops running {@link #solve(int...)}, it returns null. All later calls return null too,
+     * so an interrupt arriving just before a call is not lost.
+     */
+    void interrupt() {
+        interrupted = true;
+    }
+
+    /**
+     * Gets number of conflicts found so far.
+     * @return Number of conflicts.
+     */
+    long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * CDCL search until a result or given number of conflicts.
+     * @param conflictsLimit Number of conflicts before restart.
+     * @param assumptions Assumed literals.
+     * @return TRUE, FALSE or UNDEF (restart or interrupted).
+     */
+    private int search(long conflictsLimit, int[] assumptions) {
+        long conflictsHere = 0;
+        while (true) {
+            int conflict = propagate();
+            if (conflict != -1) {
+                conflicts++;
+                conflictsHere++;
+                if (decisionLevel() == 0) {
+                    ok = false;
+                    return FALSE;
+                }
+                IntList learntClause = new IntList();
+                int backtrackLevel = analyze(conflict, learntClause);
+                cancelUntil(backtrackLevel);
+                if (learntClause.size() == 1) {
+                    enqueue(learntClause.get(0), -1);
+                } else {
+                    int index = attach(learntClause.toArray(), true);
+                    enqueue(learntClause.get(0), index);
+                }
+                varInc /= VAR_DECAY;
+                continue;
+            }
+
+            if (interrupted || conflictsHere >= conflictsLimit) {
+                cancelUntil(0);
+                return UNDEF;
+            }
+
+            int next = -1;
+            while (decisionLevel() < assumptions.length) {
+                int assumption = assumptions[decisionLevel()];
+                if (literalValue(assumption) == TRUE) {
+                    trailLim.add(trailSize); //dummy level
+                } else if (literalValue(assumption) == FALSE) {
+                    return FALSE;
+                } else {
+                    next = assumption;
+                    break;
+                }
+            }
+            if (next == -1) {
+                int var = pickBranchVar();
+                if (var == -1) {
+                    modelValues = new boolean[varsCount];
+                    for (int v = 0; v < varsCount; v++)
+                        modelValues[v] = assigns[v] == TRUE;
+                    return TRUE;
+                }
+                next = 2 * var + (phase[var] ? 0 : 1);
+            }
+            trailLim.add(trailSize);
+            enqueue(next, -1);
+        }
+    }
+
+    /**
+     * Propagates enqueued literals using watched literals.
+     * @return Index of conflicting clause, -1 if there is no conflict.
+     */
+    private int propagate() {
+        while (qhead < trailSize) {
+            int falseLiteral = trail[qhead++] ^ 1;
+            IntList watching = watches[falseLiteral];
+            int i = 0, j = 0;
+            while (i < watching.size()) {
+                int index = watching.get(i++);
+                int[] clause = clauses.get(index);
+                if (clause[0] == falseLiteral) {
+                    clause[0] = clause[1];
+                    clause[1] = falseLiteral;
+                }
+                if (literalValue(clause[0]) == TRUE) {
+                    watching.set(j++, index);
+                    continue;
+                }
+                boolean moved = false;
+                for (int k = 2; k < clause.length; k++) {
+                    if (literalValue(clause[k]) != FALSE) {
+                        clause[1] = clause[k];
+                        clause[k] = falseLiteral;
+                        watches[clause[1]].add(index);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved)
+                    continue;
+
+                watching.set(j++, index);
+                if (literalValue(clause[0]) == FALSE) {
+                    while (i < watching.size())
+                        watching.set(j++, watching.get(i++));
+                    watching.shrink(j);
+                    qhead = trailSize;
+                    return index;
+                }
+                enqueue(clause[0], index);
+            }
+            watching.shrink(j);
+        }
+        return -1;
+    }
+
+    /**
+     * Analyzes conflict and computes first UIP clause.
+     * @param conflict Index of conflicting clause.
+     * @param out Learned clause, asserting literal first.
+     * @return Level to backtrack to.
+     */
+    private int analyze(int conflict, IntList out) {
+        out.add(-1);
+        int pathCount = 0;
+        int literal = -1;
+        int index = trailSize - 1;
+        int[] clause = clauses.get(conflict);
+
+        while (true) {
+            for (int k = literal == -1 ? 0 : 1; k < clause.length; k++) {
+                int q = clause[k];
+                int var = q >> 1;
+                if (!seen[var] && level[var] > 0) {
+                    seen[var] = true;
+                    bumpActivity(var);
+                    if (level[var] >= decisionLevel())
+                        pathCount++;
+                    else
+                        out.add(q);
+                }
+            }
+            while (!seen[trail[index] >> 1])
+                index--;
+            literal = trail[index--];
+            seen[literal >> 1] = false;
+            pathCount--;
+            if (pathCount == 0)
+                break;
+            clause = clauses.get(reason[literal >> 1]);
+        }
+        out.set(0, literal ^ 1);
+
+        int backtrackLevel = 0;
+        int maxIndex = 1;
+        for (int k = 1; k < out.size(); k++) {
+            int var = out.get(k) >> 1;
+            seen[var] = false;
+            if (level[var] > backtrackLevel) {
+                backtrackLevel = level[var];
+                maxIndex = k;
+            }
+        }
+        if (out.size() > 1) {
+            int tmp = out.get(1);
+            out.set(1, out.get(maxIndex));
+            out.set(maxIndex, tmp);
+        }
+        return backtrackLevel;
+    }
+
+    /**
+     * Removes long learned clauses when there are too many of them. Called at decision level 0.
+     */
+    private void reduceLearnts() {
+        if (learntsCount < clauses.size() - learntsCount + 10000)
+            return;
+        List<int[]> kept = new ArrayList<>();
+        List<Boolean> keptLearnt = new ArrayList<>();
+        int keptLearnts = 0;
+        int learntIndex = 0;
+        for (int i = 0; i < clauses.size(); i++) {
+            boolean isLearnt = learnt.get(i);
+            if (isLearnt) {
+                learntIndex++;
+                //short clauses and the newer half are kept
+                if (clauses.get(i).length > 8 && learntIndex < learntsCount / 2)
+                    continue;
+                keptLearnts++;
+            }
+            kept.add(clauses.get(i));
+            keptLearnt.add(isLearnt);
+        }
+        clauses = kept;
+        learnt = keptLearnt;
+        learntsCount = keptLearnts;
+        for (int v = 0; v < varsCount; v++)
+            reason[v] = -1; //only top-level facts are assigned, they need no reasons
+        for (int l = 0; l < 2 * varsCount; l++)
+            watches[l].shrink(0);
+        for (int i = 0; i < clauses.size(); i++) {
+            int[] clause = clauses.get(i);
+            watches[clause[0]].add(i);
+            watches[clause[1]].add(i);
+        }
+    }
+
+    private int attach(int[] clause, boolean isLearnt) {
+        clauses.add(clause);
+        learnt.add(isLearnt);
+        if (isLearnt)
+            learntsCount++;
+        int index = clauses.size() - 1;
+        watches[clause[0]].add(index);
+        watches[clause[1]].add(index);
+        return index;
+    }
+
+    private void enqueue(int literal, int reasonIndex) {
+        int var = literal >> 1;
+        assigns[var] = (byte) ((literal & 1) == 0 ? TRUE : FALSE);
+        level[var] = decisionLevel();
+        reason[var] = reasonIndex;
+        trail[trailSize++] = literal;
+    }
+
+    private void cancelUntil(int targetLevel) {
+        if (decisionLevel() <= targetLevel)
+            return;
+        int start = trailLim.get(targetLevel);
+        for (int i = trailSize - 1; i >= start; i--) {
+            int var = trail[i] >> 1;
+            phase[var] = assigns[var] == TRUE;
+            assigns[var] = UNDEF;
+            reason[var] = -1;
+            if (!heap.contains(var))
+                heap.insert(var);
+        }
+        trailSize = start;
+        qhead = start;
+        trailLim.shrink(targetLevel);
+    }
+
+    private int pickBranchVar() {
+        while (!heap.isEmpty()) {
+            int var = heap.removeMax();
+            if (assigns[var] == UNDEF)
+                return var;
+        }
+        return -1;
+    }
+
+    private void bumpActivity(int var) {
+        activity[var] += varInc;
+        if (activity[var] > 1e100) {
+            for (int v = 0; v < varsCount; v++)
+                activity[v] *= 1e-100;
+            varInc *= 1e-100;
+        }
+        heap.increased(var);
+    }
+
+    private int literalValue(int literal) {
+        int value = assigns[literal >> 1];
+        return (literal & 1) == 0 ? value : -value;
+    }
+
+    private int decisionLevel() {
+        return trailLim.size();
+    }
+
+    private static int toLiteral(int dimacs) {
+        return dimacs > 0 ? 2 * (dimacs - 1) : 2 * (-dimacs - 1) + 1;
+    }
+
+    /**
+     * Element of Luby sequence (1,1,2,1,1,2,4,...).
+     */
+    private static long luby(int i) {
+        int size = 1, sequence = 0;
+        while (size < i + 1) {
+            sequence++;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != i) {
+            size = (size - 1) >> 1;
+            sequence--;
+            i = i % size;
+        }
+        return 1L << sequence;
+    }
+
+    /**
+     * Growable array of ints.
+     */
+    private static class IntList {
+        private int[] data = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+
+        int get(int i) {
+            return data[i];
+        }
+
+        void set(int i, int value) {
+            data[i] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void shrink(int newSize) {
+            size = newSize;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    /**
+     * Binary max-heap of variables ordered by activity.
+     */
+    private class VarHeap {
+        private int[] heap = new int[16];
+        private int[] position = new int[16];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(int var) {
+            return var < position.length && position[var] >= 0 && position[var] < size && heap[position[var]] == var;
+        }
+
+        void insert(int var) {
+            if (size == heap.length)
+                heap = Arrays.copyOf(heap, size * 2);
+            if (var >= position.length) {
+                int old = position.length;
+                position = Arrays.copyOf(position, Math.max(var + 1, old * 2));
+                Arrays.fill(position, old, position.length, -1);
+            }
+            heap[size] = var;
+            position[var] = size++;
+            up(position[var]);
+        }
+
+        void increased(int var) {
+            if (contains(var))
+                up(position[var]);
+        }
+
+        int removeMax() {
+            int top = heap[0];
+            heap[0] = heap[--size];
+            position[heap[0]] = 0;
+            position[top] = -1;
+            if (size > 0)
+                down(0);
+            return top;
+        }
+
+        private void up(int i) {
+            int var = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (activity[heap[parent]] >= activity[var])
+                    break;
+                heap[i] = heap[parent];
+                position[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = var;
+            position[var] = i;
+        }
+
+        private void down(int i) {
+            int var = heap[i];
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && activity[heap[child + 1]] > activity[heap[child]])
+                    child++;
+                if (activity[heap[child]] <= activity[var])
+                    break;
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = var;
+            position[var] = i;
+        }
+    }
+}
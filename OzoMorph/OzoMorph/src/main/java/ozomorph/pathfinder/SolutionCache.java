@@ -0,0 +1,154 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of plans found for problem instances, keyed by hash of normal form of the instance (see {@link SymmetryCanonicalizer})
+ * together with description of the solver, so that plans are reused only by the solver that found them.
+ * Recently used plans are kept in memory, all plans are also stored in files in {@code ../workdir/cache}, so they survive restarts.
+ * Plans are stored in Picat form (list of lists of action names), so they do not depend on duration of actions.
+ */
+public class SolutionCache {
+    private static final Logger logger = LoggerFactory.getLogger(SolutionCache.class);
+
+    /**
+     * Plans stored for normal form of an instance.
+     */
+    static class CachedPlans {
+        private int transform;
+        private String plans;
+
+        /**
+         * Creates new CachedPlans.
+         * @param transform Transform from the solved instance to the normal form.
+         * @param plans Plans of the solved instance in Picat form, in order of agents in the normal form.
+         */
+        CachedPlans(int transform, String plans) {
+            this.transform = transform;
+            this.plans = plans;
+        }
+
+        /**
+         * Gets transform from the solved instance to the normal form.
+         * @return Index of the transform.
+         */
+        int getTransform() {
+            return transform;
+        }
+
+        /**
+         * Gets plans of the solved instance in Picat form, in order of agents in the normal form.
+         * @return Plans in Picat form.
+         */
+        String getPlans() {
+            return plans;
+        }
+    }
+
+    private File directory;
+    private Map<String, CachedPlans> memory;
+
+    /**
+     * Creates new SolutionCache storing plans in {@code ../workdir/cache}.
+     * @param capacity Number of plans kept in memory.
+     */
+    public SolutionCache(int capacity) {
+        this(capacity, new File("../workdir/cache"));
+    }
+
+    /**
+     * Creates new SolutionCache.
+     * @param capacity Number of plans kept in memory.
+     * @param directory Directory where plans are stored.
+     */
+    public SolutionCache(int capacity, File directory) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Capacity of cache must be positive.");
+        this.directory = directory;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPlans> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets plans stored for given instance.
+     * @param canonicalInstance Normal form of instance of problem, preceded by description of the solver.
+     * @return Stored plans, null if there are none.
+     */
+    synchronized CachedPlans get(String canonicalInstance) {
+        String key = hash(canonicalInstance);
+        CachedPlans cached = memory.get(key);
+        if(cached != null)
+            return cached;
+
+        File file = new File(directory, key + ".pi");
+        if(!file.isFile())
+            return null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String instance = reader.readLine();
+            String transform = reader.readLine();
+            String plans = reader.readLine();
+            if(!canonicalInstance.equals(instance) || plans == null)
+                return null; //collision of hashes or damaged file
+            cached = new CachedPlans(Integer.parseInt(transform.trim()), plans);
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Reading of cached plans from " + file + " failed.", e);
+            return null;
+        }
+        memory.put(key, cached);
+        return cached;
+    }
+
+    /**
+     * Stores plans found for given instance.
+     * @param canonicalInstance Normal form of instance of problem, preceded by description of the solver.
+     * @param plans Plans of the solved instance.
+     */
+    synchronized void put(String canonicalInstance, CachedPlans plans) {
+        String key = hash(canonicalInstance);
+        memory.put(key, plans);
+
+        directory.mkdirs();
+        File file = new File(directory, key + ".pi");
+        try {
+            //written to temporary file first, so that other instances of the app never read half-written file
+            File tmp = File.createTempFile(key, ".tmp", directory);
+            try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                writer.printf("%s\n%d\n%s\n", canonicalInstance, plans.getTransform(), plans.getPlans());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Storing of plans to " + file + " failed.", e);
+        }
+    }
+
+    /**
+     * Computes hash of normal form of an instance.
+     * @param canonicalInstance Normal form of instance of problem, preceded by description of the solver.
+     * @return Hexadecimal SHA-256 of the instance.
+     */
+    static String hash(String canonicalInstance) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonicalInstance.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
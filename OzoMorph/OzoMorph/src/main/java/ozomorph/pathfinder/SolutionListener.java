@@ -0,0 +1,19 @@
+package ozomorph.pathfinder;
+
+import ozomorph.nodes.AgentMapNode;
+
+import java.util.List;
+
+/**
+ * Receives plans found by anytime solving, each one is executed faster than the previous one.
+ * Called from the thread running {@link PathFinder#findPathsAnytime(ProblemInstance)}.
+ */
+@FunctionalInterface
+public interface SolutionListener {
+    /**
+     * Better plans were found.
+     * @param agents Agents with the plans.
+     * @param optimal Whether the plans are proven to have the smallest makespan.
+     */
+    void solutionFound(List<AgentMapNode> agents, boolean optimal);
+}
@@ -0,0 +1,51 @@
+package ozomorph.pathfinder;
+
+/**
+ * Progress of the solver - makespan that is currently being tried and how long it takes.
+ */
+public class SolverProgress {
+    private int makespan;
+    private double makespanTime;
+    private double elapsedTime;
+
+    /**
+     * Creates new SolverProgress.
+     * @param makespan Makespan currently tried by the solver.
+     * @param makespanTime Time (seconds) spent on current makespan.
+     * @param elapsedTime Time (seconds) elapsed since the solver started.
+     */
+    public SolverProgress(int makespan, double makespanTime, double elapsedTime) {
+        this.makespan = makespan;
+        this.makespanTime = makespanTime;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Gets makespan currently tried by the solver.
+     * @return Makespan currently tried by the solver.
+     */
+    public int getMakespan() {
+        return makespan;
+    }
+
+    /**
+     * Gets time spent on current makespan.
+     * @return Time in seconds.
+     */
+    public double getMakespanTime() {
+        return makespanTime;
+    }
+
+    /**
+     * Gets time elapsed since the solver started.
+     * @return Time in seconds.
+     */
+    public double getElapsedTime() {
+        return elapsedTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("trying makespan %d (%.1f s), elapsed %.1f s", makespan, makespanTime, elapsedTime);
+    }
+}
@@ -0,0 +1,459 @@
+package ozomorph.pathfinder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Settings of the solver used by {@link PathFinder}.
+ */
+public class SolverSettings {
+    /**
+     * Number of Picat worker processes kept running.
+     */
+    private int workersCount = 1;
+    /**
+     * Time (seconds) after which a worker that has not answered is considered hung and is recycled, 0 means no limit.
+     */
+    private long workerTimeout = 0;
+    /**
+     * Whether instances passed to the solver are also written to files in {@code ../workdir} (debugging).
+     */
+    private boolean captureInstances = false;
+    /**
+     * Number of makespans tried at the same time (each on its own worker), 1 means makespans are tried one by one.
+     */
+    private int parallelProbes = 1;
+    /**
+     * Variants of the solver raced against each other, the first optimal answer is used. Less than 2 variants means no racing.
+     */
+    private List<SolverVariant> portfolio = new ArrayList<>();
+    /**
+     * Whether the solver builds one model for all makespans up to a horizon (doubled when there are no plans)
+     * instead of building new model for every makespan. Not used by parallel makespan probes.
+     */
+    private boolean incrementalMakespan = false;
+    /**
+     * Whether instances are solved in-process by {@link EmbeddedSatPlanner} instead of Picat.
+     */
+    private boolean embeddedSolver = false;
+    /**
+     * Whether the embedded solver adds constraints keeping groups connected only for groups and times at which found plans are disconnected.
+     */
+    private boolean lazyConnectivity = false;
+    /**
+     * Whether the embedded solver encodes occupancy of groups instead of agents, see {@link GroupOccupancySatPlanner}.
+     */
+    private boolean groupOccupancy = false;
+    /**
+     * Strategy of search for the smallest makespan. Not used by portfolio and parallel makespan probes.
+     */
+    private MakespanSearch makespanSearch = MakespanSearch.LINEAR;
+    /**
+     * Whether plans of fast suboptimal planner are shown first and the optimal solver improves them in the background.
+     */
+    private boolean anytime = false;
+    /**
+     * Time (seconds) after which anytime solving stops improving plans and the best plans found are used, 0 means no limit.
+     */
+    private long anytimeBudget = 0;
+    /**
+     * Whether clusters of groups that do not interact are solved separately (in parallel) and their plans are merged.
+     */
+    private boolean decomposition = false;
+    /**
+     * Whether instances are reduced before solving (static groups removed, grid cropped), see {@link Presolver}.
+     */
+    private boolean presolve = false;
+    /**
+     * Number of vertices kept around the bounding box of positions of moving groups when the grid is cropped.
+     */
+    private int presolveMargin = 2;
+    /**
+     * Number of steps planned at once in windowed planning, 0 means the whole plans are solved at once.
+     */
+    private int windowLength = 0;
+    /**
+     * Number of steps of each window that are committed before the next window is planned.
+     */
+    private int windowCommit = 4;
+    /**
+     * Size of blocks of coarse grid used by hierarchical planning, 0 means the fine grid is solved directly.
+     */
+    private int coarseBlockSize = 0;
+    /**
+     * Whether edited instances are replanned from plans of the previous instance, only changed groups are solved again.
+     */
+    private boolean replanning = false;
+    /**
+     * Whether instances without connectivity are solved by bounded-suboptimal {@link ConflictBasedSearch} instead of the exact solver.
+     */
+    private boolean suboptimalSearch = true;
+
+    /**
+     * Creates new SolverSettings using default values.
+     */
+    public SolverSettings() {
+    }
+
+    /**
+     * Gets number of Picat worker processes kept running.
+     * @return Number of Picat worker processes.
+     */
+    public int getWorkersCount() {
+        return workersCount;
+    }
+
+    /**
+     * Sets number of Picat worker processes kept running.
+     * @param workersCount Number of Picat worker processes, at least 1.
+     */
+    public void setWorkersCount(int workersCount) {
+        if(workersCount < 1)
+            throw new IllegalArgumentException("Number of workers must be positive.");
+        this.workersCount = workersCount;
+    }
+
+    /**
+     * Gets time after which a worker that has not answered is considered hung and is recycled.
+     * @return Time in seconds, 0 means no limit.
+     */
+    public long getWorkerTimeout() {
+        return workerTimeout;
+    }
+
+    /**
+     * Sets time after which a worker that has not answered is considered hung and is recycled.
+     * @param workerTimeout Time in seconds, 0 means no limit.
+     */
+    public void setWorkerTimeout(long workerTimeout) {
+        this.workerTimeout = workerTimeout;
+    }
+
+    /**
+     * Gets whether instances passed to the solver are also written to files in {@code ../workdir}.
+     * @return Whether instances are captured.
+     */
+    public boolean isCaptureInstances() {
+        return captureInstances;
+    }
+
+    /**
+     * Sets whether instances passed to the solver are also written to files in {@code ../workdir} (debugging).
+     * @param captureInstances Whether instances are captured.
+     */
+    public void setCaptureInstances(boolean captureInstances) {
+        this.captureInstances = captureInstances;
+    }
+
+    /**
+     * Gets number of makespans tried at the same time.
+     * @return Number of concurrent makespan probes, 1 means makespans are tried one by one.
+     */
+    public int getParallelProbes() {
+        return parallelProbes;
+    }
+
+    /**
+     * Sets number of makespans tried at the same time, each on its own Picat worker.
+     * @param parallelProbes Number of concurrent makespan probes, 1 means makespans are tried one by one.
+     */
+    public void setParallelProbes(int parallelProbes) {
+        if(parallelProbes < 1)
+            throw new IllegalArgumentException("Number of parallel probes must be positive.");
+        this.parallelProbes = parallelProbes;
+    }
+
+    /**
+     * Gets variants of the solver raced against each other.
+     * @return Raced variants, less than 2 variants means no racing.
+     */
+    public List<SolverVariant> getPortfolio() {
+        return new ArrayList<>(portfolio);
+    }
+
+    /**
+     * Sets variants of the solver raced against each other (each on its own Picat worker), the first optimal answer is used.
+     * Racing takes precedence over parallel makespan probes.
+     * @param portfolio Raced variants, less than 2 variants means no racing. Only turning variants (see {@link SolverVariant#isTurning()})
+     *                  that all keep groups connected or all do not (see {@link SolverVariant#isConnected()}) can be raced.
+     */
+    public void setPortfolio(List<SolverVariant> portfolio) {
+        for (SolverVariant variant : portfolio) {
+            if(!variant.isTurning())
+                throw new IllegalArgumentException(String.format("Variant %s does not plan turning, its plans cannot be raced.", variant));
+            if(variant.isConnected() != portfolio.get(0).isConnected())
+                throw new IllegalArgumentException(String.format("Variants %s and %s differ in connectivity of groups, their plans cannot be raced.", portfolio.get(0), variant));
+        }
+        this.portfolio = new ArrayList<>(portfolio);
+    }
+
+    /**
+     * Gets whether the solver reuses one model for all makespans up to a growing horizon.
+     * @return Whether incremental makespan search is used.
+     */
+    public boolean isIncrementalMakespan() {
+        return incrementalMakespan;
+    }
+
+    /**
+     * Sets whether the solver reuses one model for all makespans up to a growing horizon,
+     * instead of building new model for every makespan. Progress then reports the horizon being tried.
+     * @param incrementalMakespan Whether incremental makespan search is used.
+     */
+    public void setIncrementalMakespan(boolean incrementalMakespan) {
+        this.incrementalMakespan = incrementalMakespan;
+    }
+
+    /**
+     * Gets whether instances are solved in-process without Picat.
+     * @return Whether the embedded SAT solver is used.
+     */
+    public boolean isEmbeddedSolver() {
+        return embeddedSolver;
+    }
+
+    /**
+     * Sets whether instances are solved in-process by the embedded SAT solver (connected model with turning) instead of Picat.
+     * Picat workers, portfolio and parallel makespan probes are then not used.
+     * @param embeddedSolver Whether the embedded SAT solver is used.
+     */
+    public void setEmbeddedSolver(boolean embeddedSolver) {
+        this.embeddedSolver = embeddedSolver;
+    }
+
+    /**
+     * Gets whether the embedded solver enforces connectivity of groups lazily.
+     * @return Whether connectivity is enforced lazily.
+     */
+    public boolean isLazyConnectivity() {
+        return lazyConnectivity;
+    }
+
+    /**
+     * Sets whether the embedded solver first solves without connectivity of groups and adds connectivity constraints
+     * only for groups and times at which found plans are disconnected, solving again until plans are connected.
+     * Used only with the embedded SAT solver.
+     * @param lazyConnectivity Whether connectivity is enforced lazily.
+     */
+    public void setLazyConnectivity(boolean lazyConnectivity) {
+        this.lazyConnectivity = lazyConnectivity;
+    }
+
+    /**
+     * Gets whether the embedded solver encodes occupancy of groups instead of agents.
+     * @return Whether occupancy of groups is encoded.
+     */
+    public boolean isGroupOccupancy() {
+        return groupOccupancy;
+    }
+
+    /**
+     * Sets whether the embedded solver encodes which vertices each group occupies instead of which vertex each agent occupies,
+     * plans of agents are then recovered from flow of their group. Connectivity of groups is always enforced lazily by this encoding.
+     * Used only with the embedded SAT solver.
+     * @param groupOccupancy Whether occupancy of groups is encoded.
+     */
+    public void setGroupOccupancy(boolean groupOccupancy) {
+        this.groupOccupancy = groupOccupancy;
+    }
+
+    /**
+     * Gets strategy of search for the smallest makespan.
+     * @return Strategy of makespan search.
+     */
+    public MakespanSearch getMakespanSearch() {
+        return makespanSearch;
+    }
+
+    /**
+     * Sets strategy of search for the smallest makespan.
+     * With {@link MakespanSearch#GALLOPING}, every makespan is solved as separate request (or by the embedded solver),
+     * portfolio and parallel makespan probes take precedence over it.
+     * @param makespanSearch Strategy of makespan search.
+     */
+    public void setMakespanSearch(MakespanSearch makespanSearch) {
+        this.makespanSearch = Objects.requireNonNull(makespanSearch);
+    }
+
+    /**
+     * Gets whether plans are found in anytime manner, see {@link PathFinder#findPathsAnytime(ProblemInstance)}.
+     * @return Whether anytime solving is used.
+     */
+    public boolean isAnytime() {
+        return anytime;
+    }
+
+    /**
+     * Sets whether plans of fast suboptimal planner are shown first and the optimal solver improves them in the background.
+     * @param anytime Whether anytime solving is used.
+     */
+    public void setAnytime(boolean anytime) {
+        this.anytime = anytime;
+    }
+
+    /**
+     * Gets time after which anytime solving stops improving plans.
+     * @return Time in seconds, 0 means no limit.
+     */
+    public long getAnytimeBudget() {
+        return anytimeBudget;
+    }
+
+    /**
+     * Sets time after which anytime solving stops improving plans and the best plans found are used.
+     * @param anytimeBudget Time in seconds, 0 means no limit.
+     */
+    public void setAnytimeBudget(long anytimeBudget) {
+        if(anytimeBudget < 0)
+            throw new IllegalArgumentException("Budget of anytime solving must not be negative.");
+        this.anytimeBudget = anytimeBudget;
+    }
+
+    /**
+     * Gets whether groups that do not interact are solved separately.
+     * @return Whether decomposition to independent subproblems is used.
+     */
+    public boolean isDecomposition() {
+        return decomposition;
+    }
+
+    /**
+     * Sets whether clusters of groups whose paths do not interact are solved separately (in parallel) and their plans are merged,
+     * see {@link SubproblemDecomposition}. Clusters whose plans conflict are solved jointly.
+     * @param decomposition Whether decomposition to independent subproblems is used.
+     */
+    public void setDecomposition(boolean decomposition) {
+        this.decomposition = decomposition;
+    }
+
+    /**
+     * Gets whether instances are reduced before solving.
+     * @return Whether presolving is used.
+     */
+    public boolean isPresolve() {
+        return presolve;
+    }
+
+    /**
+     * Sets whether instances are reduced before solving: static groups are removed, grid is cropped to the area of moving groups
+     * and instances with all groups at their targets are solved without the solver.
+     * Plans are the smallest makespan ones within the cropped grid.
+     * @param presolve Whether presolving is used.
+     */
+    public void setPresolve(boolean presolve) {
+        this.presolve = presolve;
+    }
+
+    /**
+     * Gets number of vertices kept around the area of moving groups when the grid is cropped.
+     * @return Margin of the cropped grid.
+     */
+    public int getPresolveMargin() {
+        return presolveMargin;
+    }
+
+    /**
+     * Sets number of vertices kept around the bounding box of positions of moving groups when the grid is cropped.
+     * @param presolveMargin Margin of the cropped grid, not negative.
+     */
+    public void setPresolveMargin(int presolveMargin) {
+        if(presolveMargin < 0)
+            throw new IllegalArgumentException("Margin of presolving must not be negative.");
+        this.presolveMargin = presolveMargin;
+    }
+
+    /**
+     * Gets number of steps planned at once in windowed planning.
+     * @return Length of window, 0 means windowed planning is not used.
+     */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /**
+     * Sets number of steps planned at once. Windowed planning (see {@link RollingHorizonPlanner}) solves only the next steps
+     * by the embedded SAT solver, bringing groups closer to their targets, commits first steps and plans again from the reached configuration.
+     * Size of the model is bounded by the window length, plans are not optimal. Takes precedence over other solving methods except decomposition.
+     * @param windowLength Length of window, 0 means windowed planning is not used.
+     */
+    public void setWindowLength(int windowLength) {
+        if(windowLength < 0)
+            throw new IllegalArgumentException("Length of window must not be negative.");
+        this.windowLength = windowLength;
+    }
+
+    /**
+     * Gets number of steps of each window that are committed before the next window is planned.
+     * @return Number of committed steps.
+     */
+    public int getWindowCommit() {
+        return windowCommit;
+    }
+
+    /**
+     * Sets number of steps of each window that are committed before the next window is planned (at most the window length is used).
+     * @param windowCommit Number of committed steps, positive.
+     */
+    public void setWindowCommit(int windowCommit) {
+        if(windowCommit < 1)
+            throw new IllegalArgumentException("Number of committed steps must be positive.");
+        this.windowCommit = windowCommit;
+    }
+
+    /**
+     * Gets size of blocks of coarse grid used by hierarchical planning.
+     * @return Number of vertices in a row of a block, 0 means hierarchical planning is not used.
+     */
+    public int getCoarseBlockSize() {
+        return coarseBlockSize;
+    }
+
+    /**
+     * Sets size of blocks of coarse grid used by hierarchical planning. Groups are routed on the coarse grid first,
+     * then the embedded SAT solver solves the fine grid restricted to corridors of the routes (see {@link HierarchicalPlanner}).
+     * Plans are optimal within the corridors. Windowed planning takes precedence.
+     * @param coarseBlockSize Number of vertices in a row of a block (at least 2), 0 means hierarchical planning is not used.
+     */
+    public void setCoarseBlockSize(int coarseBlockSize) {
+        if(coarseBlockSize < 0 || coarseBlockSize == 1)
+            throw new IllegalArgumentException("Size of blocks must be 0 or at least 2.");
+        this.coarseBlockSize = coarseBlockSize;
+    }
+
+    /**
+     * Gets whether edited instances are replanned from plans of the previous instance.
+     * @return Whether replanning is used.
+     */
+    public boolean isReplanning() {
+        return replanning;
+    }
+
+    /**
+     * Sets whether edited instances are replanned from plans of the previous instance (see {@link PathFinder#replan(ProblemInstance, List, ProblemInstance)}):
+     * plans of unchanged groups are kept and only changed groups are solved again by the embedded SAT solver.
+     * Takes effect only when the embedded solver is configured to solve whole instances, plans clearly longer than plans
+     * found from scratch are not kept.
+     * @param replanning Whether replanning is used.
+     */
+    public void setReplanning(boolean replanning) {
+        this.replanning = replanning;
+    }
+
+    /**
+     * Gets whether instances without connectivity are solved by bounded-suboptimal conflict-based search.
+     * @return Whether conflict-based search is used.
+     */
+    public boolean isSuboptimalSearch() {
+        return suboptimalSearch;
+    }
+
+    /**
+     * Sets whether instances without connectivity (of more than one group) are solved by conflict-based search, whose plans are found fast
+     * but makespan is not minimised. Otherwise they are solved by the configured exact solver.
+     * @param suboptimalSearch Whether conflict-based search is used.
+     */
+    public void setSuboptimalSearch(boolean suboptimalSearch) {
+        this.suboptimalSearch = suboptimalSearch;
+    }
+}
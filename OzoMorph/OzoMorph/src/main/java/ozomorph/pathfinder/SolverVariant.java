@@ -0,0 +1,150 @@
+package ozomorph.pathfinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Combination of Picat model (encoding of the problem) and constraint solving backend used to solve it.
+ * Models import {@code sat}, other backends are used through generated copies of the model and of the solver entry file.
+ */
+public class SolverVariant {
+    /**
+     * Models in {@code ../picat}. Only turning models output actions understood by {@link ozomorph.actions.ActionFactory}.
+     * Models ending with {@code _s} keep groups connected by single-commodity flow of each group instead of flow to each agent.
+     */
+    public static final List<String> MODELS = List.of("model_c", "model_c_c", "model_c_t", "model_c_c_t", "model_c_c_s", "model_c_c_t_s");
+    /**
+     * Constraint solving backends shipped with Picat. {@code mip} and {@code smt} need external solver installed.
+     */
+    public static final List<String> BACKENDS = List.of("sat", "cp", "mip", "smt");
+    /**
+     * Variant used by {@code ../picat/solve.pi} as it is.
+     */
+    public static final SolverVariant DEFAULT = new SolverVariant("model_c_c_t", "sat");
+
+    private static final String picatDir = "../picat";
+    private static final String generatedDir = "../workdir/solvers";
+
+    private final String model;
+    private final String backend;
+
+    /**
+     * Creates new SolverVariant.
+     * @param model Name of the model, one of {@link #MODELS}.
+     * @param backend Name of the backend, one of {@link #BACKENDS}.
+     */
+    public SolverVariant(String model, String backend) {
+        if(!MODELS.contains(model))
+            throw new IllegalArgumentException(String.format("Unknown model %s.", model));
+        if(!BACKENDS.contains(backend))
+            throw new IllegalArgumentException(String.format("Unknown backend %s.", backend));
+        this.model = model;
+        this.backend = backend;
+    }
+
+    /**
+     * Parses variant written as {@code model/backend}, e.g. {@code model_c_c_t/cp}.
+     * @param variant Variant written as {@code model/backend}.
+     * @return Parsed variant.
+     */
+    public static SolverVariant parse(String variant) {
+        String[] parts = variant.trim().split("/");
+        if(parts.length != 2)
+            throw new IllegalArgumentException(String.format("Solver variant %s is not in form model/backend.", variant));
+        return new SolverVariant(parts[0], parts[1]);
+    }
+
+    /**
+     * Gets name of the model (Picat source file in {@code ../picat} without extension).
+     * @return Name of the model.
+     */
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Gets whether the model keeps groups connected ({@code model_c_c}, {@code model_c_c_t} and their single-commodity variants).
+     * @return Whether agents of each group must stay connected.
+     */
+    public boolean isConnected() {
+        return model.startsWith("model_c_c");
+    }
+
+    /**
+     * Gets whether the model plans turning of agents ({@code model_c_t}, {@code model_c_c_t} and its single-commodity variant),
+     * only these models output actions understood by {@link ozomorph.actions.ActionFactory}.
+     * @return Whether the model outputs turning actions.
+     */
+    public boolean isTurning() {
+        return model.endsWith("_t") || model.endsWith("_t_s");
+    }
+
+    /**
+     * Gets name of the constraint solving backend.
+     * @return Name of the backend.
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * Gets Picat source file of the solver of this variant, generates it (with its model) if needed.
+     * @return Path to the solver entry file.
+     * @throws IOException Error while reading the sources / writing the generated files.
+     */
+    String prepareMainFile() throws IOException {
+        if(equals(DEFAULT))
+            return picatDir + "/solve.pi";
+
+        String moduleName = model + "_" + backend;
+        synchronized (SolverVariant.class) { //variants share the generated problem.pi
+            new File(generatedDir).mkdirs();
+            copy("problem.pi", "problem.pi", null, null);
+            copy(model + ".pi", moduleName + ".pi", "import sat.", "import " + backend + ".");
+            copy("solve.pi", "solve_" + moduleName + ".pi", "import " + DEFAULT.model + ".", "import " + moduleName + ".");
+        }
+        return generatedDir + "/solve_" + moduleName + ".pi";
+    }
+
+    /**
+     * Copies Picat source from {@code ../picat} to directory of generated files, replacing one import.
+     * @param source Name of the source file.
+     * @param target Name of the generated file.
+     * @param importLine Import to replace (whole line), null to copy the file as it is.
+     * @param replacement Replacement of the import.
+     * @throws IOException Error while reading the source / writing the generated file.
+     */
+    private void copy(String source, String target, String importLine, String replacement) throws IOException {
+        String content = new String(Files.readAllBytes(new File(picatDir, source).toPath()), StandardCharsets.UTF_8);
+        if(importLine != null){
+            String replaced = content.replaceFirst("(?m)^" + Pattern.quote(importLine) + "[ \\t]*$", replacement);
+            if(replaced.equals(content))
+                throw new IOException(String.format("%s does not contain line %s.", source, importLine));
+            content = replaced;
+        }
+        Files.write(new File(generatedDir, target).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SolverVariant)) return false;
+        SolverVariant that = (SolverVariant) o;
+        return model.equals(that.model) && backend.equals(that.backend);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(model, backend);
+    }
+
+    @Override
+    public String toString() {
+        return model + "/" + backend;
+    }
+}
@@ -0,0 +1,296 @@
+package ozomorph.pathfinder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ozomorph.actions.Action;
+import ozomorph.actions.MoveAction;
+import ozomorph.actions.TurnLeftAction;
+import ozomorph.actions.TurnRightAction;
+import ozomorph.nodes.AgentMapNode;
+import ozomorph.nodes.Group;
+import ozomorph.nodes.PositionMapNode;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Solves groups that do not interact separately. Groups are clustered when their corridors overlap,
+ * corridor of a group are vertices on paths from its initial to its target positions at most {@link #CORRIDOR_SLACK} steps longer than the lower bound of the group.
+ * Clusters are solved in parallel as separate instances and their plans are merged.
+ * Connectivity is required only within groups, so merged plans are valid if no vertex is visited by agents of two clusters;
+ * clusters whose plans share a vertex are merged and solved jointly.
+ */
+class SubproblemDecomposition {
+    private static final Logger logger = LoggerFactory.getLogger(SubproblemDecomposition.class);
+    /**
+     * Number of steps by which paths in corridor of a group can be longer than the lower bound of the group.
+     */
+    private static final int CORRIDOR_SLACK = 2;
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+
+    /**
+     * Solves one subproblem.
+     */
+    @FunctionalInterface
+    interface SubproblemSolver {
+        /**
+         * Finds plans of given subproblem.
+         * @param subproblem Instance containing only groups of one cluster.
+         * @return Agents with plans, at their starting positions.
+         * @throws IOException IO error.
+         * @throws InterruptedException Solver interrupted.
+         * @throws NoPlansFoundException No plans found (solving cancelled).
+         */
+        List<AgentMapNode> solve(ProblemInstance subproblem) throws IOException, InterruptedException, NoPlansFoundException;
+    }
+
+    private ProblemInstance problemInstance;
+    private GridDistances grid;
+    private SubproblemSolver solver;
+    private List<Set<Group>> clusters;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates new SubproblemDecomposition and clusters groups of the instance by their corridors.
+     * @param problemInstance Instance of problem.
+     * @param solver Solves subproblems, called concurrently.
+     */
+    SubproblemDecomposition(ProblemInstance problemInstance, SubproblemSolver solver) {
+        this.problemInstance = problemInstance;
+        this.grid = new GridDistances(problemInstance.getWidth(), problemInstance.getHeight());
+        this.solver = solver;
+        this.clusters = clusterByCorridors();
+    }
+
+    /**
+     * Gets number of clusters of groups that are solved separately.
+     * @return Number of clusters.
+     */
+    int getClustersCount() {
+        return clusters.size();
+    }
+
+    /**
+     * Solves clusters and merges their plans.
+     * @param agentsLinOrdering Linear ordering of occupied positions in initial configuration (= starting positions of agets).
+     * @return Agents with plans, at index of the agent in the linear ordering.
+     * @throws IOException IO error.
+     * @throws InterruptedException Interrupted while waiting for subproblems.
+     * @throws NoPlansFoundException Some subproblem has no plans or solving was cancelled.
+     */
+    AgentMapNode[] solve(List<PositionMapNode> agentsLinOrdering) throws IOException, InterruptedException, NoPlansFoundException {
+        Map<Set<Group>, List<AgentMapNode>> plans = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(clusters.size(), Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "subproblem");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            while (true) {
+                solveMissing(executor, plans);
+                if (!mergeConflicting(plans))
+                    break;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.info("Plans of " + clusters.size() + " independent subproblems merged.");
+
+        Map<Integer, Integer> indexOfInitial = new HashMap<>();
+        for (int i = 0; i < agentsLinOrdering.size(); i++)
+            indexOfInitial.put(grid.vertex(agentsLinOrdering.get(i)), i);
+        AgentMapNode[] agents = new AgentMapNode[agentsLinOrdering.size()];
+        for (List<AgentMapNode> clusterAgents : plans.values())
+            for (AgentMapNode agent : clusterAgents) {
+                int i = indexOfInitial.get(startVertex(agent));
+                agents[i] = new AgentMapNode(agentsLinOrdering.get(i), i, agent.getPlan());
+            }
+        return agents;
+    }
+
+    /**
+     * Cancels solving, subproblems being solved must be cancelled by their solver.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Solves clusters that have no plans yet in parallel.
+     */
+    private void solveMissing(ExecutorService executor, Map<Set<Group>, List<AgentMapNode>> plans) throws IOException, InterruptedException, NoPlansFoundException {
+        Map<Set<Group>, Future<List<AgentMapNode>>> running = new HashMap<>();
+        for (Set<Group> cluster : clusters)
+            if (!plans.containsKey(cluster))
+                running.put(cluster, executor.submit(() -> solver.solve(createSubproblem(cluster))));
+        try {
+            for (Map.Entry<Set<Group>, Future<List<AgentMapNode>>> entry : running.entrySet())
+                plans.put(entry.getKey(), entry.getValue().get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NoPlansFoundException)
+                throw (NoPlansFoundException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+            throw new IOException("Solving of subproblem failed.", cause);
+        } finally {
+            running.values().forEach(f -> f.cancel(true));
+        }
+        if (cancelled)
+            throw new NoPlansFoundException();
+    }
+
+    /**
+     * Finds two clusters whose plans visit the same vertex and merges them, their plans are dropped.
+     * @return Whether clusters were merged.
+     */
+    private boolean mergeConflicting(Map<Set<Group>, List<AgentMapNode>> plans) {
+        int[] clusterOfVertex = new int[problemInstance.getWidth() * problemInstance.getHeight()];
+        Arrays.fill(clusterOfVertex, -1);
+        for (int c = 0; c < clusters.size(); c++) {
+            for (AgentMapNode agent : plans.get(clusters.get(c)))
+                for (int v : visitedVertices(agent, problemInstance.getWidth())) {
+                    int other = clusterOfVertex[v];
+                    if (other != -1 && other != c) {
+                        Set<Group> merged = new HashSet<>(clusters.get(other));
+                        merged.addAll(clusters.get(c));
+                        logger.info(String.format("Plans of subproblems %d and %d share vertex %d, solving them jointly.", other, c, v));
+                        plans.remove(clusters.get(other));
+                        plans.remove(clusters.get(c));
+                        clusters.remove(c);
+                        clusters.set(other, merged);
+                        return true;
+                    }
+                    clusterOfVertex[v] = c;
+                }
+        }
+        return false;
+    }
+
+    /**
+     * Clusters groups whose corridors share a vertex (union-find over groups).
+     * @return Clusters of groups.
+     */
+    private List<Set<Group>> clusterByCorridors() {
+        List<Group> groups = new ArrayList<>(problemInstance.getInitialPositions().keySet());
+        int[] parent = new int[groups.size()];
+        for (int g = 0; g < parent.length; g++)
+            parent[g] = g;
+        int[] groupOfVertex = new int[problemInstance.getWidth() * problemInstance.getHeight()];
+        Arrays.fill(groupOfVertex, -1);
+
+        for (int g = 0; g < groups.size(); g++) {
+            Group group = groups.get(g);
+            boolean[] corridor = corridor(grid, problemInstance.getInitialPositions().get(group), problemInstance.getTargetPositions().get(group));
+            for (int v = 0; v < corridor.length; v++) {
+                if (!corridor[v])
+                    continue;
+                if (groupOfVertex[v] == -1)
+                    groupOfVertex[v] = g;
+                else
+                    parent[find(parent, g)] = find(parent, groupOfVertex[v]);
+            }
+        }
+
+        Map<Integer, Set<Group>> clustersByRoot = new LinkedHashMap<>();
+        for (int g = 0; g < groups.size(); g++)
+            clustersByRoot.computeIfAbsent(find(parent, g), r -> new HashSet<>()).add(groups.get(g));
+        logger.info("Groups clustered to " + clustersByRoot.size() + " independent subproblems.");
+        return new ArrayList<>(clustersByRoot.values());
+    }
+
+    /**
+     * Finds root of the set in union-find.
+     */
+    private static int find(int[] parent, int g) {
+        while (parent[g] != g) {
+            parent[g] = parent[parent[g]];
+            g = parent[g];
+        }
+        return g;
+    }
+
+    /**
+     * Computes corridor of a group: vertices v with {@code dist(initials,v) + dist(v,targets) <= bound + CORRIDOR_SLACK},
+     * bound being the largest distance of an initial position to the nearest target or of a target to the nearest initial position.
+     * @param grid Distances on the grid map.
+     * @param initials Initial positions of the group.
+     * @param targets Target positions of the group.
+     * @return Whether each vertex is in the corridor.
+     */
+    static boolean[] corridor(GridDistances grid, Collection<PositionMapNode> initials, Collection<PositionMapNode> targets) {
+        int[] fromInitials = grid.toNearest(initials);
+        int[] toTargets = grid.toNearest(targets);
+        int bound = 0;
+        for (PositionMapNode initial : initials)
+            bound = Math.max(bound, toTargets[grid.vertex(initial)]);
+        for (PositionMapNode target : targets)
+            bound = Math.max(bound, fromInitials[grid.vertex(target)]);
+
+        boolean[] corridor = new boolean[fromInitials.length];
+        for (int v = 0; v < corridor.length; v++)
+            corridor[v] = fromInitials[v] + toTargets[v] <= bound + CORRIDOR_SLACK;
+        return corridor;
+    }
+
+    /**
+     * Creates instance containing only groups of a cluster.
+     * @param cluster Groups of the cluster.
+     * @return Instance of the cluster.
+     */
+    private ProblemInstance createSubproblem(Set<Group> cluster) {
+        Map<Group, Set<PositionMapNode>> initials = new HashMap<>();
+        Map<Group, Set<PositionMapNode>> targets = new HashMap<>();
+        for (Group group : cluster) {
+            initials.put(group, problemInstance.getInitialPositions().get(group));
+            targets.put(group, problemInstance.getTargetPositions().get(group));
+        }
+        return new ProblemInstance(problemInstance.getWidth(), problemInstance.getHeight(), initials, targets);
+    }
+
+    /**
+     * Gets vertex of starting position of agent.
+     */
+    private int startVertex(AgentMapNode agent) {
+        return startVertex(agent, problemInstance.getWidth());
+    }
+
+    /**
+     * Gets vertex of starting position of agent.
+     * @param agent Agent.
+     * @param width Width of grid map.
+     * @return Index of the vertex ({@code y*width + x}).
+     */
+    static int startVertex(AgentMapNode agent, int width) {
+        return agent.getStartY() * width + agent.getStartX();
+    }
+
+    /**
+     * Computes vertices visited by agent following its plan, agent starts facing up.
+     * @param agent Agent.
+     * @param width Width of grid map.
+     * @return Visited vertices.
+     */
+    static List<Integer> visitedVertices(AgentMapNode agent, int width) {
+        int vertex = startVertex(agent, width);
+        int direction = 0;
+        List<Integer> visited = new ArrayList<>();
+        visited.add(vertex);
+        for (Action action : agent.getPlan()) {
+            if (action instanceof MoveAction) {
+                vertex += directions[direction][1] * width + directions[direction][0];
+                visited.add(vertex);
+            } else if (action instanceof TurnLeftAction)
+                direction = (direction + 3) % 4;
+            else if (action instanceof TurnRightAction)
+                direction = (direction + 1) % 4;
+        }
+        return visited;
+    }
+}
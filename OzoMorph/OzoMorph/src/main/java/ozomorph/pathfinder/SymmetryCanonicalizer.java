@@ -0,0 +1,261 @@
+package ozomorph.pathfinder;
+
+import ozomorph.nodes.Group;
+import ozomorph.nodes.PositionMapNode;
+
+import java.util.*;
+
+/**
+ * Maps instances of problem on obstacle-free grid to normal form shared by all their symmetric variants.
+ * Instance is equivalent to its rotations and mirror images (8 transforms), to its translations and to any permutation of colors of groups.
+ * Normal form is Picat term of the transformed instance, cropped to bounding box of all initial and target positions,
+ * with free space between the bounding box and borders of the grid (plans may use it).
+ * The transform that gives normal form is kept, so plans solved for one variant can be transformed to another one.
+ */
+class SymmetryCanonicalizer {
+    /**
+     * Transforms of grid as integer matrices {a,b,c,d}, point (x,y) is mapped to (a*x + b*y, c*x + d*y).
+     * Identity, clockwise rotations by 90, 180 and 270 degrees, and mirror images along 4 axes.
+     */
+    private static final int[][] transforms = {
+            {1, 0, 0, 1}, {0, -1, 1, 0}, {-1, 0, 0, -1}, {0, 1, -1, 0},
+            {-1, 0, 0, 1}, {1, 0, 0, -1}, {0, 1, 1, 0}, {0, -1, -1, 0}
+    };
+    /**
+     * Vectors of directions on the grid (y grows down), index corresponds to number of clockwise turns from up.
+     */
+    private static final int[][] directions = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+
+    /**
+     * Normal form of an instance.
+     */
+    static class CanonicalForm {
+        private String term;
+        private int transform;
+        private List<PositionMapNode> agentsOrdering;
+
+        CanonicalForm(String term, int transform, List<PositionMapNode> agentsOrdering) {
+            this.term = term;
+            this.transform = transform;
+            this.agentsOrdering = agentsOrdering;
+        }
+
+        /**
+         * Gets Picat term of the normal form (same for all symmetric instances).
+         * @return Term of the normal form.
+         */
+        String getTerm() {
+            return term;
+        }
+
+        /**
+         * Gets index of the transform that maps the instance to the normal form.
+         * @return Index of the transform.
+         */
+        int getTransform() {
+            return transform;
+        }
+
+        /**
+         * Gets starting positions of agents in the order in which they appear in the normal form.
+         * @return Starting positions of agents.
+         */
+        List<PositionMapNode> getAgentsOrdering() {
+            return agentsOrdering;
+        }
+    }
+
+    /**
+     * Computes normal form of given instance.
+     * @param problemInstance Instance of problem.
+     * @return Normal form of the instance.
+     */
+    CanonicalForm canonicalize(ProblemInstance problemInstance) {
+        CanonicalForm best = null;
+        for (int t = 0; t < transforms.length; t++) {
+            CanonicalForm form = transform(problemInstance, t);
+            if (best == null || form.getTerm().compareTo(best.getTerm()) < 0)
+                best = form;
+        }
+        return best;
+    }
+
+    /**
+     * Computes term of the instance transformed by given transform and moved to the origin.
+     * @param problemInstance Instance of problem.
+     * @param t Index of the transform.
+     * @return Transformed instance.
+     */
+    private CanonicalForm transform(ProblemInstance problemInstance, int t) {
+        int[] m = transforms[t];
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        List<Set<PositionMapNode>> configurations = new ArrayList<>(problemInstance.getInitialPositions().values());
+        configurations.addAll(problemInstance.getTargetPositions().values());
+        for (Set<PositionMapNode> nodes : configurations) {
+            for (PositionMapNode node : nodes) {
+                int x = m[0] * node.getGridX() + m[1] * node.getGridY();
+                int y = m[2] * node.getGridX() + m[3] * node.getGridY();
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+        }
+        int width = maxX - minX + 1;
+        int height = maxY - minY + 1;
+        //corners of the grid are transformed to opposite corners of the transformed grid
+        int gridX1 = m[0] * (problemInstance.getWidth() - 1), gridY1 = m[2] * (problemInstance.getWidth() - 1);
+        int gridX2 = m[1] * (problemInstance.getHeight() - 1), gridY2 = m[3] * (problemInstance.getHeight() - 1);
+        int gridMinX = Math.min(0, gridX1) + Math.min(0, gridX2), gridMaxX = Math.max(0, gridX1) + Math.max(0, gridX2);
+        int gridMinY = Math.min(0, gridY1) + Math.min(0, gridY2), gridMaxY = Math.max(0, gridY1) + Math.max(0, gridY2);
+        int offsetX = minX, offsetY = minY;
+        Comparator<PositionMapNode> byIdx = Comparator.comparingInt(node -> vertex(m, node, offsetX, offsetY, width));
+
+        List<Group> groups = new ArrayList<>(problemInstance.getInitialPositions().keySet());
+        groups.sort(Comparator.comparing(group -> Collections.min(problemInstance.getInitialPositions().get(group), byIdx), byIdx));
+
+        List<PositionMapNode> ordering = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        term.append("problem(").append(problemInstance.getAgentsCount()).append(",[");
+        String prefix = "";
+        for (Group group : groups) {
+            List<PositionMapNode> initials = new ArrayList<>(problemInstance.getInitialPositions().get(group));
+            initials.sort(byIdx);
+            List<PositionMapNode> targets = new ArrayList<>(problemInstance.getTargetPositions().get(group));
+            targets.sort(byIdx);
+
+            term.append(prefix).append("group(").append(ordering.size() + 1).append(",");
+            prefix = ",";
+            appendVertices(term, initials, m, offsetX, offsetY, width);
+            term.append(",");
+            appendVertices(term, targets, m, offsetX, offsetY, width);
+            term.append(")");
+            ordering.addAll(initials);
+        }
+        term.append("],").append(width).append(",").append(height);
+        term.append(",margins(").append(minX - gridMinX).append(",").append(minY - gridMinY).append(",")
+                .append(gridMaxX - maxX).append(",").append(gridMaxY - maxY).append("))");
+        return new CanonicalForm(term.toString(), t, ordering);
+    }
+
+    /**
+     * Appends Picat list of transformed vertices.
+     */
+    private void appendVertices(StringBuilder term, List<PositionMapNode> nodes, int[] m, int offsetX, int offsetY, int width) {
+        term.append("[");
+        String prefix = "";
+        for (PositionMapNode node : nodes) {
+            term.append(prefix).append(vertex(m, node, offsetX, offsetY, width));
+            prefix = ",";
+        }
+        term.append("]");
+    }
+
+    /**
+     * Computes linear index of transformed vertex.
+     */
+    private int vertex(int[] m, PositionMapNode node, int offsetX, int offsetY, int width) {
+        int x = m[0] * node.getGridX() + m[1] * node.getGridY() - offsetX;
+        int y = m[2] * node.getGridX() + m[3] * node.getGridY() - offsetY;
+        return y * width + x + 1;
+    }
+
+    /**
+     * Transforms plan of an agent solved for one symmetric variant of instance to another variant.
+     * Moves are relative to the agent, so the transformed plan is the same sequence of actions started in the transformed
+     * start direction (see {@link #startDirection(int, int)}), only mirror images swap {@code turnLeft} and {@code turnRight}.
+     * @param plan Names of actions of the agent in the solved variant.
+     * @param fromTransform Transform from the solved variant to normal form.
+     * @param toTransform Transform from the requested variant to normal form.
+     * @return Names of actions of the agent in the requested variant.
+     */
+    List<String> transformPlan(List<String> plan, int fromTransform, int toTransform) {
+        int[] r = relative(fromTransform, toTransform);
+        boolean mirrored = r[0] * r[3] - r[1] * r[2] < 0;
+
+        List<String> transformed = new ArrayList<>();
+        for (String action : plan) {
+            if (mirrored && action.equals("turnLeft"))
+                transformed.add("turnRight");
+            else if (mirrored && action.equals("turnRight"))
+                transformed.add("turnLeft");
+            else
+                transformed.add(action);
+        }
+        return transformed;
+    }
+
+    /**
+     * Gets direction in which agents start plans transformed by {@link #transformPlan(List, int, int)}.
+     * Agents of the solved variant start facing up, the direction is image of up in the requested variant
+     * (up for identity and for mirror image along the vertical axis).
+     * @param fromTransform Transform from the solved variant to normal form.
+     * @param toTransform Transform from the requested variant to normal form.
+     * @return Number of clockwise turns from up to the start direction.
+     */
+    int startDirection(int fromTransform, int toTransform) {
+        return startDirection(relative(fromTransform, toTransform));
+    }
+
+    /**
+     * Gets the shortest sequence of turns turning agent facing up to given direction.
+     * @param direction Number of clockwise turns from up.
+     * @return Names of the turn actions.
+     */
+    List<String> turnsFromUp(int direction) {
+        if (direction == 3)
+            return List.of("turnLeft");
+        return Collections.nCopies(direction, "turnRight");
+    }
+
+    /**
+     * Checks that the agent does not leave the grid when it follows the plan.
+     * @param start Starting position of the agent.
+     * @param plan Names of actions of the agent, the agent starts facing up.
+     * @param width Width of the grid.
+     * @param height Height of the grid.
+     * @return Whether the agent stays on the grid.
+     */
+    boolean staysOnGrid(PositionMapNode start, List<String> plan, int width, int height) {
+        int x = start.getGridX(), y = start.getGridY(), direction = 0;
+        for (String action : plan) {
+            if (action.equals("goAhead")) {
+                x += directions[direction][0];
+                y += directions[direction][1];
+                if (x < 0 || y < 0 || x >= width || y >= height)
+                    return false;
+            } else if (action.equals("turnRight")) {
+                direction = (direction + 1) % 4;
+            } else if (action.equals("turnLeft")) {
+                direction = (direction + 3) % 4;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes transform from solved variant to requested variant, i.e. inverse of toTransform after fromTransform.
+     * Matrices of the transforms are orthogonal, so the inverse is the transposed matrix.
+     */
+    private int[] relative(int fromTransform, int toTransform) {
+        int[] f = transforms[fromTransform];
+        int[] t = transforms[toTransform];
+        return new int[]{
+                t[0] * f[0] + t[2] * f[2], t[0] * f[1] + t[2] * f[3],
+                t[1] * f[0] + t[3] * f[2], t[1] * f[1] + t[3] * f[3]
+        };
+    }
+
+    /**
+     * Gets number of clockwise turns from up to the image of up direction under given transform.
+     */
+    private int startDirection(int[] r) {
+        int x = r[0] * directions[0][0] + r[1] * directions[0][1];
+        int y = r[2] * directions[0][0] + r[3] * directions[0][1];
+        for (int i = 0; i < directions.length; i++) {
+            if (directions[i][0] == x && directions[i][1] == y)
+                return i;
+        }
+        throw new IllegalStateException("Transform does not map directions to directions.");
+    }
+}
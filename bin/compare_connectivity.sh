@@ -0,0 +1,31 @@
+#!/bin/bash
+
+# Compares connectivity encodings on all instances: flow to each agent (c_c_basic) and single-commodity flow of each group (c_c_single).
+# For each instance and encoding, writes name_solver_clauses_mksLB_mksFinal_time to ../results_connectivity.txt,
+# clauses are counted in CNF of the first makespan. Instances are left in ../instances.
+
+timelimit=300
+
+for file in ../instances/*
+do
+	name=$(echo $file | cut -d/ -f3)
+	for solver in c_c_basic c_c_single
+	do
+		echo $solver solving $name
+
+		rm -f cnf.out
+		timeout $timelimit ./picat $solver $file cnf.out > /dev/null
+		clauses=$(grep -m1 "^p cnf" cnf.out 2>/dev/null | cut -d" " -f4)
+
+		timeout $timelimit ./picat $solver $file > tmp
+
+		el_time=$(grep CPU tmp | cut -d" " -f3)
+		mks_LB=$(grep LB tmp | cut -d" " -f3)
+		mks_final=$(grep timesteps tmp | cut -d" " -f2)
+
+		echo $name'_'$solver'_'$clauses'_'$mks_LB'_'$mks_final'_'$el_time >> ../results_connectivity.txt
+
+		echo "done"
+	done
+done
+rm -f cnf.out tmp